@@ -0,0 +1,120 @@
+package com.moensun.spring.cache.aspectj;
+
+import com.moensun.spring.cache.annotation.MSCacheable;
+import com.moensun.spring.cache.interceptor.MSCacheInterceptor;
+import com.moensun.spring.cache.interceptor.MSMemoryCacheManager;
+import com.moensun.spring.cache.operation.AnnotationMSCacheOperationSource;
+import org.aspectj.lang.Aspects;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a cache hit through a JDK proxy with {@link MSCacheInterceptor}, against a hit through the woven
+ * {@link AnnotationMSCacheAspect}. The aspect has to be woven at load time, so run the benchmarks with the AspectJ
+ * weaver as agent, which the forked JVMs inherit:
+ * {@code java -javaagent:aspectjweaver.jar -jar target/benchmarks.jar MSCacheDispatchBenchmark}, adding
+ * {@code --add-opens java.base/java.lang=ALL-UNNAMED} on JDK 16 and later.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MSCacheDispatchBenchmark {
+
+    private MSMemoryCacheManager cacheManager;
+
+    private UserService proxied;
+
+    private WovenUserRepository woven;
+
+    @Setup
+    public void setUp() {
+        this.cacheManager = new MSMemoryCacheManager();
+        this.cacheManager.afterPropertiesSet();
+
+        MSCacheInterceptor interceptor = new MSCacheInterceptor();
+        interceptor.setCacheOperationSources(new AnnotationMSCacheOperationSource());
+        interceptor.setCacheManager(this.cacheManager);
+        interceptor.afterPropertiesSet();
+        interceptor.afterSingletonsInstantiated();
+
+        ProxyFactory proxyFactory = new ProxyFactory(new UserRepository());
+        proxyFactory.addInterface(UserService.class);
+        proxyFactory.addAdvice(interceptor);
+        this.proxied = (UserService) proxyFactory.getProxy();
+
+        if (!Aspects.hasAspect(AnnotationMSCacheAspect.class)) {
+            throw new IllegalStateException("AnnotationMSCacheAspect is not woven, run with -javaagent:aspectjweaver.jar");
+        }
+        AnnotationMSCacheAspect cacheAspect = Aspects.aspectOf(AnnotationMSCacheAspect.class);
+        cacheAspect.setCacheManager(this.cacheManager);
+        cacheAspect.afterPropertiesSet();
+        cacheAspect.afterSingletonsInstantiated();
+        this.woven = new WovenUserRepository();
+
+        this.proxied.find(42L);
+        this.woven.find(42L);
+        this.woven.find(42L);
+        if (this.woven.finds != 1) {
+            throw new IllegalStateException("WovenUserRepository is not woven, run with -javaagent:aspectjweaver.jar");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheManager.destroy();
+    }
+
+    @Benchmark
+    public String proxy() {
+        return this.proxied.find(42L);
+    }
+
+    @Benchmark
+    public String aspectj() {
+        return this.woven.find(42L);
+    }
+
+
+    public interface UserService {
+
+        @MSCacheable(cacheNames = "proxied", key = "#id")
+        String find(Long id);
+    }
+
+    /**
+     * Annotated through its interface only, so the aspect leaves it alone.
+     */
+    public static class UserRepository implements UserService {
+
+        @Override
+        public String find(Long id) {
+            return "user" + id;
+        }
+    }
+
+    public static class WovenUserRepository {
+
+        private int finds;
+
+        @MSCacheable(cacheNames = "woven", key = "#id")
+        public String find(Long id) {
+            this.finds++;
+            return "user" + id;
+        }
+    }
+}
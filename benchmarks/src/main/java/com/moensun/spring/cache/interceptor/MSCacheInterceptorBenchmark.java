@@ -0,0 +1,100 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.moensun.spring.cache.annotation.MSCachePut;
+import com.moensun.spring.cache.annotation.MSCacheable;
+import com.moensun.spring.cache.operation.AnnotationMSCacheOperationSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of {@link MSCacheInterceptor} per call on an in-memory cache, for a hit and a put with a key, a condition
+ * and an unless expression each, against calling the target directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MSCacheInterceptorBenchmark {
+
+    private MSMemoryCacheManager cacheManager;
+
+    private UserRepository target;
+
+    private UserService service;
+
+    @Setup
+    public void setUp() {
+        this.cacheManager = new MSMemoryCacheManager();
+        this.cacheManager.afterPropertiesSet();
+
+        MSCacheInterceptor interceptor = new MSCacheInterceptor();
+        interceptor.setCacheOperationSources(new AnnotationMSCacheOperationSource());
+        interceptor.setCacheManager(this.cacheManager);
+        interceptor.afterPropertiesSet();
+        interceptor.afterSingletonsInstantiated();
+
+        this.target = new UserRepository();
+        ProxyFactory proxyFactory = new ProxyFactory(this.target);
+        proxyFactory.addInterface(UserService.class);
+        proxyFactory.addAdvice(interceptor);
+        this.service = (UserService) proxyFactory.getProxy();
+        this.service.find(42L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.cacheManager.destroy();
+    }
+
+    @Benchmark
+    public String direct() {
+        return this.target.find(42L);
+    }
+
+    @Benchmark
+    public String cacheableHit() {
+        return this.service.find(42L);
+    }
+
+    @Benchmark
+    public String cachePut() {
+        return this.service.update(42L, "user42");
+    }
+
+
+    public interface UserService {
+
+        String find(Long id);
+
+        String update(Long id, String name);
+    }
+
+    public static class UserRepository implements UserService {
+
+        @Override
+        @MSCacheable(cacheNames = "users", key = "#id", condition = "#id > 0", unless = "#result == null")
+        public String find(Long id) {
+            return "user" + id;
+        }
+
+        @Override
+        @MSCachePut(cacheNames = "users", key = "#id", condition = "#name != null", unless = "#result == null")
+        public String update(Long id, String name) {
+            return name;
+        }
+    }
+}
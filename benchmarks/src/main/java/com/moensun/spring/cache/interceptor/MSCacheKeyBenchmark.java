@@ -0,0 +1,51 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.moensun.spring.cache.annotation.DataType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the key bytes a put needs, asked for by the {@literal SET}, the expiration and the known keys maintenance of
+ * a single key. Run with {@code -prof gc} for the bytes allocated per operation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MSCacheKeyBenchmark {
+
+    private final byte[] prefix = "users:".getBytes();
+
+    private final StringRedisSerializer serializer = new StringRedisSerializer();
+
+    @Benchmark
+    public void put(Blackhole blackhole) {
+        MSCacheKey key = new MSCacheKey("user-42").usePrefix(this.prefix).withKeySerializer(this.serializer);
+        blackhole.consume(key.getKeyBytes());
+        blackhole.consume(key.getKeyBytes());
+        blackhole.consume(key.getKeyBytes());
+    }
+
+    @Benchmark
+    public void hashPut(Blackhole blackhole) {
+        MSCacheKey key = new MSCacheKey("user-42", DataType.HASH, "profile").usePrefix(this.prefix)
+                .withKeySerializer(this.serializer);
+        blackhole.consume(key.getKeyBytes());
+        blackhole.consume(key.getHashKeyBytes());
+        blackhole.consume(key.getKeyBytes());
+        blackhole.consume(key.getKeyBytes());
+    }
+}
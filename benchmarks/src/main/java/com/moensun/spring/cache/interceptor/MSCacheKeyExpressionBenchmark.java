@@ -0,0 +1,92 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+import org.springframework.context.expression.AnnotatedElementKey;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a key from a simple key expression read by its {@link MSCacheKeyExtractor}, against evaluating the same
+ * expression with SpEL in an evaluation context of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MSCacheKeyExpressionBenchmark {
+
+    @Param({"#id", "#p0", "#user.id", "'user:' + #user.id + ':' + #id"})
+    private String expression;
+
+    private final MSCacheOperationExpressionEvaluator evaluator = new MSCacheOperationExpressionEvaluator();
+
+    private final Collection<Cache> caches = Collections.emptyList();
+
+    private final UserService target = new UserService();
+
+    private final Object[] args = {42L, new User(7L)};
+
+    private Method method;
+
+    private AnnotatedElementKey methodKey;
+
+    private MSCacheKeyExtractor extractor;
+
+    @Setup
+    public void setUp() throws NoSuchMethodException {
+        this.method = UserService.class.getMethod("find", Long.class, User.class);
+        this.methodKey = new AnnotatedElementKey(this.method, UserService.class);
+        this.extractor = this.evaluator.compileKeyExtractor(this.expression, this.method, UserService.class);
+        if (this.extractor == null) {
+            throw new IllegalStateException("No extractor for key expression '" + this.expression + "'");
+        }
+    }
+
+    @Benchmark
+    public Object extractor() {
+        return this.extractor.extract(this.args);
+    }
+
+    @Benchmark
+    public Object spel() {
+        return this.evaluator.key(this.expression, this.methodKey, this.evaluator.createEvaluationContext(
+                this.caches, this.method, this.args, this.target, UserService.class, null));
+    }
+
+
+    public static class UserService {
+
+        public String find(Long id, User user) {
+            return "user" + id;
+        }
+    }
+
+    public static class User {
+
+        private final Long id;
+
+        public User(Long id) {
+            this.id = id;
+        }
+
+        public Long getId() {
+            return this.id;
+        }
+    }
+}
@@ -24,8 +24,19 @@ public @interface EnableMSCaching {
 
     boolean proxyTargetClass() default false;
 
+    /**
+     * {@link AdviceMode#ASPECTJ} weaves {@link com.moensun.spring.cache.aspectj.AnnotationMSCacheAspect} into the
+     * annotated classes instead of proxying them. As the mode carries over to {@link EnableCaching}, it also needs
+     * {@code spring-aspects} on the classpath.
+     */
     AdviceMode mode() default AdviceMode.PROXY;
 
     int order() default Ordered.LOWEST_PRECEDENCE;
 
+    /**
+     * Whether to work out the cache operations of all beans in parallel on startup, rather than on the first
+     * invocation of each method.
+     */
+    boolean prewarm() default false;
+
 }
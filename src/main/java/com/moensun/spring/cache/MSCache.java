@@ -2,6 +2,9 @@ package com.moensun.spring.cache;
 
 import org.springframework.cache.Cache;
 
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
@@ -23,4 +26,91 @@ public interface MSCache extends Cache {
 
     void hEvict(Object key, Object hashKey);
 
+    /**
+     * Return the values the given keys are mapped to, read in as few round trips as possible. The default
+     * implementation looks the keys up one by one.
+     *
+     * @param keys the keys to look up, must not be {@literal null}.
+     * @return the hits in the iteration order of {@code keys}, keys without a mapping are left out.
+     */
+    default Map<Object, ValueWrapper> getAll(Collection<?> keys) {
+        Map<Object, ValueWrapper> hits = new LinkedHashMap<Object, ValueWrapper>(keys.size() * 4 / 3 + 1);
+        for (Object key : keys) {
+            ValueWrapper hit = get(key);
+            if (hit != null) {
+                hits.put(key, hit);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Return the values the given fields of a hash are mapped to, read in a single round trip. The default
+     * implementation looks the fields up one by one.
+     *
+     * @param key the key of the hash.
+     * @param hashKeys the fields to look up, must not be {@literal null}.
+     * @return the hits in the iteration order of {@code hashKeys}, fields without a mapping are left out.
+     */
+    default Map<Object, ValueWrapper> hGetAll(Object key, Collection<?> hashKeys) {
+        Map<Object, ValueWrapper> hits = new LinkedHashMap<Object, ValueWrapper>(hashKeys.size() * 4 / 3 + 1);
+        for (Object hashKey : hashKeys) {
+            ValueWrapper hit = hGet(key, hashKey);
+            if (hit != null) {
+                hits.put(hashKey, hit);
+            }
+        }
+        return hits;
+    }
+
+    /**
+     * Associate all given values with their keys in this cache, written in as few round trips as possible. The
+     * default implementation stores the entries one by one.
+     *
+     * @param entries the keys and values to store, must not be {@literal null}.
+     */
+    default void putAll(Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Evict the mappings of all given keys from this cache, if present. The default implementation evicts the keys
+     * one by one.
+     *
+     * @param keys the keys to evict, must not be {@literal null}.
+     */
+    default void evictAll(Collection<?> keys) {
+        for (Object key : keys) {
+            evict(key);
+        }
+    }
+
+    /**
+     * Associate all given values with their fields in a hash, written in as few round trips as possible. The default
+     * implementation stores the fields one by one.
+     *
+     * @param key the key of the hash.
+     * @param entries the fields and values to store, must not be {@literal null}.
+     */
+    default void hPutAll(Object key, Map<?, ?> entries) {
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            hSet(key, entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Evict the mappings of all given fields from a hash, if present. The default implementation evicts the fields
+     * one by one.
+     *
+     * @param key the key of the hash.
+     * @param hashKeys the fields to evict, must not be {@literal null}.
+     */
+    default void hEvictAll(Object key, Collection<?> hashKeys) {
+        for (Object hashKey : hashKeys) {
+            hEvict(key, hashKey);
+        }
+    }
+
 }
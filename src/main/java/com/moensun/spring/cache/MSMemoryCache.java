@@ -0,0 +1,728 @@
+package com.moensun.spring.cache;
+
+import com.moensun.spring.cache.interceptor.AbstractValueAdaptingMSCache;
+import com.moensun.spring.cache.interceptor.MSCacheKey;
+import com.moensun.spring.cache.interceptor.SimpleMSValueWrapper;
+import org.springframework.cache.Cache;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+
+/**
+ * {@link MSCache} keeping its entries in the memory of this process, for single-node deployments and tests. Follows
+ * the semantics of {@link MSRedisCache}: entries, and hashes as a whole, expire after the expiration of the cache, which
+ * every {@link #hSet(Object, Object, Object)} renews for its hash; {@literal null} is stored as
+ * {@link org.springframework.cache.support.NullValue} if allowed and otherwise removes the entry, respectively field,
+ * and a hash disappears with its last field.
+ * <p>Entries live in a {@link ConcurrentHashMap}, whose bins are locked individually. Reads check the expiry of what
+ * they find, while memory of expired entries is reclaimed through a hierarchical timer wheel, scheduling and cancelling
+ * in constant time. Changes to the wheel are queued by writers and applied by whoever holds the timer lock, which
+ * writers only try to acquire, and by {@link #cleanUp()}.
+ */
+public class MSMemoryCache extends AbstractValueAdaptingMSCache {
+
+    private final String name;
+    private final long expiration;
+
+    private final ConcurrentHashMap<Object, Entry> store = new ConcurrentHashMap<Object, Entry>(64);
+
+    private final ConcurrentMap<Object, FutureTask<Object>> loads = new ConcurrentHashMap<Object, FutureTask<Object>>();
+
+    private final ConcurrentLinkedQueue<Entry> timerEvents = new ConcurrentLinkedQueue<Entry>();
+    private final ReentrantLock timerLock = new ReentrantLock();
+    private final TimerWheel timerWheel = new TimerWheel(System.nanoTime());
+
+    /**
+     * Constructs a new {@link MSMemoryCache} instance not allowing {@literal null} values.
+     *
+     * @param name cache name
+     * @param expiration time in seconds, {@literal 0} to never expire.
+     */
+    public MSMemoryCache(String name, long expiration) {
+        this(name, expiration, false);
+    }
+
+    /**
+     * Constructs a new {@link MSMemoryCache} instance.
+     *
+     * @param name cache name
+     * @param expiration time in seconds, {@literal 0} to never expire.
+     * @param allowNullValues
+     */
+    public MSMemoryCache(String name, long expiration, boolean allowNullValues) {
+
+        super(allowNullValues);
+
+        Assert.hasText(name, "CacheName must not be null or empty!");
+        Assert.isTrue(expiration >= 0, "Expiration must not be negative!");
+        this.name = name;
+        this.expiration = expiration;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the {@link ConcurrentMap} holding the entries, hashes being mapped to an internal holder of their fields.
+     */
+    @Override
+    public Object getNativeCache() {
+        return store;
+    }
+
+    /**
+     * @return the number of entries, expired ones not reclaimed yet included.
+     */
+    public int size() {
+        return store.size();
+    }
+
+    @Override
+    protected Object lookup(Object key) {
+
+        ValueEntry entry = liveValue(key);
+        return entry != null ? entry.value : null;
+    }
+
+    @Override
+    protected Object hLookup(Object key) {
+
+        if (!(key instanceof MSCacheKey)) {
+            return null;
+        }
+        MSCacheKey cacheKey = (MSCacheKey) key;
+        return hashValue(cacheKey.getKeyElement(), cacheKey.getHashKeyElement());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(Object key, Callable<T> valueLoader) {
+
+        Cache.ValueWrapper wrapper = get(key);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        return (T) fromStoreValue(load(key, key, null, valueLoader));
+    }
+
+    @Override
+    public void put(Object key, Object value) {
+
+        Object storeValue = toStoreValue(value);
+        if (storeValue == null) {
+            evict(key);
+            return;
+        }
+        replace(key, new ValueEntry(key, storeValue, expiresAt()));
+    }
+
+    @Override
+    public Cache.ValueWrapper putIfAbsent(Object key, Object value) {
+
+        Object storeValue = toStoreValue(value);
+        for (;;) {
+            ValueEntry existing = liveValue(key);
+            if (existing != null) {
+                return new SimpleMSValueWrapper(fromStoreValue(existing.value));
+            }
+            if (storeValue == null) {
+                return null;
+            }
+
+            ValueEntry entry = new ValueEntry(key, storeValue, expiresAt());
+            Entry previous = store.putIfAbsent(key, entry);
+            if (previous == null) {
+                scheduled(entry);
+                return null;
+            }
+            if (previous.isExpired(System.nanoTime()) && store.replace(key, previous, entry)) {
+                retired(previous);
+                scheduled(entry);
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public void evict(Object key) {
+
+        Entry removed = store.remove(key);
+        if (removed != null) {
+            retired(removed);
+        }
+    }
+
+    @Override
+    public void clear() {
+
+        for (Iterator<Entry> entries = store.values().iterator(); entries.hasNext();) {
+            Entry entry = entries.next();
+            entries.remove();
+            retired(entry);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T hGet(Object key, Object hashKey, Class<T> type) {
+
+        Cache.ValueWrapper wrapper = hGet(key, hashKey);
+        Object value = wrapper == null ? null : wrapper.get();
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T hGet(Object key, Object hashKey, Callable<T> valueLoader) {
+
+        Cache.ValueWrapper wrapper = hGet(key, hashKey);
+        if (wrapper != null) {
+            return (T) wrapper.get();
+        }
+        return (T) fromStoreValue(load(new SimpleKey(key, hashKey), key, hashKey, valueLoader));
+    }
+
+    @Override
+    public void hSet(Object key, Object hashKey, Object value) {
+
+        Object storeValue = toStoreValue(value);
+        if (storeValue == null) {
+            hEvict(key, hashKey);
+            return;
+        }
+
+        Map<Object, Object> fields = new LinkedHashMap<Object, Object>(2);
+        fields.put(hashKey, storeValue);
+        hWrite(key, fields);
+    }
+
+    @Override
+    public Cache.ValueWrapper hGet(Object key, Object hashKey) {
+
+        Object value = hashValue(key, hashKey);
+        return value != null ? new SimpleMSValueWrapper(fromStoreValue(value)) : null;
+    }
+
+    @Override
+    public void hEvict(Object key, Object hashKey) {
+        hRemove(key, Collections.singletonList(hashKey));
+    }
+
+    @Override
+    public Map<Object, Cache.ValueWrapper> getAll(Collection<?> keys) {
+
+        Assert.notNull(keys, "Keys must not be null!");
+
+        Map<Object, Cache.ValueWrapper> result = new LinkedHashMap<Object, Cache.ValueWrapper>(keys.size() * 4 / 3 + 1);
+        for (Object key : keys) {
+            ValueEntry entry = liveValue(key);
+            if (entry != null) {
+                result.put(key, new SimpleMSValueWrapper(fromStoreValue(entry.value)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<Object, Cache.ValueWrapper> hGetAll(Object key, Collection<?> hashKeys) {
+
+        Assert.notNull(hashKeys, "HashKeys must not be null!");
+
+        Map<Object, Cache.ValueWrapper> result = new LinkedHashMap<Object, Cache.ValueWrapper>(
+                hashKeys.size() * 4 / 3 + 1);
+        HashEntry entry = liveHash(key);
+        if (entry == null) {
+            return result;
+        }
+        for (Object hashKey : hashKeys) {
+            Object value = entry.fields.get(hashKey);
+            if (value != null) {
+                result.put(hashKey, new SimpleMSValueWrapper(fromStoreValue(value)));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries) {
+
+        Assert.notNull(entries, "Entries must not be null!");
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void evictAll(Collection<?> keys) {
+
+        Assert.notNull(keys, "Keys must not be null!");
+        for (Object key : keys) {
+            evict(key);
+        }
+    }
+
+    @Override
+    public void hPutAll(Object key, Map<?, ?> entries) {
+
+        Assert.notNull(entries, "Entries must not be null!");
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Map<Object, Object> fields = new LinkedHashMap<Object, Object>(entries.size() * 4 / 3 + 1);
+        List<Object> removals = new ArrayList<Object>();
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            Object storeValue = toStoreValue(entry.getValue());
+            if (storeValue == null) {
+                removals.add(entry.getKey());
+            } else {
+                fields.put(entry.getKey(), storeValue);
+            }
+        }
+
+        if (!removals.isEmpty()) {
+            hRemove(key, removals);
+        }
+        if (!fields.isEmpty()) {
+            hWrite(key, fields);
+        }
+    }
+
+    @Override
+    public void hEvictAll(Object key, Collection<?> hashKeys) {
+
+        Assert.notNull(hashKeys, "HashKeys must not be null!");
+        if (!hashKeys.isEmpty()) {
+            hRemove(key, hashKeys);
+        }
+    }
+
+    /**
+     * Reclaim the memory of expired entries and apply pending timer changes. Called by the writers of the cache as they
+     * go; schedule it periodically if the cache may go without writes for long.
+     */
+    public void cleanUp() {
+
+        timerLock.lock();
+        try {
+            maintain();
+        } finally {
+            timerLock.unlock();
+        }
+    }
+
+    private ValueEntry liveValue(Object key) {
+
+        Entry entry = store.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            expire(key, entry);
+            return null;
+        }
+        if (!(entry instanceof ValueEntry)) {
+            throw new IllegalStateException("Key [" + key + "] of cache '" + name + "' holds a hash");
+        }
+        return (ValueEntry) entry;
+    }
+
+    private HashEntry liveHash(Object key) {
+
+        Entry entry = store.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            expire(key, entry);
+            return null;
+        }
+        if (!(entry instanceof HashEntry)) {
+            throw new IllegalStateException("Key [" + key + "] of cache '" + name + "' does not hold a hash");
+        }
+        return (HashEntry) entry;
+    }
+
+    private Object hashValue(Object key, Object hashKey) {
+
+        HashEntry entry = liveHash(key);
+        return entry != null ? entry.fields.get(hashKey) : null;
+    }
+
+    private void replace(Object key, Entry entry) {
+
+        Entry previous = store.put(key, entry);
+        if (previous != null) {
+            retired(previous);
+        }
+        scheduled(entry);
+    }
+
+    /**
+     * Set the given fields, creating the hash if missing or expired, and renew the expiry of the hash.
+     */
+    private void hWrite(final Object key, final Map<Object, Object> fields) {
+
+        final long expiresAt = expiresAt();
+        final Entry[] replaced = new Entry[1];
+
+        Entry entry = store.compute(key, new BiFunction<Object, Entry, Entry>() {
+
+            @Override
+            public Entry apply(Object k, Entry current) {
+
+                HashEntry hash;
+                if (current instanceof HashEntry && !current.isExpired(System.nanoTime())) {
+                    hash = (HashEntry) current;
+                } else if (current == null || current.isExpired(System.nanoTime())) {
+                    replaced[0] = current;
+                    hash = new HashEntry(key);
+                } else {
+                    throw new IllegalStateException("Key [" + key + "] of cache '" + name + "' does not hold a hash");
+                }
+                hash.fields.putAll(fields);
+                hash.expiresAt = expiresAt;
+                return hash;
+            }
+        });
+
+        if (replaced[0] != null) {
+            retired(replaced[0]);
+        }
+        scheduled(entry);
+    }
+
+    /**
+     * Remove the given fields, removing the hash along with its last field.
+     */
+    private void hRemove(final Object key, final Collection<?> hashKeys) {
+
+        final Entry[] removed = new Entry[1];
+
+        store.computeIfPresent(key, new BiFunction<Object, Entry, Entry>() {
+
+            @Override
+            public Entry apply(Object k, Entry current) {
+
+                if (current.isExpired(System.nanoTime())) {
+                    removed[0] = current;
+                    return null;
+                }
+                if (!(current instanceof HashEntry)) {
+                    throw new IllegalStateException("Key [" + key + "] of cache '" + name + "' does not hold a hash");
+                }
+
+                HashEntry hash = (HashEntry) current;
+                for (Object hashKey : hashKeys) {
+                    hash.fields.remove(hashKey);
+                }
+                if (hash.fields.isEmpty()) {
+                    removed[0] = current;
+                    return null;
+                }
+                return current;
+            }
+        });
+
+        if (removed[0] != null) {
+            retired(removed[0]);
+        }
+    }
+
+    /**
+     * Load a missing value through the given loader, once per key however many callers miss it concurrently.
+     *
+     * @return the store value.
+     */
+    private Object load(final Object loadKey, final Object key, final Object hashKey, final Callable<?> valueLoader) {
+
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+
+            @Override
+            public Object call() throws Exception {
+
+                Object value = hashKey == null ? lookup(key) : hashValue(key, hashKey);
+                if (value != null) {
+                    return value;
+                }
+
+                Object storeValue = toStoreValue(valueLoader.call());
+                if (hashKey == null) {
+                    put(key, storeValue);
+                } else {
+                    hSet(key, hashKey, storeValue);
+                }
+                return storeValue;
+            }
+        });
+
+        FutureTask<Object> running = loads.putIfAbsent(loadKey, task);
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                loads.remove(loadKey, task);
+            }
+            running = task;
+        }
+
+        try {
+            return running.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading [" + key + "] into cache '" + name + "'", ex);
+        } catch (ExecutionException ex) {
+            throw new Cache.ValueRetrievalException(key, valueLoader, ex.getCause());
+        }
+    }
+
+    private long expiresAt() {
+        return expiration > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(expiration) : 0;
+    }
+
+    private void expire(Object key, Entry entry) {
+
+        if (store.remove(key, entry)) {
+            retired(entry);
+        }
+    }
+
+    private void scheduled(Entry entry) {
+
+        if (entry.expiresAt != 0) {
+            timerEvents.add(entry);
+            afterWrite();
+        }
+    }
+
+    private void retired(Entry entry) {
+
+        entry.retired = true;
+        if (entry.expiresAt != 0) {
+            timerEvents.add(entry);
+            afterWrite();
+        }
+    }
+
+    private void afterWrite() {
+
+        if (timerLock.tryLock()) {
+            try {
+                maintain();
+            } finally {
+                timerLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Apply the queued timer changes and expire what is due, holding the timer lock.
+     */
+    private void maintain() {
+
+        Entry entry;
+        while ((entry = timerEvents.poll()) != null) {
+            timerWheel.deschedule(entry);
+            if (!entry.retired && entry.expiresAt != 0) {
+                timerWheel.schedule(entry);
+            }
+        }
+
+        timerWheel.advance(System.nanoTime(), this);
+    }
+
+    /**
+     * Called by the timer wheel for an entry whose time has come, holding the timer lock.
+     *
+     * @return {@literal false} if the entry has to be rescheduled, its expiry having been renewed.
+     */
+    boolean onTimer(Entry entry) {
+
+        if (entry.retired) {
+            return true;
+        }
+        if (!entry.isExpired(System.nanoTime())) {
+            return false;
+        }
+        if (store.remove(entry.key, entry)) {
+            entry.retired = true;
+        }
+        return true;
+    }
+
+    /**
+     * Mapping of a cache key, linked into the timer wheel while it has an expiry.
+     */
+    abstract static class Entry {
+
+        final Object key;
+        volatile long expiresAt;
+        volatile boolean retired;
+
+        // guarded by the timer lock
+        Entry previous;
+        Entry next;
+
+        Entry(Object key, long expiresAt) {
+            this.key = key;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+
+            long expiresAt = this.expiresAt;
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+
+    static final class ValueEntry extends Entry {
+
+        final Object value;
+
+        ValueEntry(Object key, Object value, long expiresAt) {
+            super(key, expiresAt);
+            this.value = value;
+        }
+    }
+
+    static final class HashEntry extends Entry {
+
+        final ConcurrentHashMap<Object, Object> fields = new ConcurrentHashMap<Object, Object>(8);
+
+        HashEntry(Object key) {
+            super(key, 0);
+        }
+    }
+
+    /**
+     * Hierarchical timer wheel: each level is a ring of buckets covering a power-of-two span of time, coarser level by
+     * level. An entry is linked into the bucket of the finest level whose ring reaches its expiry, so scheduling and
+     * cancelling take constant time. Advancing the clock empties the buckets passed, expiring their entries or, once the
+     * clock got closer, moving them down to a finer level.
+     */
+    static final class TimerWheel {
+
+        // ~1.07s, ~1.14m, ~1.22h, ~0.81d, ~3.26d
+        private static final int[] BUCKETS = {64, 64, 32, 4, 1};
+        private static final long[] SPANS = {1L << 30, 1L << 36, 1L << 42, 1L << 46, 1L << 48, 1L << 48};
+        private static final int[] SHIFTS = {30, 36, 42, 46, 48};
+
+        private final Entry[][] wheel = new Entry[BUCKETS.length][];
+
+        private long nanos;
+
+        TimerWheel(long nanos) {
+
+            this.nanos = nanos;
+            for (int i = 0; i < wheel.length; i++) {
+                wheel[i] = new Entry[BUCKETS[i]];
+                for (int j = 0; j < wheel[i].length; j++) {
+                    Entry sentinel = new Sentinel();
+                    sentinel.previous = sentinel;
+                    sentinel.next = sentinel;
+                    wheel[i][j] = sentinel;
+                }
+            }
+        }
+
+        void schedule(Entry entry) {
+
+            Entry sentinel = findBucket(entry.expiresAt);
+            entry.previous = sentinel.previous;
+            entry.next = sentinel;
+            sentinel.previous.next = entry;
+            sentinel.previous = entry;
+        }
+
+        void deschedule(Entry entry) {
+
+            if (entry.next != null) {
+                entry.next.previous = entry.previous;
+                entry.previous.next = entry.next;
+                entry.next = null;
+                entry.previous = null;
+            }
+        }
+
+        void advance(long currentTime, MSMemoryCache cache) {
+
+            long previousTime = nanos;
+            nanos = currentTime;
+
+            for (int i = 0; i < SHIFTS.length; i++) {
+                long previousTicks = previousTime >>> SHIFTS[i];
+                long currentTicks = currentTime >>> SHIFTS[i];
+                if (currentTicks - previousTicks <= 0) {
+                    break;
+                }
+                expire(i, previousTicks, currentTicks - previousTicks, cache);
+            }
+        }
+
+        private void expire(int level, long previousTicks, long delta, MSMemoryCache cache) {
+
+            Entry[] buckets = wheel[level];
+            int mask = buckets.length - 1;
+            int steps = (int) Math.min(1 + delta, buckets.length);
+            int start = (int) (previousTicks & mask);
+
+            for (int i = start; i < start + steps; i++) {
+                Entry sentinel = buckets[i & mask];
+                Entry entry = sentinel.next;
+                sentinel.previous = sentinel;
+                sentinel.next = sentinel;
+
+                while (entry != sentinel) {
+                    Entry next = entry.next;
+                    entry.previous = null;
+                    entry.next = null;
+                    if (!cache.onTimer(entry)) {
+                        schedule(entry);
+                    }
+                    entry = next;
+                }
+            }
+        }
+
+        private Entry findBucket(long time) {
+
+            long duration = time - nanos;
+            int last = wheel.length - 1;
+            for (int i = 0; i < last; i++) {
+                if (duration < SPANS[i + 1]) {
+                    long ticks = time >>> SHIFTS[i];
+                    return wheel[i][(int) (ticks & (wheel[i].length - 1))];
+                }
+            }
+            return wheel[last][0];
+        }
+
+        private static final class Sentinel extends Entry {
+
+            Sentinel() {
+                super(null, 0);
+            }
+        }
+    }
+}
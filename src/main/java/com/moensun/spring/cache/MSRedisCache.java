@@ -2,29 +2,75 @@ package com.moensun.spring.cache;
 
 import com.moensun.spring.cache.annotation.DataType;
 import com.moensun.spring.cache.interceptor.AbstractValueAdaptingMSCache;
+import com.moensun.spring.cache.interceptor.LocalMSCacheMessageBroker;
 import com.moensun.spring.cache.interceptor.MSCacheElement;
 import com.moensun.spring.cache.interceptor.MSCacheKey;
+import com.moensun.spring.cache.interceptor.MSCacheMessageBroker;
+import com.moensun.spring.cache.interceptor.MSCacheMessageListener;
+import com.moensun.spring.cache.interceptor.NearCache;
+import com.moensun.spring.cache.interceptor.OffHeapStore;
+import com.moensun.spring.cache.interceptor.RedisKeyScanner;
+import com.moensun.spring.cache.interceptor.RedisMSCacheMessageBroker;
 import com.moensun.spring.cache.interceptor.SimpleMSValueWrapper;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.cache.Cache;
 import org.springframework.cache.support.NullValue;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
 import org.springframework.data.redis.cache.RedisCache;
 import org.springframework.data.redis.cache.RedisCacheElement;
 import org.springframework.data.redis.connection.DecoratedRedisConnection;
+import org.springframework.data.redis.connection.DefaultTuple;
 import org.springframework.data.redis.connection.RedisClusterConnection;
 import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisAccessor;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.serializer.*;
 import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Created by Bane.Shi.
@@ -35,11 +81,32 @@ import java.util.concurrent.Callable;
  */
 public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+    private static final long KNOWN_KEYS_REAP_DELAY = 60000;
+    // longest a caller waits for another node's load before looking at its lease again
+    private static final long LOAD_LEASE_PROBE_INTERVAL = 100;
+
+    private final Log logger = LogFactory.getLog(MSRedisCache.class);
 
     @SuppressWarnings("rawtypes") //
-    private final RedisOperations redisOperations;
+    private final RedisOperations<?, ?> redisOperations;
     private final RedisCacheMetadata cacheMetadata;
     private final CacheValueAccessor cacheValueAccessor;
+    private final LoadLeaseWaiters loadLeaseWaiters = new LoadLeaseWaiters();
+    private final SingleFlight loadFlights = new SingleFlight();
+    private final ClearLockMonitor clearLock = new ClearLockMonitor();
+    private final GenerationTracker generations = new GenerationTracker();
+    private MSCacheMessageBroker messageBroker;
+    private boolean messageBrokerSet;
+    private RedisMSCacheMessageBroker defaultRemoteBroker;
+    private final CacheEventListener eventListener = new CacheEventListener();
+    private volatile ClearProgress clearProgress;
+    private volatile LocalTier localTier;
+    private int nearCacheMaxEntries;
+    private long nearCacheMaxBytes;
+    private long nearCacheOffHeapBytes;
+    private volatile AutoPipeline autoPipeline;
+    private int autoPipelineMaxBatch = AutoPipeline.DEFAULT_MAX_BATCH;
 
     /**
      * Constructs a new {@link RedisCache} instance.
@@ -92,6 +159,286 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
                         ClassUtils.getShortName(redisOperations.getValueSerializer().getClass())));
             }
         }
+
+        useMessageBroker(new LocalMSCacheMessageBroker());
+    }
+
+    /**
+     * Set the {@link MSCacheMessageBroker} used to announce cache events, such as a released load lease, to this and
+     * other nodes. Defaults to a {@link LocalMSCacheMessageBroker} which only reaches the current JVM, or, once an
+     * in-process tier is enabled, to a {@link RedisMSCacheMessageBroker} on the connection factory of the template.
+     *
+     * @param messageBroker must not be {@literal null}.
+     */
+    public void setMessageBroker(MSCacheMessageBroker messageBroker) {
+
+        Assert.notNull(messageBroker, "MessageBroker must not be null!");
+        this.messageBrokerSet = true;
+        useMessageBroker(messageBroker);
+        destroyDefaultRemoteBroker();
+    }
+
+    private void useMessageBroker(MSCacheMessageBroker messageBroker) {
+
+        if (this.messageBroker != null) {
+            this.messageBroker.unsubscribe(cacheMetadata.getEventChannel(), eventListener);
+        }
+        this.messageBroker = messageBroker;
+        messageBroker.subscribe(cacheMetadata.getEventChannel(), eventListener);
+    }
+
+    /**
+     * Stop listening to the events of other nodes. Called by
+     * {@link com.moensun.spring.cache.interceptor.MSRedisCacheManager#destroy()} for the caches it manages; a cache
+     * used on its own should be destroyed once it is no longer needed.
+     */
+    public void destroy() {
+        messageBroker.unsubscribe(cacheMetadata.getEventChannel(), eventListener);
+        destroyDefaultRemoteBroker();
+    }
+
+    /**
+     * Set how long a node may hold the load lease of a single key, in milliseconds. Other callers of
+     * {@link #get(Object, Callable)} for the same key wait at most that long for the value.
+     *
+     * @param loadLeaseTimeout time in milliseconds.
+     */
+    public void setLoadLeaseTimeout(long loadLeaseTimeout) {
+        this.cacheMetadata.setLoadLeaseTimeout(loadLeaseTimeout);
+    }
+
+    /**
+     * Set how old this node's view of the {@link #clear()} lock may get before a write refreshes it from Redis, in
+     * milliseconds. Nodes that missed the lock announcement may write for as long after {@link #clear()} took the
+     * lock, so {@link #clear()} of a cache with prefix waits out this interval before its single walk over the keys,
+     * and {@link #clear()} of a cache without prefix deletes the keys indexed meanwhile once more after it. Either way
+     * a clear takes at least this interval. {@literal 0} checks the lock on every write.
+     *
+     * @param lockProbeInterval time in milliseconds.
+     */
+    public void setLockProbeInterval(long lockProbeInterval) {
+        this.cacheMetadata.setLockProbeInterval(lockProbeInterval);
+    }
+
+    /**
+     * Set the time to live of the lock held during {@link #clear()}, in milliseconds. The lock is renewed while the
+     * clear runs, so this only bounds how long other nodes stall when the clearing node dies.
+     *
+     * @param clearLockTimeout time in milliseconds.
+     */
+    public void setClearLockTimeout(long clearLockTimeout) {
+        this.cacheMetadata.setClearLockTimeout(clearLockTimeout);
+    }
+
+    /**
+     * Enable or disable generational keys. When enabled, every key is prefixed with the cache prefix (or
+     * {@code <cacheName>:} without one) followed by the current generation of the cache, a counter kept at
+     * {@code <cacheName>~generation}. {@link #clear()} then merely increments the generation, which takes a single
+     * command regardless of the cache size, and removes the entries of the previous generation in the background.
+     * Other nodes pick up the new generation through the cache event channel, or at the latest after
+     * {@link #setLockProbeInterval(long) lock probe interval}, and may serve entries of the previous generation until
+     * then. The entries of the previous generation are removed once that interval has passed, including what such
+     * lagging nodes wrote meanwhile.
+     *
+     * @param useGenerations whether to version keys by generation.
+     */
+    public void setUseGenerations(boolean useGenerations) {
+        this.cacheMetadata.setUseGenerations(useGenerations);
+    }
+
+    /**
+     * Set the number of shards the known keys index of a cache without prefix is spread across, so that the index is
+     * no single big key. Defaults to {@literal 1}, which keeps the index at {@code <cacheName>~keys} alone. Must not be
+     * changed for a cache holding entries.
+     *
+     * @param knownKeysShards must be positive.
+     */
+    public void setKnownKeysShards(int knownKeysShards) {
+        this.cacheMetadata.setKnownKeysShards(knownKeysShards);
+    }
+
+    /**
+     * Drop the keys of expired entries from the known keys index of a cache without prefix. Called periodically by
+     * {@link com.moensun.spring.cache.interceptor.MSRedisCacheManager}.
+     *
+     * @return the number of keys dropped.
+     */
+    public long reapKnownKeys() {
+
+        if (cacheMetadata.usesKeyPrefix() || cacheMetadata.usesGenerations()) {
+            return 0;
+        }
+
+        // leave room for clocks of the nodes being apart
+        Long removed = redisOperations.execute(new RedisKnownKeysReapCallback(cacheMetadata,
+                System.currentTimeMillis() - KNOWN_KEYS_REAP_DELAY));
+        return removed != null ? removed : 0;
+    }
+
+    /**
+     * Set how many keys {@link #clear()} deletes per command. Also the {@literal COUNT} hint of the {@literal SCAN}
+     * walking a prefixed cache.
+     *
+     * @param clearBatchSize must be positive.
+     */
+    public void setClearBatchSize(int clearBatchSize) {
+        this.cacheMetadata.setClearBatchSize(clearBatchSize);
+    }
+
+    /**
+     * Set the pause {@link #clear()} takes after each batch of deleted keys of a prefixed cache, in milliseconds, to
+     * leave Redis room for other clients. Defaults to {@literal 0}.
+     *
+     * @param clearBatchPause time in milliseconds.
+     */
+    public void setClearBatchPause(long clearBatchPause) {
+        this.cacheMetadata.setClearBatchPause(clearBatchPause);
+    }
+
+    /**
+     * Set the maximum number of entries of the in-process tier kept in front of Redis, {@literal 0} to disable it, which
+     * is the default. Entries live as long as the default expiration of the cache at most. Writes and {@link #clear()}
+     * invalidate the entries on all nodes through the cache event channel, so the tier must be enabled on every node
+     * writing to the cache, and values handed out by it are shared between callers. Unless a
+     * {@link #setMessageBroker(MSCacheMessageBroker) message broker} has been set, enabling the tier switches the cache
+     * to a {@link RedisMSCacheMessageBroker} on the connection factory of the template, stopped by {@link #destroy()}.
+     *
+     * @param nearCacheMaxEntries must not be negative.
+     */
+    public void setNearCacheMaxEntries(int nearCacheMaxEntries) {
+
+        Assert.isTrue(nearCacheMaxEntries >= 0, "NearCacheMaxEntries must not be negative!");
+        this.nearCacheMaxEntries = nearCacheMaxEntries;
+        this.localTier = createLocalTier();
+    }
+
+    /**
+     * Set the maximum summed size, in bytes, of the serialized values held by the in-process tier, {@literal 0} for no
+     * limit, which is the default.
+     *
+     * @param nearCacheMaxBytes must not be negative.
+     * @see #setNearCacheMaxEntries(int)
+     */
+    public void setNearCacheMaxBytes(long nearCacheMaxBytes) {
+
+        Assert.isTrue(nearCacheMaxBytes >= 0, "NearCacheMaxBytes must not be negative!");
+        this.nearCacheMaxBytes = nearCacheMaxBytes;
+        this.localTier = createLocalTier();
+    }
+
+    /**
+     * Set the off-heap memory, in bytes, of an in-process tier keeping serialized values in direct buffers instead of
+     * deserialized objects on the heap, {@literal 0} to keep the tier on heap, which is the default. Takes precedence over
+     * {@link #setNearCacheMaxEntries(int)}; entries are evicted oldest first once the memory is used up and are
+     * deserialized on every read, so callers never share values.
+     *
+     * @param nearCacheOffHeapBytes must not be negative.
+     */
+    public void setNearCacheOffHeapBytes(long nearCacheOffHeapBytes) {
+
+        Assert.isTrue(nearCacheOffHeapBytes >= 0, "NearCacheOffHeapBytes must not be negative!");
+        this.nearCacheOffHeapBytes = nearCacheOffHeapBytes;
+        this.localTier = createLocalTier();
+    }
+
+    private LocalTier createLocalTier() {
+
+        if (nearCacheOffHeapBytes <= 0 && nearCacheMaxEntries <= 0) {
+            return null;
+        }
+        if (!messageBrokerSet && defaultRemoteBroker == null) {
+            useDefaultRemoteBroker();
+        }
+        if (nearCacheOffHeapBytes > 0) {
+            return new OffHeapTier(new OffHeapStore(nearCacheOffHeapBytes), cacheValueAccessor);
+        }
+        return new HeapTier(new NearCache(nearCacheMaxEntries, nearCacheMaxBytes));
+    }
+
+    /**
+     * The local broker never delivers writes and clears of other nodes, which would leave the in-process tier stale
+     * until its entries expire, or forever without expiration.
+     */
+    private void useDefaultRemoteBroker() {
+
+        if (!(redisOperations instanceof RedisAccessor)
+                || ((RedisAccessor) redisOperations).getConnectionFactory() == null) {
+            throw new IllegalStateException(String.format(
+                    "Cache '%s' needs a message broker reaching all nodes for its in-process tier; "
+                            + "set one before enabling the tier.", cacheMetadata.getCacheName()));
+        }
+
+        RedisMSCacheMessageBroker broker = new RedisMSCacheMessageBroker(
+                ((RedisAccessor) redisOperations).getConnectionFactory());
+        broker.afterPropertiesSet();
+        useMessageBroker(broker);
+        this.defaultRemoteBroker = broker;
+    }
+
+    private void destroyDefaultRemoteBroker() {
+
+        if (defaultRemoteBroker == null) {
+            return;
+        }
+        try {
+            defaultRemoteBroker.destroy();
+        } catch (Exception e) {
+            logger.warn("Failed to stop the message broker of cache '" + cacheMetadata.getCacheName() + "'", e);
+        }
+        defaultRemoteBroker = null;
+    }
+
+    /**
+     * @return the on-heap in-process tier, {@literal null} unless enabled through {@link #setNearCacheMaxEntries(int)}.
+     */
+    public NearCache getNearCache() {
+
+        LocalTier tier = this.localTier;
+        return tier instanceof HeapTier ? ((HeapTier) tier).nearCache : null;
+    }
+
+    /**
+     * @return the off-heap in-process tier, {@literal null} unless enabled through
+     *         {@link #setNearCacheOffHeapBytes(long)}.
+     */
+    public OffHeapStore getOffHeapStore() {
+
+        LocalTier tier = this.localTier;
+        return tier instanceof OffHeapTier ? ((OffHeapTier) tier).store : null;
+    }
+
+    /**
+     * Set the window, in microseconds, during which concurrent single-key reads ({@link #get(MSCacheKey)},
+     * {@link #hGet(MSCacheKey)}) of different threads are collected and sent together, as one {@literal MGET} or one
+     * pipeline, {@literal 0} to send every read on its own, which is the default. A batch leaves early once it holds
+     * {@link #setAutoPipelineMaxBatch(int) max batch} reads. Trades a little latency for fewer round trips and
+     * connections under load.
+     *
+     * @param autoPipelineWindow time in microseconds, must not be negative.
+     */
+    public void setAutoPipelineWindow(long autoPipelineWindow) {
+
+        Assert.isTrue(autoPipelineWindow >= 0, "AutoPipelineWindow must not be negative!");
+        this.autoPipeline = autoPipelineWindow > 0
+                ? new AutoPipeline(redisOperations, TimeUnit.MICROSECONDS.toNanos(autoPipelineWindow), autoPipelineMaxBatch)
+                : null;
+    }
+
+    /**
+     * Set the number of reads after which an auto-pipelined batch is sent without waiting for the end of its window.
+     * Defaults to {@literal 128}.
+     *
+     * @param autoPipelineMaxBatch must be positive.
+     * @see #setAutoPipelineWindow(long)
+     */
+    public void setAutoPipelineMaxBatch(int autoPipelineMaxBatch) {
+
+        Assert.isTrue(autoPipelineMaxBatch > 0, "AutoPipelineMaxBatch must be positive!");
+        this.autoPipelineMaxBatch = autoPipelineMaxBatch;
+        AutoPipeline pipeline = this.autoPipeline;
+        if (pipeline != null) {
+            this.autoPipeline = new AutoPipeline(redisOperations, pipeline.window, autoPipelineMaxBatch);
+        }
     }
 
     /**
@@ -128,19 +475,7 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
                 new StoreTranslatingCallable(valueLoader)).expireAfter(cacheMetadata.getDefaultExpiration());
         BinaryCacheElement rce = new BinaryCacheElement(cacheElement, cacheValueAccessor);
 
-        Cache.ValueWrapper val = get(key);
-        if (val != null) {
-            return (T) val.get();
-        }
-
-        RedisWriteThroughCallback callback = new RedisWriteThroughCallback(rce, cacheMetadata);
-
-        try {
-            byte[] result = (byte[]) redisOperations.execute(callback);
-            return (T) (result == null ? null : fromStoreValue(cacheValueAccessor.deserializeIfNecessary(result)));
-        } catch (RuntimeException e) {
-            throw CacheValueRetrievalExceptionFactory.INSTANCE.create(key, valueLoader, e);
-        }
+        return (T) loadFlights.execute(getLoadLeaseId(rce), new LoadThroughCallable(key, valueLoader, rce));
     }
 
     /**
@@ -154,19 +489,206 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
         Assert.notNull(cacheKey, "CacheKey must not be null!");
 
-        Boolean exists = (Boolean) redisOperations.execute(new RedisCallback<Boolean>() {
+        LocalTier near = this.localTier;
+        if (near == null) {
+            return toCacheElement(cacheKey, readRemote(cacheKey.getKeyBytes(), null));
+        }
+        return getThroughNearCache(near, cacheKey, cacheKey.getKeyBytes(), null);
+    }
+
+    /**
+     * Serve a single read from the in-process tier, falling back to Redis and keeping what it returns.
+     */
+    private MSCacheElement getThroughNearCache(LocalTier near, MSCacheKey cacheKey, byte[] keyBytes,
+                                               byte[] hashKeyBytes) {
 
-            @Override
-            public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
-                return connection.exists(cacheKey.getKeyBytes());
-            }
-        });
+        NearCache.Key nearKey = NearCache.key(keyBytes, hashKeyBytes);
+        Object value = near.get(nearKey);
+        if (value != null) {
+            return new MSCacheElement(cacheKey, fromStoreValue(value));
+        }
+
+        long epoch = near.getEpoch();
+        byte[] bytes = readRemote(keyBytes, hashKeyBytes);
+        if (bytes == null) {
+            return null;
+        }
+
+        value = cacheValueAccessor.deserializeIfNecessary(bytes);
+        near.put(nearKey, value, bytes, TimeUnit.SECONDS.toMillis(cacheMetadata.getDefaultExpiration()), epoch);
+        return new MSCacheElement(cacheKey, fromStoreValue(value));
+    }
+
+    /**
+     * Read a single key, or hash field, from Redis, through the auto-pipeline if enabled.
+     *
+     * @param hashKeyBytes {@literal null} to read a plain key.
+     */
+    private byte[] readRemote(byte[] keyBytes, byte[] hashKeyBytes) {
+
+        AutoPipeline pipeline = this.autoPipeline;
+        if (pipeline != null) {
+            return pipeline.read(keyBytes, hashKeyBytes);
+        }
+        return redisOperations.execute(hashKeyBytes == null ? new RedisCacheGetCallback(keyBytes)
+                : new RedisCacheHGetCallback(keyBytes, hashKeyBytes));
+    }
+
+    /**
+     * Turn the raw reply of a single read into the {@link MSCacheElement} envelope. Stored {@literal null} values are
+     * kept as serialized {@link NullValue}, so a {@literal null} reply always means there is no mapping for the key.
+     *
+     * @param cacheKey the key the reply belongs to.
+     * @param bytes the raw reply, can be {@literal null}.
+     * @return {@literal null} on a miss.
+     */
+    private MSCacheElement toCacheElement(MSCacheKey cacheKey, byte[] bytes) {
 
-        if (!exists.booleanValue()) {
+        if (bytes == null) {
             return null;
         }
 
-        return new MSCacheElement(cacheKey, fromStoreValue(lookup(cacheKey)));
+        return new MSCacheElement(cacheKey, fromStoreValue(cacheValueAccessor.deserializeIfNecessary(bytes)));
+    }
+
+    /**
+     * Load the value of the given element unless it is already present. Concurrent loads of the same key are
+     * serialized through a lease on that key only, carrying an owner token and a TTL, so loads of unrelated keys never
+     * wait for each other. Callers losing the race park until the owner announces the release on the cache event
+     * channel, and then re-read the value. As the announcement may not reach other nodes, they look at the lease and
+     * value again every {@value #LOAD_LEASE_PROBE_INTERVAL}ms regardless.
+     *
+     * @param element the element holding the value loader.
+     * @param leaseId the load lease key of the element, see {@link #getLoadLeaseId(BinaryCacheElement)}.
+     * @return the stored or loaded value bytes, never {@literal null}.
+     */
+    private byte[] loadThrough(BinaryCacheElement element, ByteBuffer leaseId) {
+
+        byte[] leaseKey = leaseId.array();
+        byte[] token = STRING_SERIALIZER.serialize(UUID.randomUUID().toString());
+
+        while (true) {
+
+            // register before looking at the lease so a release racing with us cannot go unnoticed
+            CountDownLatch released = loadLeaseWaiters.register(leaseId);
+            try {
+                LoadLease lease = redisOperations.execute(
+                        new RedisLoadLeaseCallback(element, leaseKey, token, cacheMetadata.getLoadLeaseTimeout()));
+
+                if (lease.getValue() != null) {
+                    return lease.getValue();
+                }
+
+                if (lease.isAcquired()) {
+                    try {
+                        byte[] value = element.get();
+                        awaitClearLock();
+                        redisOperations.execute(element.getDataType() == DataType.HASH
+                                ? new RedisCacheHSetCallback(element, cacheMetadata)
+                                : new RedisCachePutCallback(element, cacheMetadata));
+                        invalidateNearCache(element);
+                        return value;
+                    } finally {
+                        releaseLoadLease(leaseKey, token);
+                    }
+                }
+
+                awaitLoadLease(released, lease.getRemainingTime());
+            } finally {
+                loadLeaseWaiters.unregister(leaseId, released);
+            }
+        }
+    }
+
+    /**
+     * Identifies the value of the given element across nodes as well as within this JVM: the load lease key built from
+     * the serialized key and, for {@link DataType#HASH}, hash key.
+     */
+    private ByteBuffer getLoadLeaseId(BinaryCacheElement element) {
+        return ByteBuffer.wrap(cacheMetadata.getLoadLeaseKey(element.getKeyBytes(),
+                element.getDataType() == DataType.HASH ? element.getHashKeyBytes() : null));
+    }
+
+    private void awaitLoadLease(CountDownLatch released, long remainingTime) {
+
+        // -2: lease already gone, -1: lease without expiry which we never create, so fall back to the timeout
+        long waitTime = remainingTime == -1 ? cacheMetadata.getLoadLeaseTimeout() : remainingTime;
+        if (waitTime <= 0) {
+            return;
+        }
+        waitTime = Math.min(waitTime, LOAD_LEASE_PROBE_INTERVAL);
+
+        try {
+            released.await(waitTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a value to be loaded into cache '"
+                    + getName() + "'", ex);
+        }
+    }
+
+    private void releaseLoadLease(byte[] leaseKey, byte[] token) {
+
+        try {
+            redisOperations.execute(new RedisLeaseReleaseCallback(leaseKey, token));
+        } finally {
+            publishEvent(CacheEvents.LOAD_RELEASED, leaseKey);
+        }
+    }
+
+    private void invalidateNearCache(MSCacheElement element) {
+
+        if (localTier != null) {
+            invalidateNearCacheKeys(Collections.singletonList(NearCache.key(element.getKeyBytes(),
+                    element.getDataType() == DataType.HASH ? element.getHashKeyBytes() : null)));
+        }
+    }
+
+    private void invalidateNearCache(List<? extends MSCacheElement> elements) {
+
+        if (localTier != null) {
+            List<NearCache.Key> nearKeys = new ArrayList<NearCache.Key>(elements.size());
+            for (MSCacheElement element : elements) {
+                nearKeys.add(NearCache.key(element.getKeyBytes(),
+                        element.getDataType() == DataType.HASH ? element.getHashKeyBytes() : null));
+            }
+            invalidateNearCacheKeys(nearKeys);
+        }
+    }
+
+    /**
+     * Drop the given entries from the in-process tier of this node right away and from that of every other node through
+     * the cache event channel.
+     */
+    private void invalidateNearCacheKeys(List<NearCache.Key> nearKeys) {
+
+        LocalTier near = this.localTier;
+        if (near == null || nearKeys.isEmpty()) {
+            return;
+        }
+        for (NearCache.Key nearKey : nearKeys) {
+            near.invalidate(nearKey);
+        }
+        publishEvent(CacheEvents.INVALIDATED, CacheEvents.encodeKeys(nearKeys));
+    }
+
+    private void invalidateNearCache() {
+
+        LocalTier near = this.localTier;
+        if (near != null) {
+            near.invalidateAll();
+        }
+    }
+
+    private void publishEvent(byte type, byte[] payload) {
+
+        try {
+            messageBroker.publish(cacheMetadata.getEventChannel(), CacheEvents.encode(type, payload));
+        } catch (RuntimeException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Failed to publish event for cache '" + getName() + "'", ex);
+            }
+        }
     }
 
     /*
@@ -207,16 +729,20 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
         Assert.notNull(element, "Element must not be null!");
 
+        awaitClearLock();
         redisOperations
                 .execute(new RedisCachePutCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata));
+        invalidateNearCache(element);
     }
 
 
     //region Hash 结构
     public void hSet(MSCacheElement element){
         Assert.notNull(element, "Element must not be null!");
+        awaitClearLock();
         redisOperations
                 .execute(new RedisCacheHSetCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata));
+        invalidateNearCache(element);
     }
     //endregion
 
@@ -244,10 +770,13 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
         Assert.notNull(element, "Element must not be null!");
 
-        new RedisCachePutIfAbsentCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata);
-
-        return toWrapper(cacheValueAccessor.deserializeIfNecessary((byte[]) redisOperations.execute(
-                new RedisCachePutIfAbsentCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata))));
+        awaitClearLock();
+        byte[] previous = redisOperations.execute(
+                new RedisCachePutIfAbsentCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata));
+        if (previous == null) {
+            invalidateNearCache(element);
+        }
+        return toWrapper(cacheValueAccessor.deserializeIfNecessary(previous));
     }
 
     /*
@@ -265,93 +794,366 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
     public void evict(final MSCacheElement element) {
 
         Assert.notNull(element, "Element must not be null!");
+        awaitClearLock();
         redisOperations
                 .execute(new RedisCacheEvictCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata));
+        invalidateNearCache(element);
     }
 
-    /*
-     * (non-Javadoc)
-     * @see org.springframework.cache.Cache#clear()
-     */
-    public void clear() {
-        redisOperations.execute(cacheMetadata.usesKeyPrefix() ? new RedisCacheCleanByPrefixCallback(cacheMetadata)
-                : new RedisCacheCleanByKeysCallback(cacheMetadata));
-    }
+    @Override
+    public void putAll(Map<?, ?> entries) {
 
-    /*
-     * (non-Javadoc)
-     * @see org.springframework.cache.Cache#getName()
-     */
-    public String getName() {
-        return cacheMetadata.getCacheName();
-    }
+        Assert.notNull(entries, "Entries must not be null!");
+        if (entries.isEmpty()) {
+            return;
+        }
 
-    /**
-     * {@inheritDoc} This implementation simply returns the RedisTemplate used for configuring the cache, giving access to
-     * the underlying Redis store.
-     */
-    public Object getNativeCache() {
-        return redisOperations;
-    }
+        byte[] prefix = getKeyPrefix();
+        List<BinaryCacheElement> elements = new ArrayList<BinaryCacheElement>(entries.size());
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            MSCacheKey cacheKey = new MSCacheKey(entry.getKey()).usePrefix(prefix)
+                    .withKeySerializer(redisOperations.getKeySerializer());
+            elements.add(new BinaryCacheElement(new MSCacheElement(cacheKey, toStoreValue(entry.getValue()))
+                    .expireAfter(cacheMetadata.getDefaultExpiration()), cacheValueAccessor));
+        }
 
-    private Cache.ValueWrapper toWrapper(Object value) {
-        return (value != null ? new SimpleMSValueWrapper(value) : null);
+        awaitClearLock();
+        redisOperations.execute(new RedisCachePutAllCallback(elements, cacheMetadata));
+        invalidateNearCache(elements);
     }
 
-    /*
-     * (non-Javadoc)
-     * @see org.springframework.cache.support.AbstractValueAdaptingCache#lookup(java.lang.Object)
-     */
     @Override
-    protected Object lookup(Object key) {
-
-        MSCacheKey cacheKey = key instanceof MSCacheKey ? (MSCacheKey) key : getRedisCacheKey(key);
+    public void evictAll(Collection<?> keys) {
 
-        byte[] bytes = (byte[]) redisOperations.execute(new AbstractRedisCacheCallback<byte[]>(
-                new BinaryCacheElement(new MSCacheElement(cacheKey, null), cacheValueAccessor), cacheMetadata) {
+        Assert.notNull(keys, "Keys must not be null!");
+        if (keys.isEmpty()) {
+            return;
+        }
 
-            @Override
-            public byte[] doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
-                return connection.get(element.getKeyBytes());
-            }
-        });
+        byte[] prefix = getKeyPrefix();
+        List<BinaryCacheElement> elements = new ArrayList<BinaryCacheElement>(keys.size());
+        for (Object key : keys) {
+            MSCacheKey cacheKey = new MSCacheKey(key).usePrefix(prefix)
+                    .withKeySerializer(redisOperations.getKeySerializer());
+            elements.add(new BinaryCacheElement(new MSCacheElement(cacheKey, null), cacheValueAccessor));
+        }
 
-        return bytes == null ? null : cacheValueAccessor.deserializeIfNecessary(bytes);
+        awaitClearLock();
+        redisOperations.execute(new RedisCacheEvictAllCallback(elements, cacheMetadata));
+        invalidateNearCache(elements);
     }
 
     @Override
-    protected Object hLookup(Object key) {
-        MSCacheKey cacheKey = key instanceof MSCacheKey ? (MSCacheKey) key : getRedisCacheKey(key);
+    public void hPutAll(Object key, Map<?, ?> entries) {
 
-        byte[] bytes = (byte[]) redisOperations.execute(new AbstractRedisCacheCallback<byte[]>(
-                new BinaryCacheElement(new MSCacheElement(cacheKey, null), cacheValueAccessor), cacheMetadata) {
+        Assert.notNull(entries, "Entries must not be null!");
+        if (entries.isEmpty()) {
+            return;
+        }
 
-            @Override
-            public byte[] doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
-                return connection.hGet(element.getKeyBytes(),element.getHashKeyBytes());
-            }
-        });
+        byte[] prefix = getKeyPrefix();
+        List<BinaryCacheElement> elements = new ArrayList<BinaryCacheElement>(entries.size());
+        for (Map.Entry<?, ?> entry : entries.entrySet()) {
+            MSCacheKey cacheKey = new MSCacheKey(key, DataType.HASH, entry.getKey()).usePrefix(prefix)
+                    .withKeySerializer(redisOperations.getKeySerializer());
+            elements.add(new BinaryCacheElement(new MSCacheElement(cacheKey, toStoreValue(entry.getValue()))
+                    .expireAfter(cacheMetadata.getDefaultExpiration()), cacheValueAccessor));
+        }
 
-        return bytes == null ? null : cacheValueAccessor.deserializeIfNecessary(bytes);
+        awaitClearLock();
+        redisOperations.execute(new RedisCacheHPutAllCallback(elements, cacheMetadata));
+        invalidateNearCache(elements);
     }
 
-    private MSCacheKey getRedisCacheKey(Object key) {
-        return new MSCacheKey(key).usePrefix(this.cacheMetadata.getKeyPrefix()).withKeySerializer(redisOperations.getKeySerializer());
+    @Override
+    public void hEvictAll(Object key, Collection<?> hashKeys) {
+
+        Assert.notNull(hashKeys, "HashKeys must not be null!");
+        if (hashKeys.isEmpty()) {
+            return;
+        }
+
+        byte[] prefix = getKeyPrefix();
+        byte[] keyBytes = null;
+        byte[][] hashKeysBytes = new byte[hashKeys.size()][];
+        int index = 0;
+        for (Object hashKey : hashKeys) {
+            MSCacheKey cacheKey = new MSCacheKey(key, DataType.HASH, hashKey).usePrefix(prefix)
+                    .withKeySerializer(redisOperations.getKeySerializer());
+            keyBytes = keyBytes == null ? cacheKey.getKeyBytes() : keyBytes;
+            hashKeysBytes[index++] = cacheKey.getHashKeyBytes();
+        }
+
+        awaitClearLock();
+        redisOperations.execute(new RedisCacheHEvictAllCallback(keyBytes, hashKeysBytes));
+
+        if (localTier != null) {
+            List<NearCache.Key> nearKeys = new ArrayList<NearCache.Key>(hashKeysBytes.length);
+            for (byte[] hashKeyBytes : hashKeysBytes) {
+                nearKeys.add(NearCache.key(keyBytes, hashKeyBytes));
+            }
+            invalidateNearCacheKeys(nearKeys);
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.cache.Cache#clear()
+     */
+    public void clear() {
+
+        if (cacheMetadata.usesGenerations()) {
+            clearGeneration();
+            return;
+        }
+
+        byte[] lockKey = cacheMetadata.getCacheLockKey();
+        byte[] token = STRING_SERIALIZER.serialize(UUID.randomUUID().toString());
+        long timeout = cacheMetadata.getClearLockTimeout();
+
+        Boolean locked = redisOperations.execute(new RedisCacheLockCallback(lockKey, token, timeout));
+        if (!Boolean.TRUE.equals(locked)) {
+            // another node is clearing the cache right now
+            return;
+        }
+
+        long lockedAt = System.nanoTime();
+        ClearProgress progress = new ClearProgress();
+        this.clearProgress = progress;
+
+        ScheduledFuture<?> renewal = LeaseRenewals.schedule(new ClearLockRenewal(token, timeout), timeout / 3);
+        try {
+            publishEvent(CacheEvents.CLEAR_LOCKED, lockKey);
+            if (cacheMetadata.usesKeyPrefix()) {
+                // a walk covers the whole keyspace: wait until nodes which missed the announcement stopped writing, so
+                // that a single one removes what they wrote as well
+                awaitLockPropagation(lockedAt);
+                redisOperations.execute(new RedisCacheCleanByPrefixCallback(cacheMetadata, progress));
+            } else {
+                RedisCallback<Void> clean = new RedisCacheCleanByKeysCallback(cacheMetadata, progress);
+                redisOperations.execute(clean);
+                if (awaitLockPropagation(lockedAt)) {
+                    // the index now only holds what nodes which missed the announcement wrote while the first pass ran
+                    redisOperations.execute(clean);
+                }
+            }
+        } finally {
+            progress.finish();
+            if (logger.isDebugEnabled()) {
+                logger.debug("Removed " + progress.getDeletedKeys() + " keys from cache '" + getName() + "' in "
+                        + (progress.getEndTime() - progress.getStartTime()) + "ms");
+            }
+            renewal.cancel(false);
+            invalidateNearCache();
+            try {
+                redisOperations.execute(new RedisLeaseReleaseCallback(lockKey, token));
+            } finally {
+                publishEvent(CacheEvents.CLEAR_UNLOCKED, lockKey);
+            }
+        }
+    }
+
+    /**
+     * Move the cache to the next generation and remove the entries of the previous one in the background.
+     */
+    private void clearGeneration() {
+
+        Long generation = redisOperations.execute(new RedisCacheNextGenerationCallback(cacheMetadata));
+        generations.update(generation, cacheMetadata);
+        invalidateNearCache();
+        publishEvent(CacheEvents.GENERATION, STRING_SERIALIZER.serialize(String.valueOf(generation)));
+
+        byte[] previousPrefix = cacheMetadata.getGenerationPrefix(generation - 1);
+        ClearProgress progress = new ClearProgress();
+        this.clearProgress = progress;
+
+        // nodes which missed the announcement keep writing to the previous generation until their next refresh
+        long probeInterval = cacheMetadata.getLockProbeInterval();
+        Reaper.submit(new PreviousGenerationCleanup(previousPrefix, progress), Math.max(probeInterval, 0));
+    }
+
+    /**
+     * Removes the entries of a previous generation on the {@link Reaper} thread.
+     */
+    private class PreviousGenerationCleanup implements Runnable {
+
+        private final byte[] prefix;
+        private final ClearProgress progress;
+
+        PreviousGenerationCleanup(byte[] prefix, ClearProgress progress) {
+            this.prefix = prefix;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            try {
+                redisOperations.execute(new RedisCacheCleanByPrefixCallback(prefix, cacheMetadata, progress));
+            } catch (RuntimeException ex) {
+                // what is left will expire
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Failed to remove previous generation of cache '" + getName() + "'", ex);
+                }
+            } finally {
+                progress.finish();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Removed " + progress.getDeletedKeys() + " keys of the previous generation from cache '"
+                            + getName() + "' in " + (progress.getEndTime() - progress.getStartTime()) + "ms");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the progress of the latest {@link #clear()} issued by this node, which is updated while the clear runs.
+     *
+     * @return {@literal null} if the cache has not been cleared by this node yet.
+     */
+    public ClearProgress getClearProgress() {
+        return clearProgress;
+    }
+
+    /**
+     * Block while {@link #clear()} holds the cache lock. Costs nothing but a volatile read as long as this node's view
+     * of the lock is fresh and says unlocked. Otherwise parks until the release is announced, or at the latest for the
+     * lock probe interval, as the announcement may not reach this node, and checks the lock in Redis again.
+     */
+    private void awaitClearLock() {
+
+        if (cacheMetadata.usesGenerations()) {
+            // clear() does not lock generational caches
+            return;
+        }
+
+        while (clearLock.isLocked(redisOperations, cacheMetadata)) {
+
+            // fetch the signal before looking at the lock so a release racing with us cannot go unnoticed
+            CountDownLatch released = clearLock.releaseSignal();
+            Long remainingTime = redisOperations.execute(new RedisCacheLockTtlCallback(cacheMetadata));
+            if (remainingTime == null || remainingTime == -2) {
+                clearLock.unlockObserved();
+                return;
+            }
+
+            // -1: lock without expiry, left behind by an older version
+            long waitTime = remainingTime == -1 ? cacheMetadata.getClearLockTimeout() : remainingTime;
+            long probeInterval = cacheMetadata.getLockProbeInterval();
+            waitTime = Math.min(waitTime, probeInterval > 0 ? probeInterval : LOAD_LEASE_PROBE_INTERVAL);
+            try {
+                released.await(waitTime, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for cache '" + getName() + "' to be cleared",
+                        ex);
+            }
+        }
+    }
+
+    /**
+     * Wait until nodes which missed the lock announcement must have picked the lock up with their next probe, which is
+     * at the latest the lock probe interval after the lock was taken.
+     *
+     * @param lockedAt the {@link System#nanoTime()} the lock was taken at.
+     * @return {@literal true} if such nodes may have written entries since the lock was taken.
+     */
+    private boolean awaitLockPropagation(long lockedAt) {
+
+        long probeInterval = cacheMetadata.getLockProbeInterval();
+        if (probeInterval <= 0) {
+            return false;
+        }
+
+        long remaining = lockedAt + TimeUnit.MILLISECONDS.toNanos(probeInterval) - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while locking cache '" + getName() + "'", ex);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.cache.Cache#getName()
+     */
+    public String getName() {
+        return cacheMetadata.getCacheName();
+    }
+
+    /**
+     * {@inheritDoc} This implementation simply returns the RedisTemplate used for configuring the cache, giving access to
+     * the underlying Redis store.
+     */
+    public Object getNativeCache() {
+        return redisOperations;
+    }
+
+    private Cache.ValueWrapper toWrapper(Object value) {
+        return (value != null ? new SimpleMSValueWrapper(value) : null);
+    }
+
+    /*
+     * (non-Javadoc)
+     * @see org.springframework.cache.support.AbstractValueAdaptingCache#lookup(java.lang.Object)
+     */
+    @Override
+    protected Object lookup(Object key) {
+
+        MSCacheKey cacheKey = key instanceof MSCacheKey ? (MSCacheKey) key : getRedisCacheKey(key);
+
+        byte[] bytes = redisOperations.execute(new RedisCacheGetCallback(cacheKey.getKeyBytes()));
+
+        return bytes == null ? null : cacheValueAccessor.deserializeIfNecessary(bytes);
+    }
+
+    @Override
+    protected Object hLookup(Object key) {
+        MSCacheKey cacheKey = key instanceof MSCacheKey ? (MSCacheKey) key : getRedisCacheKey(key);
+
+        byte[] bytes = redisOperations
+                .execute(new RedisCacheHGetCallback(cacheKey.getKeyBytes(), cacheKey.getHashKeyBytes()));
+
+        return bytes == null ? null : cacheValueAccessor.deserializeIfNecessary(bytes);
+    }
+
+    private MSCacheKey getRedisCacheKey(Object key) {
+        return new MSCacheKey(key).usePrefix(getKeyPrefix()).withKeySerializer(redisOperations.getKeySerializer());
     }
 
     private MSCacheKey getRedisCacheKey(Object key, DataType dataType, Object hashKey) {
-        return new MSCacheKey(key,dataType,hashKey).usePrefix(this.cacheMetadata.getKeyPrefix()).withKeySerializer(redisOperations.getKeySerializer());
+        return new MSCacheKey(key,dataType,hashKey).usePrefix(getKeyPrefix()).withKeySerializer(redisOperations.getKeySerializer());
+    }
+
+    private byte[] getKeyPrefix() {
+        return cacheMetadata.usesGenerations() ? generations.getPrefix(redisOperations, cacheMetadata)
+                : cacheMetadata.getKeyPrefix();
     }
 
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T hGet(Object key, Object hashKey, Class<T> type) {
-        return null;
+
+        Cache.ValueWrapper wrapper = hGet(key, hashKey);
+        Object value = wrapper == null ? null : wrapper.get();
+        if (value != null && type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T hGet(Object key, Object hashKey, Callable<T> valueLoader) {
-        return null;
+
+        MSCacheElement cacheElement = new MSCacheElement(getRedisCacheKey(key, DataType.HASH, hashKey),
+                new StoreTranslatingCallable(valueLoader)).expireAfter(cacheMetadata.getDefaultExpiration());
+        BinaryCacheElement rce = new BinaryCacheElement(cacheElement, cacheValueAccessor);
+
+        return (T) loadFlights.execute(getLoadLeaseId(rce), new LoadThroughCallable(key, valueLoader, rce));
     }
 
     @Override
@@ -369,19 +1171,11 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
         Assert.notNull(cacheKey, "CacheKey must not be null!");
 
-        Boolean exists = (Boolean) redisOperations.execute(new RedisCallback<Boolean>() {
-
-            @Override
-            public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
-                return connection.hExists(cacheKey.getKeyBytes(),cacheKey.getHashKeyBytes());
-            }
-        });
-
-        if (!exists.booleanValue()) {
-            return null;
+        LocalTier near = this.localTier;
+        if (near == null) {
+            return toCacheElement(cacheKey, readRemote(cacheKey.getKeyBytes(), cacheKey.getHashKeyBytes()));
         }
-
-        return new MSCacheElement(cacheKey, fromStoreValue(hLookup(cacheKey)));
+        return getThroughNearCache(near, cacheKey, cacheKey.getKeyBytes(), cacheKey.getHashKeyBytes());
     }
 
     @Override
@@ -392,8 +1186,105 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
     public void hEvict(final MSCacheElement element) {
 
         Assert.notNull(element, "Element must not be null!");
+        awaitClearLock();
         redisOperations
                 .execute(new RedisCacheHEvictCallback(new BinaryCacheElement(element, cacheValueAccessor), cacheMetadata));
+        invalidateNearCache(element);
+    }
+
+    @Override
+    public Map<Object, Cache.ValueWrapper> getAll(Collection<?> keys) {
+
+        Assert.notNull(keys, "Keys must not be null!");
+        if (keys.isEmpty()) {
+            return new LinkedHashMap<Object, Cache.ValueWrapper>();
+        }
+
+        byte[] prefix = getKeyPrefix();
+        List<MSCacheKey> cacheKeys = new ArrayList<MSCacheKey>(keys.size());
+        for (Object key : keys) {
+            cacheKeys.add(new MSCacheKey(key).usePrefix(prefix).withKeySerializer(redisOperations.getKeySerializer()));
+        }
+        return getAll(keys, cacheKeys, false);
+    }
+
+    @Override
+    public Map<Object, Cache.ValueWrapper> hGetAll(Object key, Collection<?> hashKeys) {
+
+        Assert.notNull(hashKeys, "HashKeys must not be null!");
+        if (hashKeys.isEmpty()) {
+            return new LinkedHashMap<Object, Cache.ValueWrapper>();
+        }
+
+        byte[] prefix = getKeyPrefix();
+        List<MSCacheKey> cacheKeys = new ArrayList<MSCacheKey>(hashKeys.size());
+        for (Object hashKey : hashKeys) {
+            cacheKeys.add(new MSCacheKey(key, DataType.HASH, hashKey).usePrefix(prefix)
+                    .withKeySerializer(redisOperations.getKeySerializer()));
+        }
+        return getAll(hashKeys, cacheKeys, true);
+    }
+
+    /**
+     * Read the given keys, or fields of a single hash, taking what the in-process tier holds and reading the rest with
+     * one {@literal MGET}, respectively {@literal HMGET}.
+     *
+     * @param keys the keys as requested, in the order of {@code cacheKeys}.
+     * @return the hits by requested key, dropping misses.
+     */
+    private Map<Object, Cache.ValueWrapper> getAll(Collection<?> keys, List<MSCacheKey> cacheKeys, boolean hash) {
+
+        LocalTier near = this.localTier;
+        long epoch = near != null ? near.getEpoch() : 0;
+        Object[] values = new Object[cacheKeys.size()];
+        NearCache.Key[] nearKeys = near != null ? new NearCache.Key[cacheKeys.size()] : null;
+
+        List<Integer> misses = new ArrayList<Integer>(cacheKeys.size());
+        for (int i = 0; i < values.length; i++) {
+            if (near != null) {
+                MSCacheKey cacheKey = cacheKeys.get(i);
+                nearKeys[i] = NearCache.key(cacheKey.getKeyBytes(), hash ? cacheKey.getHashKeyBytes() : null);
+                values[i] = near.get(nearKeys[i]);
+            }
+            if (values[i] == null) {
+                misses.add(i);
+            }
+        }
+
+        if (!misses.isEmpty()) {
+
+            byte[][] missBytes = new byte[misses.size()][];
+            for (int i = 0; i < missBytes.length; i++) {
+                MSCacheKey cacheKey = cacheKeys.get(misses.get(i));
+                missBytes[i] = hash ? cacheKey.getHashKeyBytes() : cacheKey.getKeyBytes();
+            }
+
+            List<byte[]> replies = redisOperations.execute(hash
+                    ? new RedisCacheHMGetCallback(cacheKeys.get(0).getKeyBytes(), missBytes)
+                    : new RedisCacheMGetCallback(missBytes));
+
+            for (int i = 0; replies != null && i < missBytes.length; i++) {
+                byte[] bytes = replies.get(i);
+                if (bytes != null) {
+                    int index = misses.get(i);
+                    values[index] = cacheValueAccessor.deserializeIfNecessary(bytes);
+                    if (near != null) {
+                        near.put(nearKeys[index], values[index], bytes,
+                                TimeUnit.SECONDS.toMillis(cacheMetadata.getDefaultExpiration()), epoch);
+                    }
+                }
+            }
+        }
+
+        Map<Object, Cache.ValueWrapper> result = new LinkedHashMap<Object, Cache.ValueWrapper>(keys.size() * 4 / 3 + 1);
+        int index = 0;
+        for (Object key : keys) {
+            if (values[index] != null) {
+                result.put(key, new MSCacheElement(cacheKeys.get(index), fromStoreValue(values[index])));
+            }
+            index++;
+        }
+        return result;
     }
 
 
@@ -418,6 +1309,70 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         }
     }
 
+    /**
+     * Extends the {@link #clear()} lock lease as long as it is still owned by the given token.
+     */
+    private class ClearLockRenewal implements Runnable {
+
+        private final byte[] token;
+        private final long timeout;
+
+        public ClearLockRenewal(byte[] token, long timeout) {
+            this.token = token;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public void run() {
+
+            try {
+                Boolean renewed = redisOperations.execute(
+                        new RedisLeaseRenewalCallback(cacheMetadata.getCacheLockKey(), token, timeout));
+                if (!Boolean.TRUE.equals(renewed) && logger.isWarnEnabled()) {
+                    logger.warn("Lost the clear lock of cache '" + getName() + "' while clearing it");
+                }
+            } catch (RuntimeException ex) {
+                // keep trying, the lease lasts for another two renewal periods
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Failed to renew the clear lock of cache '" + getName() + "'", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the value of an element and loads it through {@link #loadThrough(BinaryCacheElement, ByteBuffer)} on a miss.
+     * Run as a single flight per lease key, so concurrent callers of this JVM share one read and one load.
+     */
+    private class LoadThroughCallable implements Callable<Object> {
+
+        private final Object key;
+        private final Callable<?> valueLoader;
+        private final BinaryCacheElement element;
+
+        public LoadThroughCallable(Object key, Callable<?> valueLoader, BinaryCacheElement element) {
+            this.key = key;
+            this.valueLoader = valueLoader;
+            this.element = element;
+        }
+
+        @Override
+        public Object call() {
+
+            MSCacheElement val = element.getDataType() == DataType.HASH ? hGet(element.getKey()) : get(element.getKey());
+            if (val != null) {
+                return val.get();
+            }
+
+            try {
+                byte[] result = loadThrough(element, getLoadLeaseId(element));
+                return result == null ? null : fromStoreValue(cacheValueAccessor.deserializeIfNecessary(result));
+            } catch (RuntimeException e) {
+                throw CacheValueRetrievalExceptionFactory.INSTANCE.create(key, valueLoader, e);
+            }
+        }
+    }
+
     /**
      * Metadata required to maintain {@link RedisCache}. Keeps track of additional data structures required for processing
      * cache operations.
@@ -427,11 +1382,27 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
      */
     static class RedisCacheMetadata {
 
+        static final long DEFAULT_LOAD_LEASE_TIMEOUT = 30000;
+        static final long DEFAULT_LOCK_PROBE_INTERVAL = 500;
+        static final long DEFAULT_CLEAR_LOCK_TIMEOUT = 10000;
+        static final int DEFAULT_CLEAR_BATCH_SIZE = 1000;
+        private static final byte[] LEASE_SEPARATOR = new StringRedisSerializer().serialize("~");
+
         private final String cacheName;
         private final byte[] keyPrefix;
         private final byte[] setOfKnownKeys;
+        private volatile byte[][] setsOfKnownKeys;
         private final byte[] cacheLockName;
+        private final String eventChannel;
+        private final byte[] generationKey;
+        private final String generationBase;
+        private boolean useGenerations = false;
         private long defaultExpiration = 0;
+        private long loadLeaseTimeout = DEFAULT_LOAD_LEASE_TIMEOUT;
+        private long lockProbeInterval = DEFAULT_LOCK_PROBE_INTERVAL;
+        private long clearLockTimeout = DEFAULT_CLEAR_LOCK_TIMEOUT;
+        private int clearBatchSize = DEFAULT_CLEAR_BATCH_SIZE;
+        private long clearBatchPause = 0;
 
         /**
          * @param cacheName must not be {@literal null} or empty.
@@ -447,7 +1418,11 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
 
             // name of the set holding the keys
             this.setOfKnownKeys = usesKeyPrefix() ? new byte[] {} : stringSerializer.serialize(cacheName + "~keys");
+            this.setsOfKnownKeys = new byte[][] { setOfKnownKeys };
             this.cacheLockName = stringSerializer.serialize(cacheName + "~lock");
+            this.eventChannel = cacheName + "~events";
+            this.generationKey = stringSerializer.serialize(cacheName + "~generation");
+            this.generationBase = usesKeyPrefix() ? stringSerializer.deserialize(keyPrefix) : cacheName + ":";
         }
 
         /**
@@ -476,62 +1451,272 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         }
 
         /**
-         * Get the binary representation of the key identifying the data structure used to lock the cache.
+         * Get the binary representation of the key identifying the shard of the known keys index the given key is
+         * recorded in: {@code <cacheName>~keys} for the first shard, {@code <cacheName>~keys~<shard>} for the others.
          *
+         * @param keyBytes the binary key of the entry.
          * @return never {@literal null}.
          */
-        public byte[] getCacheLockKey() {
-            return cacheLockName;
+        public byte[] getSetOfKnownKeysKey(byte[] keyBytes) {
+
+            byte[][] shards = setsOfKnownKeys;
+            return shards.length == 1 ? shards[0] : shards[(Arrays.hashCode(keyBytes) & Integer.MAX_VALUE) % shards.length];
         }
 
         /**
-         * Get the name of the cache.
+         * Get the binary representations of the keys of all shards of the known keys index.
          *
-         * @return
+         * @return never {@literal null}.
          */
-        public String getCacheName() {
-            return cacheName;
+        public byte[][] getSetsOfKnownKeysKeys() {
+            return setsOfKnownKeys;
         }
 
         /**
-         * Set the default expiration time in seconds
+         * Set the number of shards the known keys index is spread across. Must not be changed for a cache holding
+         * entries, as keys recorded in shards beyond the new count are no longer found by {@link MSRedisCache#clear()}.
          *
-         * @param seconds
+         * @param shards must be positive.
          */
-        public void setDefaultExpiration(long seconds) {
-            this.defaultExpiration = seconds;
+        public void setKnownKeysShards(int shards) {
+
+            Assert.isTrue(shards > 0, "KnownKeysShards must be positive!");
+
+            byte[][] keys = new byte[shards][];
+            keys[0] = setOfKnownKeys;
+            for (int shard = 1; shard < shards; shard++) {
+                keys[shard] = usesKeyPrefix() ? new byte[] {}
+                        : STRING_SERIALIZER.serialize(cacheName + "~keys~" + shard);
+            }
+            this.setsOfKnownKeys = keys;
         }
 
         /**
-         * Get the default expiration time in seconds.
+         * Get the binary representation of the key identifying the data structure used to lock the cache.
          *
-         * @return
+         * @return never {@literal null}.
          */
-        public long getDefaultExpiration() {
-            return defaultExpiration;
+        public byte[] getCacheLockKey() {
+            return cacheLockName;
         }
 
-    }
+        /**
+         * Get the binary representation of the key holding the load lease of a single cache entry, that is
+         * {@code <cacheName>~lock~<key>} or {@code <cacheName>~lock~<key>~<hashKey>} for hash fields.
+         *
+         * @param keyBytes the binary key of the entry.
+         * @param hashKeyBytes the binary hash key of the entry, can be {@literal null}.
+         * @return never {@literal null}.
+         */
+        public byte[] getLoadLeaseKey(byte[] keyBytes, byte[] hashKeyBytes) {
 
-    /**
-     * @author Christoph Strobl
-     * @since 1.5
-     */
-    static class CacheValueAccessor {
+            int length = cacheLockName.length + LEASE_SEPARATOR.length + keyBytes.length;
+            if (hashKeyBytes != null) {
+                length += LEASE_SEPARATOR.length + hashKeyBytes.length;
+            }
 
-        @SuppressWarnings("rawtypes") //
-        private final RedisSerializer valueSerializer;
+            byte[] leaseKey = new byte[length];
+            int offset = append(leaseKey, 0, cacheLockName);
+            offset = append(leaseKey, offset, LEASE_SEPARATOR);
+            offset = append(leaseKey, offset, keyBytes);
+            if (hashKeyBytes != null) {
+                offset = append(leaseKey, offset, LEASE_SEPARATOR);
+                append(leaseKey, offset, hashKeyBytes);
+            }
+            return leaseKey;
+        }
 
-        @SuppressWarnings("rawtypes")
-        CacheValueAccessor(RedisSerializer valueRedisSerializer) {
-            valueSerializer = valueRedisSerializer;
+        private static int append(byte[] target, int offset, byte[] source) {
+            System.arraycopy(source, 0, target, offset, source.length);
+            return offset + source.length;
         }
 
-        byte[] convertToBytesIfNecessary(Object value) {
+        /**
+         * @param useGenerations whether keys are versioned by the generation of the cache.
+         */
+        public void setUseGenerations(boolean useGenerations) {
+            this.useGenerations = useGenerations;
+        }
 
-            if (value == null) {
-                return new byte[0];
-            }
+        /**
+         * @return true if keys are versioned by the generation of the cache.
+         */
+        public boolean usesGenerations() {
+            return useGenerations;
+        }
+
+        /**
+         * Get the binary representation of the key holding the current generation of the cache.
+         *
+         * @return never {@literal null}.
+         */
+        public byte[] getGenerationKey() {
+            return generationKey;
+        }
+
+        /**
+         * Get the binary representation of the key prefix of the given generation, that is the key prefix of the cache,
+         * or {@code <cacheName>:} without one, followed by {@code <generation>:}.
+         *
+         * @param generation
+         * @return never {@literal null}.
+         */
+        public byte[] getGenerationPrefix(long generation) {
+            return STRING_SERIALIZER.serialize(generationBase + generation + ":");
+        }
+
+        /**
+         * Get the name of the {@link MSCacheMessageBroker} channel cache events are published on.
+         *
+         * @return never {@literal null}.
+         */
+        public String getEventChannel() {
+            return eventChannel;
+        }
+
+        /**
+         * Get the name of the cache.
+         *
+         * @return
+         */
+        public String getCacheName() {
+            return cacheName;
+        }
+
+        /**
+         * Set the default expiration time in seconds
+         *
+         * @param seconds
+         */
+        public void setDefaultExpiration(long seconds) {
+            this.defaultExpiration = seconds;
+        }
+
+        /**
+         * Get the default expiration time in seconds.
+         *
+         * @return
+         */
+        public long getDefaultExpiration() {
+            return defaultExpiration;
+        }
+
+        /**
+         * Set the maximum time a load lease is held, in milliseconds.
+         *
+         * @param millis
+         */
+        public void setLoadLeaseTimeout(long millis) {
+            Assert.isTrue(millis > 0, "LoadLeaseTimeout must be positive!");
+            this.loadLeaseTimeout = millis;
+        }
+
+        /**
+         * Get the maximum time a load lease is held, in milliseconds.
+         *
+         * @return
+         */
+        public long getLoadLeaseTimeout() {
+            return loadLeaseTimeout;
+        }
+
+        /**
+         * Set the maximum age of a node's view of the cache lock, in milliseconds.
+         *
+         * @param millis
+         */
+        public void setLockProbeInterval(long millis) {
+            Assert.isTrue(millis >= 0, "LockProbeInterval must not be negative!");
+            this.lockProbeInterval = millis;
+        }
+
+        /**
+         * Get the maximum age of a node's view of the cache lock, in milliseconds.
+         *
+         * @return
+         */
+        public long getLockProbeInterval() {
+            return lockProbeInterval;
+        }
+
+        /**
+         * Set the time to live of the cache lock, in milliseconds.
+         *
+         * @param millis
+         */
+        public void setClearLockTimeout(long millis) {
+            Assert.isTrue(millis > 0, "ClearLockTimeout must be positive!");
+            this.clearLockTimeout = millis;
+        }
+
+        /**
+         * Get the time to live of the cache lock, in milliseconds.
+         *
+         * @return
+         */
+        public long getClearLockTimeout() {
+            return clearLockTimeout;
+        }
+
+        /**
+         * Set the number of keys deleted per command when clearing the cache.
+         *
+         * @param clearBatchSize
+         */
+        public void setClearBatchSize(int clearBatchSize) {
+            Assert.isTrue(clearBatchSize > 0, "ClearBatchSize must be positive!");
+            this.clearBatchSize = clearBatchSize;
+        }
+
+        /**
+         * Get the number of keys deleted per command when clearing the cache.
+         *
+         * @return
+         */
+        public int getClearBatchSize() {
+            return clearBatchSize;
+        }
+
+        /**
+         * Set the pause between two batches of deleted keys when clearing the cache, in milliseconds.
+         *
+         * @param millis
+         */
+        public void setClearBatchPause(long millis) {
+            Assert.isTrue(millis >= 0, "ClearBatchPause must not be negative!");
+            this.clearBatchPause = millis;
+        }
+
+        /**
+         * Get the pause between two batches of deleted keys when clearing the cache, in milliseconds.
+         *
+         * @return
+         */
+        public long getClearBatchPause() {
+            return clearBatchPause;
+        }
+
+    }
+
+    /**
+     * @author Christoph Strobl
+     * @since 1.5
+     */
+    static class CacheValueAccessor {
+
+        @SuppressWarnings("rawtypes") //
+        private final RedisSerializer valueSerializer;
+
+        @SuppressWarnings("rawtypes")
+        CacheValueAccessor(RedisSerializer valueRedisSerializer) {
+            valueSerializer = valueRedisSerializer;
+        }
+
+        byte[] convertToBytesIfNecessary(Object value) {
+
+            if (value == null) {
+                return new byte[0];
+            }
 
             if (valueSerializer == null && value instanceof byte[]) {
                 return (byte[]) value;
@@ -550,6 +1735,107 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         }
     }
 
+    /**
+     * In-process tier kept in front of Redis, holding store values by their binary key.
+     */
+    abstract static class LocalTier {
+
+        /**
+         * @return the store value, {@literal null} if there is no live entry for the key.
+         */
+        abstract Object get(NearCache.Key key);
+
+        abstract long getEpoch();
+
+        /**
+         * @param value the store value.
+         * @param bytes the serialized form of the value as read from Redis.
+         */
+        abstract void put(NearCache.Key key, Object value, byte[] bytes, long timeToLive, long readEpoch);
+
+        abstract void invalidate(NearCache.Key key);
+
+        abstract void invalidateAll();
+    }
+
+    /**
+     * {@link LocalTier} keeping deserialized values on the heap, shared between readers.
+     */
+    static class HeapTier extends LocalTier {
+
+        private final NearCache nearCache;
+
+        HeapTier(NearCache nearCache) {
+            this.nearCache = nearCache;
+        }
+
+        @Override
+        Object get(NearCache.Key key) {
+            return nearCache.get(key);
+        }
+
+        @Override
+        long getEpoch() {
+            return nearCache.getEpoch();
+        }
+
+        @Override
+        void put(NearCache.Key key, Object value, byte[] bytes, long timeToLive, long readEpoch) {
+            nearCache.put(key, value, bytes.length, timeToLive, readEpoch);
+        }
+
+        @Override
+        void invalidate(NearCache.Key key) {
+            nearCache.invalidate(key);
+        }
+
+        @Override
+        void invalidateAll() {
+            nearCache.invalidateAll();
+        }
+    }
+
+    /**
+     * {@link LocalTier} keeping serialized values off heap and deserializing them on every read.
+     */
+    static class OffHeapTier extends LocalTier {
+
+        private final OffHeapStore store;
+        private final CacheValueAccessor accessor;
+
+        OffHeapTier(OffHeapStore store, CacheValueAccessor accessor) {
+            this.store = store;
+            this.accessor = accessor;
+        }
+
+        @Override
+        Object get(NearCache.Key key) {
+
+            byte[] bytes = store.get(key);
+            return bytes != null ? accessor.deserializeIfNecessary(bytes) : null;
+        }
+
+        @Override
+        long getEpoch() {
+            return store.getEpoch();
+        }
+
+        @Override
+        void put(NearCache.Key key, Object value, byte[] bytes, long timeToLive, long readEpoch) {
+            store.put(key, bytes, timeToLive, readEpoch);
+        }
+
+        @Override
+        void invalidate(NearCache.Key key) {
+            store.invalidate(key);
+        }
+
+        @Override
+        void invalidateAll() {
+            store.invalidateAll();
+        }
+    }
+
     /**
      * @author Christoph Strobl
      * @since 1.6
@@ -598,7 +1884,11 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         }
 
         public byte[] getHashKeyBytes() {
-            return element.getHashKeyBytes();
+
+            if (hashKeyBytes == null) {
+                hashKeyBytes = element.getHashKeyBytes();
+            }
+            return hashKeyBytes;
         }
 
         public MSCacheElement expireAfter(long seconds) {
@@ -626,7 +1916,6 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
      */
      static abstract class AbstractRedisCacheCallback<T> implements RedisCallback<T> {
 
-        private long WAIT_FOR_LOCK_TIMEOUT = 300;
         private final BinaryCacheElement element;
         private final RedisCacheMetadata cacheMetadata;
 
@@ -641,7 +1930,6 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
          */
         @Override
         public T doInRedis(RedisConnection connection) throws DataAccessException {
-            waitForLock(connection);
             return doInRedis(element, connection);
         }
 
@@ -653,178 +1941,469 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
             }
         }
 
+        /**
+         * Record the key in the known keys index, scored by the time it expires at so that
+         * {@link RedisKnownKeysReapCallback} can drop it once it is gone.
+         */
         protected void maintainKnownKeys(MSCacheElement element, RedisConnection connection) {
 
             if (!element.hasKeyPrefix()) {
-
-                connection.zAdd(cacheMetadata.getSetOfKnownKeysKey(), 0, element.getKeyBytes());
-
-                if (!element.isEternal()) {
-                    connection.expire(cacheMetadata.getSetOfKnownKeysKey(), element.getTimeToLive());
-                }
+                connection.zAdd(cacheMetadata.getSetOfKnownKeysKey(element.getKeyBytes()), getKnownKeyScore(element),
+                        element.getKeyBytes());
             }
         }
 
         protected void cleanKnownKeys(MSCacheElement element, RedisConnection connection) {
 
             if (!element.hasKeyPrefix()) {
-                connection.zRem(cacheMetadata.getSetOfKnownKeysKey(), element.getKeyBytes());
+                connection.zRem(cacheMetadata.getSetOfKnownKeysKey(element.getKeyBytes()), element.getKeyBytes());
             }
         }
+    }
 
-        protected boolean waitForLock(RedisConnection connection) {
+    /**
+     * Takes the cache lock held during {@link #clear()} as a lease: the lock key carries the owner token and expires
+     * after the given timeout unless renewed. Released through {@link RedisLeaseReleaseCallback}.
+     */
+    static class RedisCacheLockCallback implements RedisCallback<Boolean> {
 
-            boolean retry;
-            boolean foundLock = false;
-            do {
-                retry = false;
-                if (connection.exists(cacheMetadata.getCacheLockKey())) {
-                    foundLock = true;
-                    try {
-                        Thread.sleep(WAIT_FOR_LOCK_TIMEOUT);
-                    } catch (InterruptedException ex) {
-                        Thread.currentThread().interrupt();
-                    }
-                    retry = true;
-                }
-            } while (retry);
+        private final byte[] lockKey;
+        private final byte[] token;
+        private final long timeout;
+
+        public RedisCacheLockCallback(byte[] lockKey, byte[] token, long timeout) {
+            this.lockKey = lockKey;
+            this.token = token;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
 
-            return foundLock;
+            connection.set(lockKey, token, Expiration.milliseconds(timeout), RedisStringCommands.SetOption.ifAbsent());
+            return Arrays.equals(token, connection.get(lockKey));
         }
+    }
+
+    /**
+     * Reads the current generation of the cache, {@literal 0} if it has never been cleared.
+     */
+    static class RedisCacheGenerationCallback implements RedisCallback<Long> {
+
+        private final RedisCacheMetadata metadata;
 
-        protected void lock(RedisConnection connection) {
-            waitForLock(connection);
-            connection.set(cacheMetadata.getCacheLockKey(), "locked".getBytes());
+        public RedisCacheGenerationCallback(RedisCacheMetadata metadata) {
+            this.metadata = metadata;
         }
 
-        protected void unlock(RedisConnection connection) {
-            connection.del(cacheMetadata.getCacheLockKey());
+        @Override
+        public Long doInRedis(RedisConnection connection) throws DataAccessException {
+
+            byte[] generation = connection.get(metadata.getGenerationKey());
+            return generation == null ? 0L : Long.valueOf(STRING_SERIALIZER.deserialize(generation));
         }
     }
 
     /**
-     * @author Christoph Strobl
-     * @param <T>
-     * @since 1.5
+     * Moves the cache to its next generation.
      */
-    static abstract class LockingRedisCacheCallback<T> implements RedisCallback<T> {
+    static class RedisCacheNextGenerationCallback implements RedisCallback<Long> {
 
         private final RedisCacheMetadata metadata;
 
-        public LockingRedisCacheCallback(RedisCacheMetadata metadata) {
+        public RedisCacheNextGenerationCallback(RedisCacheMetadata metadata) {
             this.metadata = metadata;
         }
 
-        /*
-         * (non-Javadoc)
-         * @see org.springframework.data.redis.core.RedisCallback#doInRedis(org.springframework.data.redis.connection.RedisConnection)
-         */
         @Override
-        public T doInRedis(RedisConnection connection) throws DataAccessException {
+        public Long doInRedis(RedisConnection connection) throws DataAccessException {
+            return connection.incr(metadata.getGenerationKey());
+        }
+    }
 
-            if (connection.exists(metadata.getCacheLockKey())) {
-                return null;
-            }
-            try {
-                connection.set(metadata.getCacheLockKey(), metadata.getCacheLockKey());
-                return doInLock(connection);
-            } finally {
-                connection.del(metadata.getCacheLockKey());
-            }
+    /**
+     * Reads the remaining time to live of the cache lock in milliseconds: {@literal -2} if the lock is not held.
+     */
+    static class RedisCacheLockTtlCallback implements RedisCallback<Long> {
+
+        private final RedisCacheMetadata metadata;
+
+        public RedisCacheLockTtlCallback(RedisCacheMetadata metadata) {
+            this.metadata = metadata;
         }
 
-        public abstract T doInLock(RedisConnection connection);
+        @Override
+        public Long doInRedis(RedisConnection connection) throws DataAccessException {
+            return connection.pTtl(metadata.getCacheLockKey());
+        }
     }
 
     /**
      * @author Christoph Strobl
      * @since 1.5
      */
-    static class RedisCacheCleanByKeysCallback extends LockingRedisCacheCallback<Void> {
+    static class RedisCacheCleanByKeysCallback implements RedisCallback<Void> {
 
         private static final int PAGE_SIZE = 128;
         private final RedisCacheMetadata metadata;
+        private final ClearProgress progress;
 
-        RedisCacheCleanByKeysCallback(RedisCacheMetadata metadata) {
-            super(metadata);
+        RedisCacheCleanByKeysCallback(RedisCacheMetadata metadata, ClearProgress progress) {
             this.metadata = metadata;
+            this.progress = progress;
         }
 
         /*
          * (non-Javadoc)
-         * @see org.springframework.data.redis.cache.RedisCache.LockingRedisCacheCallback#doInLock(org.springframework.data.redis.connection.RedisConnection)
+         * @see org.springframework.data.redis.core.RedisCallback#doInRedis(org.springframework.data.redis.connection.RedisConnection)
          */
         @Override
-        public Void doInLock(RedisConnection connection) {
-
-            int offset = 0;
-            boolean finished = false;
-
-            do {
-                // need to paginate the keys
-                Set<byte[]> keys = connection.zRange(metadata.getSetOfKnownKeysKey(), (offset) * PAGE_SIZE,
-                        (offset + 1) * PAGE_SIZE - 1);
-                finished = keys.size() < PAGE_SIZE;
-                offset++;
-                if (!keys.isEmpty()) {
-                    connection.del(keys.toArray(new byte[keys.size()][]));
-                }
-            } while (!finished);
+        public Void doInRedis(RedisConnection connection) {
+
+            for (byte[] setOfKnownKeys : metadata.getSetsOfKnownKeysKeys()) {
+
+                int offset = 0;
+                boolean finished = false;
+
+                do {
+                    // need to paginate the keys
+                    Set<byte[]> keys = connection.zRange(setOfKnownKeys, (offset) * PAGE_SIZE,
+                            (offset + 1) * PAGE_SIZE - 1);
+                    finished = keys.size() < PAGE_SIZE;
+                    offset++;
+                    if (!keys.isEmpty()) {
+                        Long deleted = connection.del(keys.toArray(new byte[keys.size()][]));
+                        progress.keysDeleted(deleted != null ? deleted : keys.size());
+                    }
+                } while (!finished);
 
-            connection.del(metadata.getSetOfKnownKeysKey());
+                connection.del(setOfKnownKeys);
+            }
             return null;
         }
     }
 
     /**
-     * @author Christoph Strobl
-     * @since 1.5
+     * Drops the members of the known keys index whose entries expired, in batches of at most the clear batch size so
+     * that no single command holds Redis for long. Members without a score, recorded by versions which did not track
+     * expiry, are left alone.
      */
-    static class RedisCacheCleanByPrefixCallback extends LockingRedisCacheCallback<Void> {
+    static class RedisKnownKeysReapCallback implements RedisCallback<Long> {
 
-        private static final byte[] REMOVE_KEYS_BY_PATTERN_LUA = new StringRedisSerializer().serialize(
-                "local keys = redis.call('KEYS', ARGV[1]); local keysCount = table.getn(keys); if(keysCount > 0) then for _, key in ipairs(keys) do redis.call('del', key); end; end; return keysCount;");
-        private static final byte[] WILD_CARD = new StringRedisSerializer().serialize("*");
         private final RedisCacheMetadata metadata;
+        private final double expiredBefore;
 
-        public RedisCacheCleanByPrefixCallback(RedisCacheMetadata metadata) {
-            super(metadata);
+        RedisKnownKeysReapCallback(RedisCacheMetadata metadata, long expiredBefore) {
             this.metadata = metadata;
+            this.expiredBefore = expiredBefore;
         }
 
-        /*
-         * (non-Javadoc)
-         * @see org.springframework.data.redis.cache.RedisCache.LockingRedisCacheCallback#doInLock(org.springframework.data.redis.connection.RedisConnection)
-         */
         @Override
-        public Void doInLock(RedisConnection connection) throws DataAccessException {
+        public Long doInRedis(RedisConnection connection) throws DataAccessException {
 
-            byte[] prefixToUse = Arrays.copyOf(metadata.getKeyPrefix(), metadata.getKeyPrefix().length + WILD_CARD.length);
-            System.arraycopy(WILD_CARD, 0, prefixToUse, metadata.getKeyPrefix().length, WILD_CARD.length);
+            int batchSize = metadata.getClearBatchSize();
+            long removed = 0;
 
-            if (isClusterConnection(connection)) {
+            for (byte[] setOfKnownKeys : metadata.getSetsOfKnownKeysKeys()) {
 
-                // load keys to the client because currently Redis Cluster connections do not allow eval of lua scripts.
-                Set<byte[]> keys = connection.keys(prefixToUse);
-                if (!keys.isEmpty()) {
-                    connection.del(keys.toArray(new byte[keys.size()][]));
-                }
-            } else {
-                connection.eval(REMOVE_KEYS_BY_PATTERN_LUA, ReturnType.INTEGER, 0, prefixToUse);
-            }
+                Set<RedisZSetCommands.Tuple> batch;
+                do {
+                    batch = connection.zRangeByScoreWithScores(setOfKnownKeys, 1, expiredBefore, 0, batchSize);
+                    if (batch == null || batch.isEmpty()) {
+                        break;
+                    }
 
-            return null;
+                    double upTo = 1;
+                    for (RedisZSetCommands.Tuple tuple : batch) {
+                        upTo = Math.max(upTo, tuple.getScore());
+                    }
+                    Long count = connection.zRemRangeByScore(setOfKnownKeys, 1, upTo);
+                    removed += count != null ? count : batch.size();
+                } while (batch.size() >= batchSize);
+            }
+            return removed;
         }
     }
 
     /**
+     * Removes all keys starting with the cache prefix without blocking Redis: the keys are walked by a
+     * {@link RedisKeyScanner} and deleted in batches, optionally pausing after each batch worth of deleted keys. Batches
+     * are deleted with {@literal UNLINK}, which frees their memory off the main thread, except on cluster and on servers
+     * before Redis 4, where {@literal DEL} is used.
+     *
      * @author Christoph Strobl
      * @since 1.5
      */
-    static class RedisCacheEvictCallback extends AbstractRedisCacheCallback<Void> {
+    static class RedisCacheCleanByPrefixCallback implements RedisCallback<Void> {
 
-        public RedisCacheEvictCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
-            super(element, metadata);
+        private final byte[] prefix;
+        private final int batchSize;
+        private final long batchPause;
+        private final ClearProgress progress;
+        private volatile boolean unlinkSupported = true;
+
+        // in chunks, unpack is limited by the Lua stack
+        private static final DefaultRedisScript<Long> UNLINK_LUA = new DefaultRedisScript<Long>(
+                "local n = 0; for i = 1, #KEYS, 500 do n = n + redis.call('UNLINK', unpack(KEYS, i, math.min(i + 499, #KEYS))); end; return n;",
+                Long.class);
+
+        public RedisCacheCleanByPrefixCallback(RedisCacheMetadata metadata, ClearProgress progress) {
+            this(metadata.getKeyPrefix(), metadata, progress);
+        }
+
+        RedisCacheCleanByPrefixCallback(byte[] prefix, RedisCacheMetadata metadata, ClearProgress progress) {
+            this.prefix = prefix;
+            this.batchSize = metadata.getClearBatchSize();
+            this.batchPause = metadata.getClearBatchPause();
+            this.progress = progress;
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.springframework.data.redis.core.RedisCallback#doInRedis(org.springframework.data.redis.connection.RedisConnection)
+         */
+        @Override
+        public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+            final AtomicLong deleted = new AtomicLong();
+
+            new RedisKeyScanner(RedisKeyScanner.prefixPattern(STRING_SERIALIZER.deserialize(prefix)), batchSize)
+                    .scan(connection, new RedisKeyScanner.KeyBatchHandler() {
+
+                        @Override
+                        public void handle(RedisConnection connection, List<byte[]> keys) {
+
+                            progress.keysDeleted(delete(connection, keys.toArray(new byte[keys.size()][])));
+
+                            long before = deleted.getAndAdd(keys.size());
+                            if (before / batchSize != (before + keys.size()) / batchSize) {
+                                pause();
+                            }
+                        }
+                    });
+            return null;
+        }
+
+        private long delete(RedisConnection connection, byte[][] keys) {
+
+            // the cluster connection splits DEL by slot and does not run scripts; the Jedis connection of
+            // spring-data-redis 1.8 only executes commands known to Jedis 2.9, so UNLINK goes through a script
+            if (unlinkSupported && !isClusterConnection(connection)) {
+                try {
+                    Long count = evalScript(connection, UNLINK_LUA, ReturnType.INTEGER, keys.length, keys);
+                    return count != null ? count : keys.length;
+                } catch (RuntimeException e) {
+                    if (!isUnknownCommandError(e)) {
+                        throw e;
+                    }
+                    unlinkSupported = false;
+                }
+            }
+
+            Long count = connection.del(keys);
+            return count != null ? count : keys.length;
+        }
+
+        private void pause() {
+
+            if (batchPause <= 0) {
+                return;
+            }
+
+            try {
+                Thread.sleep(batchPause);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while clearing cache", ex);
+            }
+        }
+    }
+
+    /**
+     * Plain single-key read. Reads do not wait for the cache lock: a read overlapping a {@link #clear()} simply observes
+     * the cache before or after the clear, which keeps a cache hit down to one {@literal GET}.
+     */
+    static class RedisCacheGetCallback implements RedisCallback<byte[]> {
+
+        private final byte[] keyBytes;
+
+        RedisCacheGetCallback(byte[] keyBytes) {
+            this.keyBytes = keyBytes;
+        }
+
+        @Override
+        public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+            return connection.get(keyBytes);
+        }
+    }
+
+    /**
+     * Result of a {@link RedisLoadLeaseCallback}: either the value that is already present, or whether the lease was
+     * acquired and, if not, how long the current owner may still hold it.
+     */
+    static class LoadLease {
+
+        private final byte[] value;
+        private final boolean acquired;
+        private final long remainingTime;
+
+        LoadLease(byte[] value, boolean acquired, long remainingTime) {
+            this.value = value;
+            this.acquired = acquired;
+            this.remainingTime = remainingTime;
+        }
+
+        byte[] getValue() {
+            return value;
+        }
+
+        boolean isAcquired() {
+            return acquired;
+        }
+
+        long getRemainingTime() {
+            return remainingTime;
+        }
+    }
+
+    /**
+     * Re-read the value of an element and, if it is still missing, try to take the load lease of its key. Runs as a
+     * single script on standalone connections; cluster connections do not support scripts and use plain commands.
+     */
+    static class RedisLoadLeaseCallback implements RedisCallback<LoadLease> {
+
+        private static final DefaultRedisScript<List<Object>> ACQUIRE_LOAD_LEASE_LUA = new DefaultRedisScript<List<Object>>();
+        private static final byte[] FLAG_HASH = STRING_SERIALIZER.serialize("1");
+        private static final byte[] FLAG_STRING = STRING_SERIALIZER.serialize("0");
+        private static final byte[] NO_HASH_KEY = new byte[0];
+
+        static {
+            ACQUIRE_LOAD_LEASE_LUA.setScriptText(
+                    "local v; if ARGV[3] == '1' then v = redis.call('HGET', KEYS[1], ARGV[4]); else v = redis.call('GET', KEYS[1]); end; "
+                            + "if v then return {1, v}; end; "
+                            + "if redis.call('SET', KEYS[2], ARGV[1], 'NX', 'PX', ARGV[2]) then return {2}; end; "
+                            + "return {3, redis.call('PTTL', KEYS[2])};");
+        }
+
+        private final BinaryCacheElement element;
+        private final byte[] leaseKey;
+        private final byte[] token;
+        private final long timeout;
+
+        RedisLoadLeaseCallback(BinaryCacheElement element, byte[] leaseKey, byte[] token, long timeout) {
+            this.element = element;
+            this.leaseKey = leaseKey;
+            this.token = token;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public LoadLease doInRedis(RedisConnection connection) throws DataAccessException {
+
+            boolean hash = element.getDataType() == DataType.HASH;
+
+            if (isClusterConnection(connection)) {
+
+                byte[] value = hash ? connection.hGet(element.getKeyBytes(), element.getHashKeyBytes())
+                        : connection.get(element.getKeyBytes());
+                if (value != null) {
+                    return new LoadLease(value, false, 0);
+                }
+
+                connection.set(leaseKey, token, Expiration.milliseconds(timeout), RedisStringCommands.SetOption.ifAbsent());
+                if (Arrays.equals(token, connection.get(leaseKey))) {
+                    return new LoadLease(null, true, 0);
+                }
+                return new LoadLease(null, false, connection.pTtl(leaseKey));
+            }
+
+            List<Object> result = evalScript(connection, ACQUIRE_LOAD_LEASE_LUA, ReturnType.MULTI, 2,
+                    element.getKeyBytes(), leaseKey, token, STRING_SERIALIZER.serialize(String.valueOf(timeout)),
+                    hash ? FLAG_HASH : FLAG_STRING, hash ? element.getHashKeyBytes() : NO_HASH_KEY);
+
+            long state = ((Number) result.get(0)).longValue();
+            if (state == 1) {
+                return new LoadLease((byte[]) result.get(1), false, 0);
+            }
+            if (state == 2) {
+                return new LoadLease(null, true, 0);
+            }
+            return new LoadLease(null, false, ((Number) result.get(1)).longValue());
+        }
+    }
+
+    /**
+     * Delete a lease key, but only while it still carries the given owner token.
+     */
+    static class RedisLeaseReleaseCallback implements RedisCallback<Void> {
+
+        private static final DefaultRedisScript<Long> RELEASE_LEASE_LUA = new DefaultRedisScript<Long>(
+                "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]); end; return 0;",
+                Long.class);
+
+        private final byte[] leaseKey;
+        private final byte[] token;
+
+        RedisLeaseReleaseCallback(byte[] leaseKey, byte[] token) {
+            this.leaseKey = leaseKey;
+            this.token = token;
+        }
+
+        @Override
+        public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+            if (isClusterConnection(connection)) {
+                if (Arrays.equals(token, connection.get(leaseKey))) {
+                    connection.del(leaseKey);
+                }
+                return null;
+            }
+
+            evalScript(connection, RELEASE_LEASE_LUA, ReturnType.INTEGER, 1, leaseKey, token);
+            return null;
+        }
+    }
+
+    /**
+     * Reset the time to live of a lease key, but only while it still carries the given owner token.
+     */
+    static class RedisLeaseRenewalCallback implements RedisCallback<Boolean> {
+
+        private static final DefaultRedisScript<Long> RENEW_LEASE_LUA = new DefaultRedisScript<Long>(
+                "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]); end; return 0;",
+                Long.class);
+
+        private final byte[] leaseKey;
+        private final byte[] token;
+        private final long timeout;
+
+        RedisLeaseRenewalCallback(byte[] leaseKey, byte[] token, long timeout) {
+            this.leaseKey = leaseKey;
+            this.token = token;
+            this.timeout = timeout;
+        }
+
+        @Override
+        public Boolean doInRedis(RedisConnection connection) throws DataAccessException {
+
+            if (isClusterConnection(connection)) {
+                return Arrays.equals(token, connection.get(leaseKey)) && connection.pExpire(leaseKey, timeout);
+            }
+
+            Long renewed = evalScript(connection, RENEW_LEASE_LUA, ReturnType.INTEGER, 1, leaseKey, token,
+                    STRING_SERIALIZER.serialize(String.valueOf(timeout)));
+            return renewed != null && renewed == 1;
+        }
+    }
+
+    /**
+     * @author Christoph Strobl
+     * @since 1.5
+     */
+    static class RedisCacheEvictCallback extends AbstractRedisCacheCallback<Void> {
+
+        public RedisCacheEvictCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
+            super(element, metadata);
         }
 
         /*
@@ -841,174 +2420,1169 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
     }
 
     /**
-     * @author Christoph Strobl
-     * @since 1.5
+     * Base for writes of many elements at once. On a single node all commands are pipelined and flushed together, on
+     * cluster, where spring-data-redis cannot pipeline, they are sent one after another over the same connection.
+     * Unlike the single-element writes the batch is not wrapped in {@literal MULTI}, each element is written on its own.
+     */
+    static abstract class AbstractRedisCacheBatchCallback implements RedisCallback<Void> {
+
+        private final List<BinaryCacheElement> elements;
+        private final RedisCacheMetadata cacheMetadata;
+
+        AbstractRedisCacheBatchCallback(List<BinaryCacheElement> elements, RedisCacheMetadata metadata) {
+            this.elements = elements;
+            this.cacheMetadata = metadata;
+        }
+
+        @Override
+        public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+            if (isClusterConnection(connection)) {
+                doInRedis(elements, connection);
+                return null;
+            }
+
+            connection.openPipeline();
+            try {
+                doInRedis(elements, connection);
+            } finally {
+                connection.closePipeline();
+            }
+            return null;
+        }
+
+        protected abstract void doInRedis(List<BinaryCacheElement> elements, RedisConnection connection);
+
+        /**
+         * Record the given elements in the known keys index with a single {@literal ZADD} per shard.
+         */
+        protected void maintainKnownKeys(List<BinaryCacheElement> elements, RedisConnection connection) {
+
+            Map<ByteBuffer, Set<RedisZSetCommands.Tuple>> shards = new LinkedHashMap<ByteBuffer, Set<RedisZSetCommands.Tuple>>();
+            for (BinaryCacheElement element : elements) {
+                if (element.hasKeyPrefix()) {
+                    continue;
+                }
+                ByteBuffer shard = ByteBuffer.wrap(cacheMetadata.getSetOfKnownKeysKey(element.getKeyBytes()));
+                Set<RedisZSetCommands.Tuple> tuples = shards.get(shard);
+                if (tuples == null) {
+                    tuples = new LinkedHashSet<RedisZSetCommands.Tuple>();
+                    shards.put(shard, tuples);
+                }
+                tuples.add(new DefaultTuple(element.getKeyBytes(), getKnownKeyScore(element)));
+            }
+
+            for (Map.Entry<ByteBuffer, Set<RedisZSetCommands.Tuple>> shard : shards.entrySet()) {
+                connection.zAdd(shard.getKey().array(), shard.getValue());
+            }
+        }
+
+        /**
+         * Drop the given elements from the known keys index with a single {@literal ZREM} per shard.
+         */
+        protected void cleanKnownKeys(List<BinaryCacheElement> elements, RedisConnection connection) {
+
+            Map<ByteBuffer, List<byte[]>> shards = new LinkedHashMap<ByteBuffer, List<byte[]>>();
+            for (BinaryCacheElement element : elements) {
+                if (element.hasKeyPrefix()) {
+                    continue;
+                }
+                ByteBuffer shard = ByteBuffer.wrap(cacheMetadata.getSetOfKnownKeysKey(element.getKeyBytes()));
+                List<byte[]> keys = shards.get(shard);
+                if (keys == null) {
+                    keys = new ArrayList<byte[]>();
+                    shards.put(shard, keys);
+                }
+                keys.add(element.getKeyBytes());
+            }
+
+            for (Map.Entry<ByteBuffer, List<byte[]>> shard : shards.entrySet()) {
+                connection.zRem(shard.getKey().array(), shard.getValue().toArray(new byte[shard.getValue().size()][]));
+            }
+        }
+    }
+
+    /**
+     * Writes many elements, each with a single {@literal SET EX}, followed by the known keys maintenance.
+     */
+    static class RedisCachePutAllCallback extends AbstractRedisCacheBatchCallback {
+
+        RedisCachePutAllCallback(List<BinaryCacheElement> elements, RedisCacheMetadata metadata) {
+            super(elements, metadata);
+        }
+
+        @Override
+        protected void doInRedis(List<BinaryCacheElement> elements, RedisConnection connection) {
+
+            List<BinaryCacheElement> written = new ArrayList<BinaryCacheElement>(elements.size());
+            List<BinaryCacheElement> deleted = new ArrayList<BinaryCacheElement>();
+            for (BinaryCacheElement element : elements) {
+                if (element.get().length == 0) {
+                    connection.del(element.getKeyBytes());
+                    deleted.add(element);
+                } else {
+                    setWithExpiration(element, connection);
+                    written.add(element);
+                }
+            }
+            maintainKnownKeys(written, connection);
+            cleanKnownKeys(deleted, connection);
+        }
+    }
+
+    /**
+     * Removes many elements with a single {@literal DEL}, followed by the known keys maintenance.
+     */
+    static class RedisCacheEvictAllCallback extends AbstractRedisCacheBatchCallback {
+
+        RedisCacheEvictAllCallback(List<BinaryCacheElement> elements, RedisCacheMetadata metadata) {
+            super(elements, metadata);
+        }
+
+        @Override
+        protected void doInRedis(List<BinaryCacheElement> elements, RedisConnection connection) {
+
+            byte[][] keys = new byte[elements.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = elements.get(i).getKeyBytes();
+            }
+            connection.del(keys);
+            cleanKnownKeys(elements, connection);
+        }
+    }
+
+    /**
+     * Writes many fields of the same hash with a single {@literal HMSET}, then applies the time to live and records the
+     * hash in the known keys index once.
+     */
+    static class RedisCacheHPutAllCallback extends AbstractRedisCacheBatchCallback {
+
+        RedisCacheHPutAllCallback(List<BinaryCacheElement> elements, RedisCacheMetadata metadata) {
+            super(elements, metadata);
+        }
+
+        @Override
+        protected void doInRedis(List<BinaryCacheElement> elements, RedisConnection connection) {
+
+            BinaryCacheElement first = elements.get(0);
+            Map<byte[], byte[]> fields = new LinkedHashMap<byte[], byte[]>(elements.size() * 4 / 3 + 1);
+            List<byte[]> deleted = new ArrayList<byte[]>();
+            for (BinaryCacheElement element : elements) {
+                if (element.get().length == 0) {
+                    deleted.add(element.getHashKeyBytes());
+                } else {
+                    fields.put(element.getHashKeyBytes(), element.get());
+                }
+            }
+
+            if (!deleted.isEmpty()) {
+                connection.hDel(first.getKeyBytes(), deleted.toArray(new byte[deleted.size()][]));
+            }
+            if (!fields.isEmpty()) {
+                connection.hMSet(first.getKeyBytes(), fields);
+                if (!first.isEternal()) {
+                    connection.expire(first.getKeyBytes(), first.getTimeToLive());
+                }
+                maintainKnownKeys(elements.subList(0, 1), connection);
+            }
+        }
+    }
+
+    /**
+     * Removes many fields of the same hash with a single {@literal HDEL}.
+     */
+    static class RedisCacheHEvictAllCallback implements RedisCallback<Void> {
+
+        private final byte[] keyBytes;
+        private final byte[][] hashKeysBytes;
+
+        RedisCacheHEvictAllCallback(byte[] keyBytes, byte[][] hashKeysBytes) {
+            this.keyBytes = keyBytes;
+            this.hashKeysBytes = hashKeysBytes;
+        }
+
+        @Override
+        public Void doInRedis(RedisConnection connection) throws DataAccessException {
+
+            connection.hDel(keyBytes, hashKeysBytes);
+            return null;
+        }
+    }
+
+    /**
+     * @author Christoph Strobl
+     * @since 1.5
+     */
+    static class RedisCachePutCallback extends AbstractRedisCacheCallback<Void> {
+
+        public RedisCachePutCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
+
+            super(element, metadata);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.springframework.data.redis.cache.RedisCache.AbstractRedisPutCallback#doInRedis(org.springframework.data.redis.cache.RedisCache.RedisCacheElement, org.springframework.data.redis.connection.RedisConnection)
+         */
+        @Override
+        public Void doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
+
+            if (!isClusterConnection(connection)) {
+                connection.multi();
+            }
+
+            if (element.get().length == 0) {
+                connection.del(element.getKeyBytes());
+            } else {
+                setWithExpiration(element, connection);
+                maintainKnownKeys(element, connection);
+            }
+
+            if (!isClusterConnection(connection)) {
+                connection.exec();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @author Christoph Strobl
+     * @since 1.5
+     */
+    static class RedisCachePutIfAbsentCallback extends AbstractRedisCacheCallback<byte[]> {
+
+        public RedisCachePutIfAbsentCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
+            super(element, metadata);
+        }
+
+        /*
+         * (non-Javadoc)
+         * @see org.springframework.data.redis.cache.RedisCache.AbstractRedisPutCallback#doInRedis(org.springframework.data.redis.cache.RedisCache.RedisCacheElement, org.springframework.data.redis.connection.RedisConnection)
+         */
+        @Override
+        public byte[] doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
+
+            byte[] keyBytes = element.getKeyBytes();
+            byte[] value = element.get();
+
+            if (!connection.setNX(keyBytes, value)) {
+                return connection.get(keyBytes);
+            }
+
+            maintainKnownKeys(element, connection);
+            processKeyExpiration(element, connection);
+
+            return null;
+        }
+    }
+
+    /**
+     * @author Christoph Strobl
+     * @since 1.7 (TODO: remove when upgrading to spring 4.3)
+     */
+    private static enum CacheValueRetrievalExceptionFactory {
+
+        INSTANCE;
+
+        private static boolean isSpring43;
+
+        static {
+            isSpring43 = ClassUtils.isPresent("org.springframework.cache.Cache$ValueRetrievalException",
+                    ClassUtils.getDefaultClassLoader());
+        }
+
+        public RuntimeException create(Object key, Callable<?> valueLoader, Throwable cause) {
+
+            if (isSpring43) {
+                try {
+                    Class<?> execption = ClassUtils.forName("org.springframework.cache.Cache$ValueRetrievalException",
+                            this.getClass().getClassLoader());
+                    Constructor<?> c = ClassUtils.getConstructorIfAvailable(execption, Object.class, Callable.class,
+                            Throwable.class);
+                    return (RuntimeException) c.newInstance(key, valueLoader, cause);
+                } catch (Exception ex) {
+                    // ignore
+                }
+            }
+
+            return new RedisSystemException(
+                    String.format("Value for key '%s' could not be loaded using '%s'.", key, valueLoader), cause);
+        }
+    }
+
+    /**
+     * Write the value of the element along with its time to live in a single {@literal SET EX} (or plain
+     * {@literal SET} for eternal elements), instead of a {@literal SET} followed by an {@literal EXPIRE}.
+     */
+    private static void setWithExpiration(BinaryCacheElement element, RedisConnection connection) {
+
+        if (element.isEternal()) {
+            connection.set(element.getKeyBytes(), element.get());
+        } else {
+            connection.set(element.getKeyBytes(), element.get(), Expiration.seconds(element.getTimeToLive()),
+                    RedisStringCommands.SetOption.upsert());
+        }
+    }
+
+    /**
+     * @return the score of the element in the known keys index, the time it expires at in milliseconds.
+     */
+    private static double getKnownKeyScore(MSCacheElement element) {
+        return element.isEternal() ? Double.MAX_VALUE
+                : System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(element.getTimeToLive());
+    }
+
+    private static boolean isClusterConnection(RedisConnection connection) {
+
+        while (connection instanceof DecoratedRedisConnection) {
+            connection = ((DecoratedRedisConnection) connection).getDelegate();
+        }
+
+        return connection instanceof RedisClusterConnection;
+    }
+
+    /**
+     * Run the given script via {@literal EVALSHA}, falling back to {@literal EVAL} when the server does not know it yet.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T evalScript(RedisConnection connection, DefaultRedisScript<?> script, ReturnType returnType,
+                                    int numKeys, byte[]... keysAndArgs) {
+
+        try {
+            return (T) connection.evalSha(script.getSha1(), returnType, numKeys, keysAndArgs);
+        } catch (RuntimeException e) {
+            if (!isNoScriptError(e)) {
+                throw e;
+            }
+            return (T) connection.eval(STRING_SERIALIZER.serialize(script.getScriptAsString()), returnType, numKeys,
+                    keysAndArgs);
+        }
+    }
+
+    private static boolean isNoScriptError(Throwable e) {
+
+        Throwable current = e;
+        while (current != null) {
+            if (current.getMessage() != null && current.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+            current = current.getCause();
+        }
+        return false;
+    }
+
+    private static boolean isUnknownCommandError(Throwable e) {
+
+        Throwable current = e;
+        while (current != null) {
+            // "ERR unknown command", or "Unknown Redis command called from Lua script"
+            String message = current.getMessage() != null ? current.getMessage().toLowerCase() : "";
+            if (message.contains("unknown") && message.contains("command")) {
+                return true;
+            }
+            current = current.getCause();
+        }
+        return false;
+    }
+
+    /**
+     * Types and encoding of the messages published on {@link RedisCacheMetadata#getEventChannel()}: one type byte
+     * followed by the binary payload.
+     */
+    static final class CacheEvents {
+
+        /**
+         * The load lease carried in the payload has been released.
+         */
+        static final byte LOAD_RELEASED = 'R';
+
+        /**
+         * The cache lock has been taken by {@link #clear()}.
+         */
+        static final byte CLEAR_LOCKED = 'L';
+
+        /**
+         * The cache lock has been released by {@link #clear()}.
+         */
+        static final byte CLEAR_UNLOCKED = 'U';
+
+        /**
+         * The cache moved to the generation carried in the payload as decimal string.
+         */
+        static final byte GENERATION = 'G';
+
+        /**
+         * The entries listed in the payload, see {@link #encodeKeys(List)}, have been written or removed.
+         */
+        static final byte INVALIDATED = 'I';
+
+        private CacheEvents() {
+        }
+
+        static byte[] encode(byte type, byte[] payload) {
+
+            byte[] message = new byte[payload.length + 1];
+            message[0] = type;
+            System.arraycopy(payload, 0, message, 1, payload.length);
+            return message;
+        }
+
+        static ByteBuffer payload(byte[] message) {
+            return ByteBuffer.wrap(message, 1, message.length - 1).slice();
+        }
+
+        /**
+         * Encode the keys of in-process entries, each as the length of the key, the key, the length of the hash key or
+         * {@literal -1} without one, and the hash key.
+         */
+        static byte[] encodeKeys(List<NearCache.Key> keys) {
+
+            int length = 0;
+            for (NearCache.Key key : keys) {
+                length += 8 + key.getKeyBytes().length
+                        + (key.getHashKeyBytes() != null ? key.getHashKeyBytes().length : 0);
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            for (NearCache.Key key : keys) {
+                payload.putInt(key.getKeyBytes().length).put(key.getKeyBytes());
+                if (key.getHashKeyBytes() != null) {
+                    payload.putInt(key.getHashKeyBytes().length).put(key.getHashKeyBytes());
+                } else {
+                    payload.putInt(-1);
+                }
+            }
+            return payload.array();
+        }
+
+        static List<NearCache.Key> decodeKeys(ByteBuffer payload) {
+
+            List<NearCache.Key> keys = new ArrayList<NearCache.Key>();
+            while (payload.remaining() >= 8) {
+                byte[] keyBytes = new byte[payload.getInt()];
+                payload.get(keyBytes);
+                int hashKeyLength = payload.getInt();
+                byte[] hashKeyBytes = null;
+                if (hashKeyLength >= 0) {
+                    hashKeyBytes = new byte[hashKeyLength];
+                    payload.get(hashKeyBytes);
+                }
+                keys.add(NearCache.key(keyBytes, hashKeyBytes));
+            }
+            return keys;
+        }
+    }
+
+    /**
+     * Dispatches the events published on this cache's channel.
+     */
+    private class CacheEventListener implements MSCacheMessageListener {
+
+        @Override
+        public void onMessage(String channel, byte[] message) {
+
+            if (message == null || message.length == 0) {
+                return;
+            }
+
+            switch (message[0]) {
+                case CacheEvents.LOAD_RELEASED:
+                    loadLeaseWaiters.signal(CacheEvents.payload(message));
+                    break;
+                case CacheEvents.CLEAR_LOCKED:
+                    clearLock.lockAnnounced();
+                    invalidateNearCache();
+                    break;
+                case CacheEvents.CLEAR_UNLOCKED:
+                    clearLock.unlockAnnounced();
+                    invalidateNearCache();
+                    break;
+                case CacheEvents.GENERATION:
+                    ByteBuffer payload = CacheEvents.payload(message);
+                    byte[] generation = new byte[payload.remaining()];
+                    payload.get(generation);
+                    generations.update(Long.valueOf(STRING_SERIALIZER.deserialize(generation)), cacheMetadata);
+                    invalidateNearCache();
+                    break;
+                case CacheEvents.INVALIDATED:
+                    LocalTier near = localTier;
+                    if (near != null) {
+                        for (NearCache.Key key : CacheEvents.decodeKeys(CacheEvents.payload(message))) {
+                            near.invalidate(key);
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * This JVM's view of the cache lock held during {@link #clear()}. Lock and unlock announcements on the cache event
+     * channel keep the view current. As the channel does not guarantee delivery, a view older than
+     * {@link RedisCacheMetadata#getLockProbeInterval()} is refreshed with a single {@literal EXISTS} issued by whichever
+     * writer notices first, while concurrent writers keep using the view at hand.
+     */
+    static class ClearLockMonitor {
+
+        private final AtomicLong nextProbe = new AtomicLong(System.nanoTime());
+        private volatile boolean locked;
+        private CountDownLatch released = new CountDownLatch(1);
+
+        boolean isLocked(RedisOperations<?, ?> redisOperations, RedisCacheMetadata metadata) {
+
+            long probeAt = nextProbe.get();
+            long now = System.nanoTime();
+            if (now - probeAt < 0
+                    || !nextProbe.compareAndSet(probeAt, now + TimeUnit.MILLISECONDS.toNanos(metadata.getLockProbeInterval()))) {
+                return locked;
+            }
+
+            Long remainingTime = redisOperations.execute(new RedisCacheLockTtlCallback(metadata));
+            boolean found = remainingTime != null && remainingTime != -2;
+            locked = found;
+            return found;
+        }
+
+        /**
+         * @return the latch counted down with the next announced release of the lock.
+         */
+        synchronized CountDownLatch releaseSignal() {
+            return released;
+        }
+
+        void lockAnnounced() {
+            locked = true;
+        }
+
+        synchronized void unlockAnnounced() {
+            locked = false;
+            released.countDown();
+            released = new CountDownLatch(1);
+        }
+
+        void unlockObserved() {
+            locked = false;
+        }
+    }
+
+    /**
+     * This JVM's view of the current generation of a generational cache. Announcements on the cache event channel keep
+     * the view current; a view older than {@link RedisCacheMetadata#getLockProbeInterval()} is re-read from Redis by
+     * whichever caller notices first, while concurrent callers keep using the view at hand. The view only ever moves
+     * forward, so that a late announcement or a read overtaken by a newer generation cannot revive an old one.
+     */
+    static class GenerationTracker {
+
+        private final AtomicLong nextRefresh = new AtomicLong(System.nanoTime());
+        private final AtomicReference<Generation> current = new AtomicReference<Generation>();
+
+        byte[] getPrefix(RedisOperations<?, ?> redisOperations, RedisCacheMetadata metadata) {
+
+            Generation known = current.get();
+            if (known != null) {
+                long refreshAt = nextRefresh.get();
+                long now = System.nanoTime();
+                if (now - refreshAt < 0 || !nextRefresh.compareAndSet(refreshAt,
+                        now + TimeUnit.MILLISECONDS.toNanos(metadata.getLockProbeInterval()))) {
+                    return known.prefix;
+                }
+            }
+
+            Long generation = redisOperations.execute(new RedisCacheGenerationCallback(metadata));
+            return update(generation, metadata);
+        }
+
+        /**
+         * Move the view to the given generation unless it already is at that or a later one.
+         *
+         * @return the prefix of the generation the view is at afterwards.
+         */
+        byte[] update(long generation, RedisCacheMetadata metadata) {
+
+            nextRefresh.set(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(metadata.getLockProbeInterval()));
+            Generation next = null;
+            for (;;) {
+                Generation known = current.get();
+                if (known != null && known.number >= generation) {
+                    return known.prefix;
+                }
+                if (next == null) {
+                    next = new Generation(generation, metadata.getGenerationPrefix(generation));
+                }
+                if (current.compareAndSet(known, next)) {
+                    return next.prefix;
+                }
+            }
+        }
+
+        private static final class Generation {
+
+            private final long number;
+            private final byte[] prefix;
+
+            Generation(long number, byte[] prefix) {
+                this.number = number;
+                this.prefix = prefix;
+            }
+        }
+    }
+
+    /**
+     * Removes the entries of previous generations, one cache at a time, on a single daemon thread created on first use.
+     */
+    static final class Reaper {
+
+        private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ms-cache-reaper");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        private Reaper() {
+        }
+
+        static void submit(Runnable task, long delay) {
+            EXECUTOR.schedule(task, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Progress of a {@link MSRedisCache#clear()}, updated by the threads deleting keys while the clear runs.
+     */
+    public static class ClearProgress {
+
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong deletedKeys = new AtomicLong();
+        private volatile long endTime = -1;
+
+        void keysDeleted(long count) {
+            deletedKeys.addAndGet(count);
+        }
+
+        void finish() {
+            endTime = System.currentTimeMillis();
+        }
+
+        /**
+         * @return the time the clear started at, in milliseconds since the epoch.
+         */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return the time the clear finished at, in milliseconds since the epoch, or {@literal -1} while it runs.
+         */
+        public long getEndTime() {
+            return endTime;
+        }
+
+        /**
+         * @return {@literal true} once the clear has finished, successfully or not.
+         */
+        public boolean isFinished() {
+            return endTime >= 0;
+        }
+
+        /**
+         * @return the number of keys deleted so far.
+         */
+        public long getDeletedKeys() {
+            return deletedKeys.get();
+        }
+    }
+
+    /**
+     * Runs the renewals of the leases held by this JVM, on a single daemon thread created on first use.
      */
-    static class RedisCachePutCallback extends AbstractRedisCacheCallback<Void> {
+    static final class LeaseRenewals {
 
-        public RedisCachePutCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
+        private static final ScheduledExecutorService SCHEDULER = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
 
-            super(element, metadata);
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "ms-cache-lease-renewal");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+
+        private LeaseRenewals() {
         }
 
-        /*
-         * (non-Javadoc)
-         * @see org.springframework.data.redis.cache.RedisCache.AbstractRedisPutCallback#doInRedis(org.springframework.data.redis.cache.RedisCache.RedisCacheElement, org.springframework.data.redis.connection.RedisConnection)
-         */
-        @Override
-        public Void doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
+        static ScheduledFuture<?> schedule(Runnable renewal, long period) {
+            long delay = Math.max(period, 1);
+            return SCHEDULER.scheduleWithFixedDelay(renewal, delay, delay, TimeUnit.MILLISECONDS);
+        }
+    }
 
-            if (!isClusterConnection(connection)) {
-                connection.multi();
+    /**
+     * Threads of this JVM waiting for a load lease, per lease key.
+     */
+    static class LoadLeaseWaiters {
+
+        private final Map<ByteBuffer, Set<CountDownLatch>> waiters = new HashMap<ByteBuffer, Set<CountDownLatch>>();
+
+        CountDownLatch register(ByteBuffer leaseId) {
+
+            CountDownLatch latch = new CountDownLatch(1);
+            synchronized (waiters) {
+                Set<CountDownLatch> latches = waiters.get(leaseId);
+                if (latches == null) {
+                    latches = new HashSet<CountDownLatch>(4);
+                    waiters.put(leaseId, latches);
+                }
+                latches.add(latch);
             }
+            return latch;
+        }
 
-            if (element.get().length == 0) {
-                connection.del(element.getKeyBytes());
-            } else {
-                connection.set(element.getKeyBytes(), element.get());
-                processKeyExpiration(element, connection);
-                maintainKnownKeys(element, connection);
+        void unregister(ByteBuffer leaseId, CountDownLatch latch) {
+
+            synchronized (waiters) {
+                Set<CountDownLatch> latches = waiters.get(leaseId);
+                if (latches != null && latches.remove(latch) && latches.isEmpty()) {
+                    waiters.remove(leaseId);
+                }
             }
+        }
 
-            if (!isClusterConnection(connection)) {
-                connection.exec();
+        void signal(ByteBuffer leaseId) {
+
+            Set<CountDownLatch> latches;
+            synchronized (waiters) {
+                latches = waiters.remove(leaseId);
+            }
+            if (latches != null) {
+                for (CountDownLatch latch : latches) {
+                    latch.countDown();
+                }
             }
-            return null;
         }
     }
 
+
     /**
-     * @author Christoph Strobl
-     * @since 1.5
+     * Writes to one or more caches sharing the same {@link RedisOperations}, collected to be sent in a single round
+     * trip: one pipeline on a single node, one command after another over the same connection on cluster, where
+     * spring-data-redis cannot pipeline. A value is serialized once however many caches it is written to. Unlike
+     * {@link #put(Object, Object)} and friends the writes are not wrapped in {@literal MULTI}, each is applied on its own,
+     * in the order it was added.
      */
-    static class RedisCachePutIfAbsentCallback extends AbstractRedisCacheCallback<byte[]> {
+    public static class WriteBatch {
 
-        public RedisCachePutIfAbsentCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
-            super(element, metadata);
+        private List<BatchedWrite> writes = new ArrayList<BatchedWrite>();
+
+        public void put(MSRedisCache cache, Object key, Object value) {
+            writes.add(new BatchedWrite(cache, BatchedWrite.PUT, key, null, value));
         }
 
-        /*
-         * (non-Javadoc)
-         * @see org.springframework.data.redis.cache.RedisCache.AbstractRedisPutCallback#doInRedis(org.springframework.data.redis.cache.RedisCache.RedisCacheElement, org.springframework.data.redis.connection.RedisConnection)
+        public void hSet(MSRedisCache cache, Object key, Object hashKey, Object value) {
+            writes.add(new BatchedWrite(cache, BatchedWrite.HSET, key, hashKey, value));
+        }
+
+        public void evict(MSRedisCache cache, Object key) {
+            writes.add(new BatchedWrite(cache, BatchedWrite.EVICT, key, null, null));
+        }
+
+        public void hEvict(MSRedisCache cache, Object key, Object hashKey) {
+            writes.add(new BatchedWrite(cache, BatchedWrite.HEVICT, key, hashKey, null));
+        }
+
+        public boolean isEmpty() {
+            return writes.isEmpty();
+        }
+
+        /**
+         * Send the collected writes, leaving this batch empty whether they succeed or not.
+         *
+         * @throws IllegalArgumentException if the caches written to do not share the same {@link RedisOperations}.
          */
-        @Override
-        public byte[] doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
+        public void execute() {
 
-            waitForLock(connection);
+            if (writes.isEmpty()) {
+                return;
+            }
+            List<BatchedWrite> pending = writes;
+            writes = new ArrayList<BatchedWrite>();
+
+            RedisOperations<?, ?> redisOperations = pending.get(0).cache.redisOperations;
+            Map<RedisSerializer<?>, CacheValueAccessor> accessors = new IdentityHashMap<RedisSerializer<?>, CacheValueAccessor>();
+            Map<MSRedisCache, List<BinaryCacheElement>> elementsByCache = new LinkedHashMap<MSRedisCache, List<BinaryCacheElement>>();
+            for (BatchedWrite write : pending) {
+
+                MSRedisCache cache = write.cache;
+                Assert.isTrue(cache.redisOperations == redisOperations,
+                        "Caches of a WriteBatch must share the same RedisOperations!");
+
+                List<BinaryCacheElement> elements = elementsByCache.get(cache);
+                if (elements == null) {
+                    cache.awaitClearLock();
+                    elements = new ArrayList<BinaryCacheElement>();
+                    elementsByCache.put(cache, elements);
+                }
 
-            byte[] keyBytes = element.getKeyBytes();
-            byte[] value = element.get();
+                CacheValueAccessor accessor = accessors.get(cache.cacheValueAccessor.valueSerializer);
+                if (accessor == null) {
+                    accessor = new MemoizingValueAccessor(cache.cacheValueAccessor.valueSerializer);
+                    accessors.put(cache.cacheValueAccessor.valueSerializer, accessor);
+                }
+                write.prepare(accessor);
+                elements.add(write.element);
+            }
 
-            if (!connection.setNX(keyBytes, value)) {
-                return connection.get(keyBytes);
+            redisOperations.execute(new RedisCacheWriteBatchCallback(pending));
+
+            for (Map.Entry<MSRedisCache, List<BinaryCacheElement>> entry : elementsByCache.entrySet()) {
+                entry.getKey().invalidateNearCache(entry.getValue());
             }
+        }
+    }
 
-            maintainKnownKeys(element, connection);
-            processKeyExpiration(element, connection);
+    static class BatchedWrite {
 
-            return null;
+        static final int PUT = 0;
+        static final int HSET = 1;
+        static final int EVICT = 2;
+        static final int HEVICT = 3;
+
+        final MSRedisCache cache;
+        final int type;
+        private final Object key;
+        private final Object hashKey;
+        private final Object value;
+
+        BinaryCacheElement element;
+
+        BatchedWrite(MSRedisCache cache, int type, Object key, Object hashKey, Object value) {
+
+            Assert.notNull(cache, "Cache must not be null!");
+            this.cache = cache;
+            this.type = type;
+            this.key = key;
+            this.hashKey = hashKey;
+            this.value = value;
+        }
+
+        /**
+         * Resolve the binary key, with the generation of the cache if it uses any, and serialize the value.
+         */
+        void prepare(CacheValueAccessor accessor) {
+
+            MSCacheKey cacheKey = (type == HSET || type == HEVICT) ? cache.getRedisCacheKey(key, DataType.HASH, hashKey)
+                    : cache.getRedisCacheKey(key);
+            MSCacheElement cacheElement = (type == PUT || type == HSET)
+                    ? new MSCacheElement(cacheKey, cache.toStoreValue(value))
+                            .expireAfter(cache.cacheMetadata.getDefaultExpiration())
+                    : new MSCacheElement(cacheKey, null);
+            element = new BinaryCacheElement(cacheElement, accessor);
         }
     }
 
     /**
-     * @author Christoph Strobl
-     * @since 1.7
+     * Remembers the bytes of every value it serialized, by identity, so that a value written to several caches of a
+     * {@link WriteBatch} is serialized only once.
      */
-    static class RedisWriteThroughCallback extends AbstractRedisCacheCallback<byte[]> {
+    static class MemoizingValueAccessor extends CacheValueAccessor {
 
-        public RedisWriteThroughCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
-            super(element, metadata);
+        private final Map<Object, byte[]> serialized = new IdentityHashMap<Object, byte[]>();
+
+        @SuppressWarnings("rawtypes")
+        MemoizingValueAccessor(RedisSerializer valueRedisSerializer) {
+            super(valueRedisSerializer);
         }
 
         @Override
-        public byte[] doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
+        byte[] convertToBytesIfNecessary(Object value) {
 
-            try {
+            if (value == null) {
+                return super.convertToBytesIfNecessary(null);
+            }
+            byte[] bytes = serialized.get(value);
+            if (bytes == null) {
+                bytes = super.convertToBytesIfNecessary(value);
+                serialized.put(value, bytes);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Applies the writes of a {@link WriteBatch}, including the known keys maintenance of each.
+     */
+    static class RedisCacheWriteBatchCallback implements RedisCallback<Void> {
 
-                lock(connection);
+        private final List<BatchedWrite> writes;
 
-                try {
+        RedisCacheWriteBatchCallback(List<BatchedWrite> writes) {
+            this.writes = writes;
+        }
 
-                    byte[] value = connection.get(element.getKeyBytes());
+        @Override
+        public Void doInRedis(RedisConnection connection) throws DataAccessException {
 
-                    if (value != null) {
-                        return value;
-                    }
+            if (isClusterConnection(connection)) {
+                write(connection);
+                return null;
+            }
 
-                    if (!isClusterConnection(connection)) {
+            connection.openPipeline();
+            try {
+                write(connection);
+            } finally {
+                connection.closePipeline();
+            }
+            return null;
+        }
 
-                        connection.watch(element.getKeyBytes());
-                        connection.multi();
-                    }
+        private void write(RedisConnection connection) {
 
-                    value = element.get();
+            for (BatchedWrite write : writes) {
 
-                    if (value.length == 0) {
+                BinaryCacheElement element = write.element;
+                RedisCacheMetadata metadata = write.cache.cacheMetadata;
+                byte[] knownKeysKey = element.hasKeyPrefix() ? null : metadata.getSetOfKnownKeysKey(element.getKeyBytes());
+                boolean removed = element.get().length == 0;
+
+                if (write.type == BatchedWrite.PUT || write.type == BatchedWrite.EVICT) {
+                    if (removed) {
                         connection.del(element.getKeyBytes());
-                    } else {
-                        connection.set(element.getKeyBytes(), value);
-                        processKeyExpiration(element, connection);
-                        maintainKnownKeys(element, connection);
+                        if (knownKeysKey != null) {
+                            connection.zRem(knownKeysKey, element.getKeyBytes());
+                        }
+                        continue;
                     }
-
-                    if (!isClusterConnection(connection)) {
-                        connection.exec();
+                    setWithExpiration(element, connection);
+                } else {
+                    if (removed) {
+                        // other fields may remain, an emptied hash is dropped from the known keys once it expires
+                        connection.hDel(element.getKeyBytes(), element.getHashKeyBytes());
+                        continue;
                     }
-
-                    return value;
-                } catch (RuntimeException e) {
-                    if (!isClusterConnection(connection)) {
-                        connection.discard();
+                    connection.hSet(element.getKeyBytes(), element.getHashKeyBytes(), element.get());
+                    if (!element.isEternal()) {
+                        connection.expire(element.getKeyBytes(), element.getTimeToLive());
                     }
-                    throw e;
                 }
-            } finally {
-                unlock(connection);
+
+                if (knownKeysKey != null) {
+                    connection.zAdd(knownKeysKey, getKnownKeyScore(element), element.getKeyBytes());
+                }
             }
         }
-    };
+    }
 
     /**
-     * @author Christoph Strobl
-     * @since 1.7 (TODO: remove when upgrading to spring 4.3)
+     * Coalesces single-key reads of concurrent threads. The first reader arriving at an empty batch waits for the window
+     * to pass, then sends every read queued meanwhile in one round trip and hands each reader its reply; a reader filling
+     * the batch up to the maximum sends it right away. Readers always wait for their own reply, so a failure of the batch
+     * surfaces in every thread that took part.
      */
-    private static enum CacheValueRetrievalExceptionFactory {
+    static class AutoPipeline {
 
-        INSTANCE;
+        static final int DEFAULT_MAX_BATCH = 128;
 
-        private static boolean isSpring43;
+        private final RedisOperations<?, ?> redisOperations;
+        private final long window;
+        private final int maxBatch;
 
-        static {
-            isSpring43 = ClassUtils.isPresent("org.springframework.cache.Cache$ValueRetrievalException",
-                    ClassUtils.getDefaultClassLoader());
+        private final ConcurrentLinkedQueue<PendingRead> queue = new ConcurrentLinkedQueue<PendingRead>();
+        private final AtomicInteger depth = new AtomicInteger();
+        private final AtomicBoolean leader = new AtomicBoolean();
+
+        AutoPipeline(RedisOperations<?, ?> redisOperations, long window, int maxBatch) {
+            this.redisOperations = redisOperations;
+            this.window = window;
+            this.maxBatch = maxBatch;
         }
 
-        public RuntimeException create(Object key, Callable<?> valueLoader, Throwable cause) {
+        byte[] read(byte[] keyBytes, byte[] hashKeyBytes) {
 
-            if (isSpring43) {
+            PendingRead read = new PendingRead(keyBytes, hashKeyBytes);
+            queue.add(read);
+
+            if (depth.incrementAndGet() >= maxBatch) {
+                flush();
+            } else if (leader.compareAndSet(false, true)) {
                 try {
-                    Class<?> execption = ClassUtils.forName("org.springframework.cache.Cache$ValueRetrievalException",
-                            this.getClass().getClassLoader());
-                    Constructor<?> c = ClassUtils.getConstructorIfAvailable(execption, Object.class, Callable.class,
-                            Throwable.class);
-                    return (RuntimeException) c.newInstance(key, valueLoader, cause);
-                } catch (Exception ex) {
-                    // ignore
+                    LockSupport.parkNanos(window);
+                } finally {
+                    // reads queued from now on elect a leader of their own
+                    leader.set(false);
                 }
+                flush();
             }
 
-            return new RedisSystemException(
-                    String.format("Value for key '%s' could not be loaded using '%s'.", key, valueLoader), cause);
+            try {
+                return read.reply.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw ex;
+            }
+        }
+
+        /**
+         * Send everything queued, in batches of at most the maximum size.
+         */
+        private void flush() {
+
+            for (;;) {
+                List<PendingRead> batch = new ArrayList<PendingRead>(Math.min(maxBatch, Math.max(depth.get(), 1)));
+                PendingRead read;
+                while (batch.size() < maxBatch && (read = queue.poll()) != null) {
+                    batch.add(read);
+                }
+                if (batch.isEmpty()) {
+                    return;
+                }
+                depth.addAndGet(-batch.size());
+                send(batch);
+            }
+        }
+
+        private void send(List<PendingRead> batch) {
+
+            try {
+                List<byte[]> replies = redisOperations.execute(new RedisCacheBatchReadCallback(batch));
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.get(i).reply.complete(replies != null ? replies.get(i) : null);
+                }
+            } catch (RuntimeException ex) {
+                for (PendingRead read : batch) {
+                    read.reply.completeExceptionally(ex);
+                }
+            }
         }
     }
 
-    private static boolean isClusterConnection(RedisConnection connection) {
+    static class PendingRead {
 
-        while (connection instanceof DecoratedRedisConnection) {
-            connection = ((DecoratedRedisConnection) connection).getDelegate();
+        final byte[] keyBytes;
+        final byte[] hashKeyBytes;
+        final CompletableFuture<byte[]> reply = new CompletableFuture<byte[]>();
+
+        PendingRead(byte[] keyBytes, byte[] hashKeyBytes) {
+            this.keyBytes = keyBytes;
+            this.hashKeyBytes = hashKeyBytes;
         }
+    }
 
-        return connection instanceof RedisClusterConnection;
+    /**
+     * Reads a batch of keys and hash fields of an {@link AutoPipeline}: plain keys only go out as a single
+     * {@literal MGET}, mixed batches as one pipeline of {@literal GET}s and {@literal HGET}s. On cluster, where
+     * pipelining is not available, plain keys are read with one {@literal MGET} per slot and hash fields one by one.
+     */
+    static class RedisCacheBatchReadCallback implements RedisCallback<List<byte[]>> {
+
+        private final List<PendingRead> reads;
+
+        RedisCacheBatchReadCallback(List<PendingRead> reads) {
+            this.reads = reads;
+        }
+
+        @Override
+        public List<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+
+            List<Integer> plain = new ArrayList<Integer>(reads.size());
+            for (int i = 0; i < reads.size(); i++) {
+                if (reads.get(i).hashKeyBytes == null) {
+                    plain.add(i);
+                }
+            }
+
+            boolean cluster = isClusterConnection(connection);
+            if (plain.size() == reads.size() || cluster) {
+
+                byte[][] values = new byte[reads.size()][];
+                if (!plain.isEmpty()) {
+                    byte[][] keysBytes = new byte[plain.size()][];
+                    for (int i = 0; i < keysBytes.length; i++) {
+                        keysBytes[i] = reads.get(plain.get(i)).keyBytes;
+                    }
+                    List<byte[]> plainValues = new RedisCacheMGetCallback(keysBytes).doInRedis(connection);
+                    for (int i = 0; i < keysBytes.length; i++) {
+                        values[plain.get(i)] = plainValues.get(i);
+                    }
+                }
+                for (int i = 0; i < reads.size(); i++) {
+                    PendingRead read = reads.get(i);
+                    if (read.hashKeyBytes != null) {
+                        values[i] = connection.hGet(read.keyBytes, read.hashKeyBytes);
+                    }
+                }
+                return Arrays.asList(values);
+            }
+
+            connection.openPipeline();
+            List<Object> replies;
+            try {
+                for (PendingRead read : reads) {
+                    if (read.hashKeyBytes == null) {
+                        connection.get(read.keyBytes);
+                    } else {
+                        connection.hGet(read.keyBytes, read.hashKeyBytes);
+                    }
+                }
+            } finally {
+                replies = connection.closePipeline();
+            }
+
+            List<byte[]> values = new ArrayList<byte[]>(replies.size());
+            for (Object reply : replies) {
+                values.add((byte[]) reply);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Lets concurrent callers of this JVM asking for the same key share a single execution: the first caller runs the
+     * {@link Callable}, every caller arriving while it is in flight waits for and receives the very same result or
+     * exception. Nothing is retained once the flight has landed.
+     */
+    static class SingleFlight {
+
+        private final ConcurrentMap<ByteBuffer, FutureTask<Object>> flights = new ConcurrentHashMap<ByteBuffer, FutureTask<Object>>();
+
+        Object execute(ByteBuffer id, Callable<Object> callable) {
+
+            FutureTask<Object> flight = new FutureTask<Object>(callable);
+            FutureTask<Object> inFlight = flights.putIfAbsent(id, flight);
+            if (inFlight == null) {
+                try {
+                    flight.run();
+                } finally {
+                    flights.remove(id, flight);
+                }
+                inFlight = flight;
+            }
+
+            try {
+                return inFlight.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a concurrent cache load", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
     }
 
 
@@ -1028,7 +3602,7 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
             }
 
             if (element.get().length == 0) {
-                connection.del(element.getKeyBytes());
+                connection.hDel(element.getKeyBytes(), element.getHashKeyBytes());
             } else {
                 connection.hSet(element.getKeyBytes(),element.getHashKeyBytes(), element.get());
                 processKeyExpiration(element, connection);
@@ -1042,6 +3616,96 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         }
     }
 
+    /**
+     * Plain single-field read, the {@literal HGET} counterpart of {@link RedisCacheGetCallback}.
+     */
+    static class RedisCacheHGetCallback implements RedisCallback<byte[]> {
+
+        private final byte[] keyBytes;
+        private final byte[] hashKeyBytes;
+
+        RedisCacheHGetCallback(byte[] keyBytes, byte[] hashKeyBytes) {
+            this.keyBytes = keyBytes;
+            this.hashKeyBytes = hashKeyBytes;
+        }
+
+        @Override
+        public byte[] doInRedis(RedisConnection connection) throws DataAccessException {
+            return connection.hGet(keyBytes, hashKeyBytes);
+        }
+    }
+
+    /**
+     * Multi-key read via {@literal MGET}. On cluster, where a single {@literal MGET} must not span hash slots, the keys
+     * are grouped by slot and each group is read with one {@literal MGET}. Replies keep the order of the keys.
+     */
+    static class RedisCacheMGetCallback implements RedisCallback<List<byte[]>> {
+
+        private final byte[][] keysBytes;
+
+        RedisCacheMGetCallback(byte[][] keysBytes) {
+            this.keysBytes = keysBytes;
+        }
+
+        @Override
+        public List<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+
+            if (!isClusterConnection(connection)) {
+                return connection.mGet(keysBytes);
+            }
+
+            Map<Integer, List<Integer>> slots = new LinkedHashMap<Integer, List<Integer>>();
+            for (int i = 0; i < keysBytes.length; i++) {
+                Integer slot = ClusterSlotHashUtil.calculateSlot(keysBytes[i]);
+                List<Integer> indexes = slots.get(slot);
+                if (indexes == null) {
+                    indexes = new ArrayList<Integer>();
+                    slots.put(slot, indexes);
+                }
+                indexes.add(i);
+            }
+
+            if (slots.size() == 1) {
+                return connection.mGet(keysBytes);
+            }
+
+            byte[][] values = new byte[keysBytes.length][];
+            for (List<Integer> indexes : slots.values()) {
+
+                byte[][] group = new byte[indexes.size()][];
+                for (int i = 0; i < group.length; i++) {
+                    group[i] = keysBytes[indexes.get(i)];
+                }
+
+                List<byte[]> groupValues = connection.mGet(group);
+                for (int i = 0; i < group.length; i++) {
+                    values[indexes.get(i)] = groupValues.get(i);
+                }
+            }
+            return Arrays.asList(values);
+        }
+    }
+
+    /**
+     * Multi-field read via {@literal HMGET}, the counterpart of {@link RedisCacheMGetCallback} for hash fields. All
+     * fields live in the same hash, so a single command serves them on cluster as well.
+     */
+    static class RedisCacheHMGetCallback implements RedisCallback<List<byte[]>> {
+
+        private final byte[] keyBytes;
+        private final byte[][] hashKeysBytes;
+
+        RedisCacheHMGetCallback(byte[] keyBytes, byte[][] hashKeysBytes) {
+            this.keyBytes = keyBytes;
+            this.hashKeysBytes = hashKeysBytes;
+        }
+
+        @Override
+        public List<byte[]> doInRedis(RedisConnection connection) throws DataAccessException {
+            return connection.hMGet(keyBytes, hashKeysBytes);
+        }
+    }
+
     static class RedisCacheHEvictCallback extends AbstractRedisCacheCallback<Void> {
 
         public RedisCacheHEvictCallback(BinaryCacheElement element, RedisCacheMetadata metadata) {
@@ -1055,8 +3719,8 @@ public class MSRedisCache extends AbstractValueAdaptingMSCache {
         @Override
         public Void doInRedis(BinaryCacheElement element, RedisConnection connection) throws DataAccessException {
 
+            // other fields may remain, an emptied hash is dropped from the known keys once it expires
             connection.hDel(element.getKeyBytes(),element.getHashKeyBytes());
-            cleanKnownKeys(element, connection);
             return null;
         }
     }
@@ -42,4 +42,15 @@ public @interface MSCacheable {
     DataType dataType() default DataType.STRING;
 
     String hashKeyGenerator() default "";
+
+    /**
+     * Cache the elements of a bulk-loading method such as {@code Map<Long, User> findUsers(Collection<Long> ids)} one by
+     * one. The first {@link java.util.Collection} parameter is split into its elements, the cached ones are read with a
+     * single multi-get, the method is only invoked with the missing ones and the returned map, keyed by element, is
+     * written back in one batch and merged with the hits. For {@link DataType#STRING} the element is the cache key, or
+     * {@link #key()} is evaluated per element with the element bound to {@code #element}; for {@link DataType#HASH}
+     * {@link #key()} names the hash and the element, or {@link #hashKey()} evaluated the same way, is the field.
+     * {@link #unless()} is evaluated per element with its value bound to {@code #result}.
+     */
+    boolean bulk() default false;
 }
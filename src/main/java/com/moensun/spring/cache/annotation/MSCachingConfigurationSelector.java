@@ -18,13 +18,18 @@ import java.util.List;
  * @see org.springframework.cache.annotation.CachingConfigurationSelector
  */
 public class MSCachingConfigurationSelector extends AdviceModeImportSelector<EnableMSCaching> {
+
+    // referenced by name, so that the proxy mode does not need AspectJ
+    private static final String CACHE_ASPECT_CONFIGURATION_CLASS_NAME =
+            "com.moensun.spring.cache.config.AspectJMSCachingConfiguration";
+
     @Override
     protected String[] selectImports(AdviceMode adviceMode) {
         switch (adviceMode) {
             case PROXY:
                 return getProxyImports();
             case ASPECTJ:
-                return null;
+                return getAspectJImports();
             default:
                 return null;
         }
@@ -38,4 +43,8 @@ public class MSCachingConfigurationSelector extends AdviceModeImportSelector<Ena
         return result.toArray(new String[result.size()]);
     }
 
+    private String[] getAspectJImports() {
+        return new String[] {CACHE_ASPECT_CONFIGURATION_CLASS_NAME};
+    }
+
 }
@@ -94,6 +94,7 @@ public class MSMSCacheAnnotationParser implements MSCacheAnnotationParser,Serial
         builder.setCacheManager(cacheable.cacheManager());
         builder.setCacheResolver(cacheable.cacheResolver());
         builder.setSync(cacheable.sync());
+        builder.setBulk(cacheable.bulk());
 
         builder.setHashKey(cacheable.hashKey());
         builder.setHashKeyGenerator(cacheable.hashKeyGenerator());
@@ -102,6 +103,11 @@ public class MSMSCacheAnnotationParser implements MSCacheAnnotationParser,Serial
         defaultConfig.applyDefault(builder);
         MSCacheableOperation op = builder.build();
         validateCacheOperation(ae, op);
+        if (op.isSync() && op.isBulk()) {
+            throw new IllegalStateException("Invalid cache annotation configuration on '" +
+                    ae.toString() + "'. Both 'sync' and 'bulk' attributes have been set. " +
+                    "These attributes are mutually exclusive: a bulk operation loads many elements at once.");
+        }
 
         return op;
     }
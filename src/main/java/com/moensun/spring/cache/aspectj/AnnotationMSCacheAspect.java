@@ -0,0 +1,114 @@
+package com.moensun.spring.cache.aspectj;
+
+import com.moensun.spring.cache.interceptor.MSCacheAspectSupport;
+import com.moensun.spring.cache.operation.AnnotationMSCacheOperationSource;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cache.interceptor.CacheOperationInvoker;
+
+import java.lang.reflect.Method;
+
+/**
+ * Aspect applying the cache annotations in place of the proxy based {@code MSCacheInterceptor}, for
+ * {@code @EnableMSCaching(mode = AdviceMode.ASPECTJ)}. Being woven into the annotated classes themselves, it also
+ * applies to calls a class makes to its own methods, and to non-public methods.
+ *
+ * <p>Weave it at load time through the {@code META-INF/aop.xml} of this library, or at compile time by adding this
+ * library as an aspect library of the AspectJ compiler.
+ *
+ * @see org.springframework.cache.aspectj.AnnotationCacheAspect
+ */
+@Aspect
+public class AnnotationMSCacheAspect extends MSCacheAspectSupport implements DisposableBean {
+
+    public AnnotationMSCacheAspect() {
+        setCacheOperationSources(new AnnotationMSCacheOperationSource(false));
+    }
+
+    @Pointcut("execution(public * ((@com.moensun.spring.cache.annotation.MSCacheable *)+).*(..)) && " +
+            "within(@com.moensun.spring.cache.annotation.MSCacheable *)")
+    private void executionOfAnyPublicMethodInAtMSCacheableType() {
+    }
+
+    @Pointcut("execution(public * ((@com.moensun.spring.cache.annotation.MSCacheEvict *)+).*(..)) && " +
+            "within(@com.moensun.spring.cache.annotation.MSCacheEvict *)")
+    private void executionOfAnyPublicMethodInAtMSCacheEvictType() {
+    }
+
+    @Pointcut("execution(public * ((@com.moensun.spring.cache.annotation.MSCachePut *)+).*(..)) && " +
+            "within(@com.moensun.spring.cache.annotation.MSCachePut *)")
+    private void executionOfAnyPublicMethodInAtMSCachePutType() {
+    }
+
+    @Pointcut("execution(public * ((@com.moensun.spring.cache.annotation.MSCaching *)+).*(..)) && " +
+            "within(@com.moensun.spring.cache.annotation.MSCaching *)")
+    private void executionOfAnyPublicMethodInAtMSCachingType() {
+    }
+
+    @Pointcut("execution(@com.moensun.spring.cache.annotation.MSCacheable * *(..))")
+    private void executionOfMSCacheableMethod() {
+    }
+
+    @Pointcut("execution(@com.moensun.spring.cache.annotation.MSCacheEvict * *(..))")
+    private void executionOfMSCacheEvictMethod() {
+    }
+
+    @Pointcut("execution(@com.moensun.spring.cache.annotation.MSCachePut * *(..))")
+    private void executionOfMSCachePutMethod() {
+    }
+
+    @Pointcut("execution(@com.moensun.spring.cache.annotation.MSCaching * *(..))")
+    private void executionOfMSCachingMethod() {
+    }
+
+    /**
+     * The execution of any method of an object of a class annotated with, or declaring a method annotated with, one
+     * of the cache annotations.
+     */
+    @Pointcut("(executionOfAnyPublicMethodInAtMSCacheableType() || executionOfAnyPublicMethodInAtMSCacheEvictType() || " +
+            "executionOfAnyPublicMethodInAtMSCachePutType() || executionOfAnyPublicMethodInAtMSCachingType() || " +
+            "executionOfMSCacheableMethod() || executionOfMSCacheEvictMethod() || " +
+            "executionOfMSCachePutMethod() || executionOfMSCachingMethod()) && this(cachedObject)")
+    protected void cacheMethodExecution(Object cachedObject) {
+    }
+
+    @Around(value = "cacheMethodExecution(cachedObject)", argNames = "joinPoint,cachedObject")
+    public Object cache(final ProceedingJoinPoint joinPoint, final Object cachedObject) throws Throwable {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        // getArgs() hands out a copy: proceed with the array the cache operations work on, so that a bulk
+        // operation's reduced argument reaches the method
+        final Object[] args = joinPoint.getArgs();
+
+        CacheOperationInvoker aspectJInvoker = new CacheOperationInvoker() {
+            public Object invoke() {
+                // an annotation style aspect proceeds with its bound this() ahead of the method arguments
+                Object[] proceedArgs = new Object[args.length + 1];
+                proceedArgs[0] = cachedObject;
+                System.arraycopy(args, 0, proceedArgs, 1, args.length);
+                try {
+                    return joinPoint.proceed(proceedArgs);
+                }
+                catch (Throwable ex) {
+                    throw new ThrowableWrapper(ex);
+                }
+            }
+        };
+
+        try {
+            return execute(aspectJInvoker, cachedObject, method, args);
+        }
+        catch (CacheOperationInvoker.ThrowableWrapper th) {
+            throw th.getOriginal();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        // An aspect is basically a singleton -> cleanup on destruction
+        clearMetadataCache();
+    }
+}
@@ -0,0 +1,39 @@
+package com.moensun.spring.cache.config;
+
+import com.moensun.spring.cache.aspectj.AnnotationMSCacheAspect;
+import org.aspectj.lang.Aspects;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Role;
+
+/**
+ * Configures the woven {@link AnnotationMSCacheAspect} for {@code @EnableMSCaching(mode = AdviceMode.ASPECTJ)}.
+ *
+ * @see org.springframework.cache.aspectj.AspectJCachingConfiguration
+ */
+@Configuration
+@Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+public class AspectJMSCachingConfiguration extends AbstractMSCachingConfiguration {
+
+    @Bean(name = "com.moensun.spring.cache.config.RedisInternalCacheAspect")
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public AnnotationMSCacheAspect cacheAspect() {
+        AnnotationMSCacheAspect cacheAspect = Aspects.aspectOf(AnnotationMSCacheAspect.class);
+        if (this.cacheResolver != null) {
+            cacheAspect.setCacheResolver(this.cacheResolver);
+        }
+        else if (this.cacheManager != null) {
+            cacheAspect.setCacheManager(this.cacheManager);
+        }
+        if (this.keyGenerator != null) {
+            cacheAspect.setKeyGenerator(this.keyGenerator);
+        }
+        if (this.errorHandler != null) {
+            cacheAspect.setErrorHandler(this.errorHandler);
+        }
+        cacheAspect.setPrewarm(this.enableCaching.getBoolean("prewarm"));
+        return cacheAspect;
+    }
+
+}
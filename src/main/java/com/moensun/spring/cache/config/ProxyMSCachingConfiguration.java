@@ -52,6 +52,7 @@ public class ProxyMSCachingConfiguration extends AbstractMSCachingConfiguration
         if (this.errorHandler != null) {
             interceptor.setErrorHandler(this.errorHandler);
         }
+        interceptor.setPrewarm(this.enableCaching.getBoolean("prewarm"));
         return interceptor;
     }
 
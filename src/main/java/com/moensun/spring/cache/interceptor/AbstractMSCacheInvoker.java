@@ -3,6 +3,10 @@ package com.moensun.spring.cache.interceptor;
 import com.moensun.spring.cache.MSCache;
 import org.springframework.cache.interceptor.AbstractCacheInvoker;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * Created by Bane.Shi.
  * Copyright FClassroom
@@ -43,6 +47,44 @@ public abstract class AbstractMSCacheInvoker extends AbstractCacheInvoker {
     }
 
 
+    protected Map<Object, MSCache.ValueWrapper> doGetAll(MSCache cache, Collection<?> keys) {
+        try {
+            return cache.getAll(keys);
+        }
+        catch (RuntimeException ex) {
+            getErrorHandler().handleCacheGetError(ex, cache, keys);
+            return Collections.emptyMap();  // If the exception is handled, return a cache miss for all keys
+        }
+    }
+
+    protected Map<Object, MSCache.ValueWrapper> doHGetAll(MSCache cache, Object key, Collection<?> hashKeys) {
+        try {
+            return cache.hGetAll(key, hashKeys);
+        }
+        catch (RuntimeException ex) {
+            getErrorHandler().handleCacheGetError(ex, cache, key);
+            return Collections.emptyMap();  // If the exception is handled, return a cache miss for all fields
+        }
+    }
+
+    protected void doPutAll(MSCache cache, Map<?, ?> entries) {
+        try {
+            cache.putAll(entries);
+        }
+        catch (RuntimeException ex) {
+            getErrorHandler().handleCachePutError(ex, cache, entries.keySet(), entries.values());
+        }
+    }
+
+    protected void doHPutAll(MSCache cache, Object key, Map<?, ?> entries) {
+        try {
+            cache.hPutAll(key, entries);
+        }
+        catch (RuntimeException ex) {
+            getErrorHandler().handleCachePutError(ex, cache, key, entries);
+        }
+    }
+
     protected void doHEvict(MSCache cache, Object key, Object hashKey) {
         try {
             cache.hEvict(key,hashKey);
@@ -0,0 +1,64 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.Assert;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process {@link MSCacheMessageBroker} delivering messages synchronously in the publishing thread.
+ * Only reaches listeners of the same JVM, which is all a single node or a test needs.
+ */
+public class LocalMSCacheMessageBroker implements MSCacheMessageBroker {
+
+    private final Log logger = LogFactory.getLog(LocalMSCacheMessageBroker.class);
+
+    private final ConcurrentMap<String, List<MSCacheMessageListener>> listeners =
+            new ConcurrentHashMap<String, List<MSCacheMessageListener>>(16);
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        List<MSCacheMessageListener> channelListeners = this.listeners.get(channel);
+        if (channelListeners == null) {
+            return;
+        }
+        for (MSCacheMessageListener listener : channelListeners) {
+            try {
+                listener.onMessage(channel, message);
+            }
+            catch (RuntimeException ex) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Listener failed to handle message on channel '" + channel + "'", ex);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void subscribe(String channel, MSCacheMessageListener listener) {
+        Assert.hasText(channel, "Channel must not be null or empty!");
+        Assert.notNull(listener, "Listener must not be null!");
+        List<MSCacheMessageListener> channelListeners = this.listeners.get(channel);
+        if (channelListeners == null) {
+            List<MSCacheMessageListener> created = new CopyOnWriteArrayList<MSCacheMessageListener>();
+            channelListeners = this.listeners.putIfAbsent(channel, created);
+            if (channelListeners == null) {
+                channelListeners = created;
+            }
+        }
+        channelListeners.add(listener);
+    }
+
+    @Override
+    public void unsubscribe(String channel, MSCacheMessageListener listener) {
+        List<MSCacheMessageListener> channelListeners = this.listeners.get(channel);
+        if (channelListeners != null) {
+            channelListeners.remove(listener);
+        }
+    }
+
+}
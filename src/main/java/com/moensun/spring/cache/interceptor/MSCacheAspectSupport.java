@@ -1,13 +1,16 @@
 package com.moensun.spring.cache.interceptor;
 
 import com.moensun.spring.cache.MSCache;
+import com.moensun.spring.cache.MSRedisCache;
 import com.moensun.spring.cache.annotation.DataType;
 import com.moensun.spring.cache.operation.*;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.aop.TargetClassAware;
 import org.springframework.aop.framework.AopProxyUtils;
 import org.springframework.beans.factory.*;
 import org.springframework.beans.factory.annotation.BeanFactoryAnnotationUtils;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.interceptor.*;
@@ -18,9 +21,16 @@ import org.springframework.lang.UsesJava8;
 import org.springframework.util.*;
 
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.*;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Created by Bane.Shi.
@@ -47,6 +57,9 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
     private final Map<CacheOperationCacheKey, CacheOperationMetadata> metadataCache =
             new ConcurrentHashMap<CacheOperationCacheKey, CacheOperationMetadata>(1024);
 
+    private final ConcurrentMap<Method, Map<Class<?>, InvocationPlan>> invocationPlans =
+            new ConcurrentHashMap<Method, Map<Class<?>, InvocationPlan>>(1024);
+
     private final MSCacheOperationExpressionEvaluator evaluator = new MSCacheOperationExpressionEvaluator();
 
     private MSCacheOperationSource cacheOperationSource;
@@ -61,6 +74,8 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
 
     private boolean initialized = false;
 
+    private boolean prewarm = false;
+
 
     /**
      * Set one or more cache operation sources which are used to find the cache
@@ -114,6 +129,15 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         this.cacheResolver = cacheResolver;
     }
 
+    /**
+     * Set whether to work out the cache operations of all beans, resolving their key generators and cache resolvers
+     * and parsing their expressions, in parallel on startup rather than on the first invocation of each method.
+     * Default is {@code false}.
+     */
+    public void setPrewarm(boolean prewarm) {
+        this.prewarm = prewarm;
+    }
+
     /**
      * Return the default {@link CacheResolver} that this cache aspect delegates to.
      */
@@ -161,9 +185,115 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
                         "Register a CacheManager bean or remove the @EnableCaching annotation from your configuration.");
             }
         }
+        if (this.prewarm) {
+            prewarm();
+        }
         this.initialized = true;
     }
 
+    /**
+     * Build the {@link InvocationPlan}s of the methods of all singleton beans, spreading the target classes over
+     * one thread per processor.
+     */
+    private void prewarm() {
+        if (!(this.beanFactory instanceof ConfigurableListableBeanFactory)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        ConfigurableListableBeanFactory beanFactory = (ConfigurableListableBeanFactory) this.beanFactory;
+        Set<Class<?>> targetClasses = new LinkedHashSet<Class<?>>();
+        for (String beanName : beanFactory.getBeanNamesForType(Object.class, false, false)) {
+            Object bean = (beanFactory.containsSingleton(beanName) ? beanFactory.getSingleton(beanName) : null);
+            if (bean != null && bean != this) {
+                targetClasses.add(getTargetClass(bean));
+            }
+        }
+
+        int threads = Math.max(1, Math.min(targetClasses.size(), Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ms-cache-prewarm");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        int methods = 0;
+        try {
+            List<Future<Integer>> futures = new ArrayList<Future<Integer>>(targetClasses.size());
+            for (final Class<?> targetClass : targetClasses) {
+                futures.add(executor.submit(new Callable<Integer>() {
+
+                    @Override
+                    public Integer call() {
+                        return prewarm(targetClass);
+                    }
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                methods += future.get();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Prewarming cache operations failed", ex.getCause());
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("Prewarmed the cache operations of " + methods + " method(s) of " + targetClasses.size() +
+                    " bean class(es) in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * Build the {@link InvocationPlan}s of the methods of the given class, as well as of the methods of its interfaces
+     * that JDK proxies are invoked with.
+     * @return the number of methods with cache operations
+     */
+    private int prewarm(Class<?> targetClass) {
+        Set<Method> methods = new LinkedHashSet<Method>(Arrays.asList(ReflectionUtils.getUniqueDeclaredMethods(targetClass)));
+        for (Class<?> ifc : ClassUtils.getAllInterfacesForClassAsSet(targetClass)) {
+            methods.addAll(Arrays.asList(ifc.getMethods()));
+        }
+        int count = 0;
+        for (Method method : methods) {
+            if (Modifier.isStatic(method.getModifiers()) || method.getDeclaringClass() == Object.class) {
+                continue;
+            }
+            try {
+                InvocationPlan plan = createInvocationPlan(method, targetClass);
+                if (plan == InvocationPlan.NO_OPERATIONS) {
+                    continue;
+                }
+                prewarm(plan.cacheables);
+                prewarm(plan.puts);
+                prewarm(plan.evicts);
+                getInvocationPlans(method).put(targetClass, plan);
+                count++;
+            }
+            catch (RuntimeException ex) {
+                // left to fail on the first invocation
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Could not prewarm the cache operations of '" + method + "': " + ex);
+                }
+            }
+        }
+        return count;
+    }
+
+    private void prewarm(List<CacheOperationMetadata> metadata) {
+        for (CacheOperationMetadata operationMetadata : metadata) {
+            this.evaluator.parseExpressions(operationMetadata.operation, operationMetadata.methodCacheKey);
+        }
+    }
+
 
     /**
      * Convenience method to return a String representation of this Method
@@ -240,12 +370,18 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             else {
                 operationCacheResolver = getCacheResolver();
             }
-            metadata = new CacheOperationMetadata(operation, method, targetClass, operationKeyGenerator,operationHashKeyGenerator, operationCacheResolver);
+            metadata = new CacheOperationMetadata(operation, method, targetClass, operationKeyGenerator,operationHashKeyGenerator, operationCacheResolver,
+                    compileKeyExtractor(operation.getKey(), method, targetClass),
+                    compileKeyExtractor(operation.getHashKey(), method, targetClass));
             this.metadataCache.put(cacheKey, metadata);
         }
         return metadata;
     }
 
+    private MSCacheKeyExtractor compileKeyExtractor(String expression, Method method, Class<?> targetClass) {
+        return (StringUtils.hasText(expression) ? this.evaluator.compileKeyExtractor(expression, method, targetClass) : null);
+    }
+
     /**
      * Return a bean with the specified name and type. Used to resolve services that
      * are referenced by name in a {@link CacheOperation}.
@@ -265,17 +401,30 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
      * Clear the cached metadata.
      */
     protected void clearMetadataCache() {
+        this.invocationPlans.clear();
         this.metadataCache.clear();
         this.evaluator.clear();
     }
 
+    /**
+     * Apply the cache operations of the given method around its invocation.
+     *
+     * <p>The {@code invoker} <em>must</em> invoke the method with the very {@code args} array passed in here, as
+     * it stands when {@link CacheOperationInvoker#invoke()} is called, not with a copy taken beforehand: a
+     * {@link com.moensun.spring.cache.annotation.MSCacheable#bulk() bulk} operation replaces its collection argument
+     * in this array with the elements missing from the cache just for the duration of the invocation.
+     * @param invoker the invoker proceeding with the method invocation
+     * @param target the target object
+     * @param method the method being invoked
+     * @param args the arguments the invoker proceeds with
+     * @return the result of the invocation, or the cached value
+     */
     protected Object execute(CacheOperationInvoker invoker, Object target, Method method, Object[] args) {
         // Check whether aspect is enabled (to cope with cases where the AJ is pulled in automatically)
         if (this.initialized) {
-            Class<?> targetClass = getTargetClass(target);
-            Collection<MSCacheOperation> operations = getCacheOperationSource().getCacheOperations(method, targetClass);
-            if (!CollectionUtils.isEmpty(operations)) {
-                return execute(invoker, method, new CacheOperationContexts(operations, method, args, target, targetClass));
+            InvocationPlan plan = getInvocationPlan(method, target);
+            if (plan != InvocationPlan.NO_OPERATIONS) {
+                return execute(invoker, method, new CacheOperationContexts(plan, args, target));
             }
         }
 
@@ -296,6 +445,65 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         return invoker.invoke();
     }
 
+    /**
+     * Return the {@link InvocationPlan} of the given method on the given target, creating it on the first invocation.
+     * Plans are looked up by the class of the target, which determines the target class unless the target is an AOP
+     * proxy itself.
+     */
+    private InvocationPlan getInvocationPlan(Method method, Object target) {
+        Class<?> planKey = (target == null || target instanceof TargetClassAware ? null : target.getClass());
+        Class<?> targetClass = null;
+        if (planKey == null) {
+            targetClass = getTargetClass(target);
+            planKey = (targetClass != null ? targetClass : void.class);
+        }
+
+        Map<Class<?>, InvocationPlan> plans = getInvocationPlans(method);
+        InvocationPlan plan = plans.get(planKey);
+        if (plan == null) {
+            if (targetClass == null) {
+                targetClass = getTargetClass(target);
+            }
+            plan = createInvocationPlan(method, targetClass);
+            plans.put(planKey, plan);
+        }
+        return plan;
+    }
+
+    private Map<Class<?>, InvocationPlan> getInvocationPlans(Method method) {
+        Map<Class<?>, InvocationPlan> plans = this.invocationPlans.get(method);
+        if (plans == null) {
+            plans = new ConcurrentHashMap<Class<?>, InvocationPlan>(4);
+            Map<Class<?>, InvocationPlan> existing = this.invocationPlans.putIfAbsent(method, plans);
+            if (existing != null) {
+                plans = existing;
+            }
+        }
+        return plans;
+    }
+
+    private InvocationPlan createInvocationPlan(Method method, Class<?> targetClass) {
+        Collection<MSCacheOperation> operations = getCacheOperationSource().getCacheOperations(method, targetClass);
+        if (CollectionUtils.isEmpty(operations)) {
+            return InvocationPlan.NO_OPERATIONS;
+        }
+        List<CacheOperationMetadata> cacheables = new ArrayList<CacheOperationMetadata>();
+        List<CacheOperationMetadata> puts = new ArrayList<CacheOperationMetadata>();
+        List<CacheOperationMetadata> evicts = new ArrayList<CacheOperationMetadata>();
+        for (MSCacheOperation operation : operations) {
+            if (operation.getClass() == MSCacheableOperation.class) {
+                cacheables.add(getCacheOperationMetadata(operation, method, targetClass));
+            }
+            else if (operation.getClass() == MSCachePutOperation.class) {
+                puts.add(getCacheOperationMetadata(operation, method, targetClass));
+            }
+            else if (operation.getClass() == MSCacheEvictOperation.class) {
+                evicts.add(getCacheOperationMetadata(operation, method, targetClass));
+            }
+        }
+        return new InvocationPlan(method, cacheables, puts, evicts);
+    }
+
     private Class<?> getTargetClass(Object target) {
         Class<?> targetClass = AopProxyUtils.ultimateTargetClass(target);
         if (targetClass == null && target != null) {
@@ -310,14 +518,19 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             CacheOperationContext context = contexts.get(MSCacheableOperation.class).iterator().next();
             if (isConditionPassing(context, MSCacheOperationExpressionEvaluator.NO_RESULT)) {
                 Object key = generateKey(context, MSCacheOperationExpressionEvaluator.NO_RESULT);
-                Cache cache = context.getCaches().iterator().next();
+                MSCache cache = context.getCaches().iterator().next();
+                Callable<Object> valueLoader = new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return unwrapReturnValue(invokeOperation(invoker));
+                    }
+                };
                 try {
-                    return wrapCacheValue(method, cache.get(key, new Callable<Object>() {
-                        @Override
-                        public Object call() throws Exception {
-                            return unwrapReturnValue(invokeOperation(invoker));
-                        }
-                    }));
+                    if (generateDataType(context) == DataType.HASH) {
+                        Object hashKey = generateHashKey(context, MSCacheOperationExpressionEvaluator.NO_RESULT);
+                        return wrapCacheValue(method, cache.hGet(key, hashKey, valueLoader));
+                    }
+                    return wrapCacheValue(method, cache.get(key, valueLoader));
                 }
                 catch (Cache.ValueRetrievalException ex) {
                     // The invoker wraps any Throwable in a ThrowableWrapper instance so we
@@ -332,24 +545,33 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         }
 
 
+        // Special handling of bulk invocation
+        if (contexts.isBulk()) {
+            return executeBulk(invoker, method, contexts.get(MSCacheableOperation.class).iterator().next());
+        }
+
         // Process any early evictions
-        processCacheEvicts(contexts.get(MSCacheEvictOperation.class), true,
-                MSCacheOperationExpressionEvaluator.NO_RESULT);
+        Collection<CacheOperationContext> evictContexts = contexts.get(MSCacheEvictOperation.class);
+        if (!evictContexts.isEmpty()) {
+            CacheWrites cacheWrites = new CacheWrites();
+            processCacheEvicts(evictContexts, true, MSCacheOperationExpressionEvaluator.NO_RESULT, cacheWrites);
+            cacheWrites.flush();
+        }
 
         // Check if we have a cached item matching the conditions
         MSCache.ValueWrapper cacheHit = findCachedItem(contexts.get(MSCacheableOperation.class));
 
         // Collect puts from any @MSCacheableOperation miss, if no cached item is found
-        List<CachePutRequest> cachePutRequests = new LinkedList<CachePutRequest>();
+        List<CachePutRequest> cachePutRequests = null;
         if (cacheHit == null) {
-            collectPutRequests(contexts.get(MSCacheableOperation.class),
+            cachePutRequests = collectPutRequests(contexts.get(MSCacheableOperation.class),
                     MSCacheOperationExpressionEvaluator.NO_RESULT, cachePutRequests);
         }
 
         Object cacheValue;
         Object returnValue;
 
-        if (cacheHit != null && cachePutRequests.isEmpty() && !hasCachePut(contexts)) {
+        if (cacheHit != null && cachePutRequests == null && !hasCachePut(contexts)) {
             // If there are no put requests, just use the cache hit
             cacheValue = cacheHit.get();
             returnValue = wrapCacheValue(method, cacheValue);
@@ -361,19 +583,122 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         }
 
         // Collect any explicit @CachePuts
-        collectPutRequests(contexts.get(MSCachePutOperation.class), cacheValue, cachePutRequests);
+        cachePutRequests = collectPutRequests(contexts.get(MSCachePutOperation.class), cacheValue, cachePutRequests);
+
+        if (cachePutRequests != null || !evictContexts.isEmpty()) {
+            // Process any collected put requests, either from @CachePut or a @Cacheable miss
+            CacheWrites cacheWrites = new CacheWrites();
+            if (cachePutRequests != null) {
+                for (CachePutRequest cachePutRequest : cachePutRequests) {
+                    cachePutRequest.apply(cacheValue, cacheWrites);
+                }
+            }
 
-        // Process any collected put requests, either from @CachePut or a @Cacheable miss
-        for (CachePutRequest cachePutRequest : cachePutRequests) {
-            cachePutRequest.apply(cacheValue);
+            // Process any late evictions, then send them along with the puts
+            processCacheEvicts(evictContexts, false, cacheValue, cacheWrites);
+            cacheWrites.flush();
         }
 
-        // Process any late evictions
-        processCacheEvicts(contexts.get(MSCacheEvictOperation.class), false, cacheValue);
-
         return returnValue;
     }
 
+    /**
+     * Serve a bulk-loading method element by element: read the cached elements with one multi-get per cache, invoke
+     * the method with the missing elements only, write what it returned back in one batch and merge both in the order
+     * the elements were requested. The collection argument is swapped in place for the invocation, relying on the
+     * invoker proceeding with the very arguments array handed to {@link #execute(CacheOperationInvoker, Object, Method, Object[])}.
+     */
+    private Object executeBulk(CacheOperationInvoker invoker, Method method, CacheOperationContext context) {
+        if (!isConditionPassing(context, MSCacheOperationExpressionEvaluator.NO_RESULT)) {
+            return invokeOperation(invoker);
+        }
+
+        Object[] args = context.getArgs();
+        int bulkArgument = context.metadata.bulkArgument;
+        Collection<?> elements = (Collection<?>) args[bulkArgument];
+        if (elements == null || elements.isEmpty()) {
+            return invokeOperation(invoker);
+        }
+
+        boolean hash = generateDataType(context) == DataType.HASH;
+        Object key = (hash ? generateKey(context, MSCacheOperationExpressionEvaluator.NO_RESULT) : null);
+
+        // element -> key of the element in the cache, hash field for HASH
+        Map<Object, Object> missing = context.generateElementKeys(elements);
+        Map<Object, Object> found = new HashMap<Object, Object>();
+        for (MSCache cache : context.getCaches()) {
+            if (missing.isEmpty()) {
+                break;
+            }
+            Map<Object, Cache.ValueWrapper> hits = (hash ? doHGetAll(cache, key, missing.values()) :
+                    doGetAll(cache, missing.values()));
+            for (Iterator<Map.Entry<Object, Object>> it = missing.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Object, Object> entry = it.next();
+                Cache.ValueWrapper hit = hits.get(entry.getValue());
+                if (hit != null) {
+                    found.put(entry.getKey(), hit.get());
+                    it.remove();
+                }
+            }
+        }
+
+        if (logger.isTraceEnabled()) {
+            logger.trace("Bulk cache lookup of " + elements.size() + " element(s) found " + found.size() +
+                    " in cache(s) " + context.getCacheNames());
+        }
+        if (missing.isEmpty()) {
+            return wrapCacheValue(method, mergeBulkResult(elements, found, null));
+        }
+
+        // the invoker proceeds with this array, see execute(CacheOperationInvoker, Object, Method, Object[])
+        Object returnValue;
+        args[bulkArgument] = context.metadata.createBulkArgument(missing.keySet());
+        try {
+            returnValue = invokeOperation(invoker);
+        }
+        finally {
+            args[bulkArgument] = elements;
+        }
+
+        Map<?, ?> loaded = (Map<?, ?>) unwrapReturnValue(returnValue);
+        if (loaded != null && !loaded.isEmpty()) {
+            Map<Object, Object> entries = new LinkedHashMap<Object, Object>(loaded.size() * 4 / 3 + 1);
+            for (Map.Entry<Object, Object> entry : missing.entrySet()) {
+                if (loaded.containsKey(entry.getKey())) {
+                    Object value = loaded.get(entry.getKey());
+                    if (context.canPutToCache(value)) {
+                        entries.put(entry.getValue(), value);
+                    }
+                }
+            }
+            if (!entries.isEmpty()) {
+                for (MSCache cache : context.getCaches()) {
+                    if (hash) {
+                        doHPutAll(cache, key, entries);
+                    }
+                    else {
+                        doPutAll(cache, entries);
+                    }
+                }
+            }
+        }
+
+        return wrapCacheValue(method, mergeBulkResult(elements, found, loaded));
+    }
+
+    private Map<Object, Object> mergeBulkResult(Collection<?> elements, Map<Object, Object> found, Map<?, ?> loaded) {
+        Map<Object, Object> result = new LinkedHashMap<Object, Object>(elements.size() * 4 / 3 + 1);
+        for (Object element : elements) {
+            if (found.containsKey(element)) {
+                result.put(element, found.get(element));
+            }
+            else if (loaded != null && loaded.containsKey(element)) {
+                result.put(element, loaded.get(element));
+            }
+        }
+        return result;
+    }
+
     private Object wrapCacheValue(Method method, Object cacheValue) {
         if (method.getReturnType() == javaUtilOptionalClass &&
                 (cacheValue == null || cacheValue.getClass() != javaUtilOptionalClass)) {
@@ -391,12 +716,12 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
 
     private boolean hasCachePut(MSCacheAspectSupport.CacheOperationContexts contexts) {
         // Evaluate the conditions *without* the result object because we don't have it yet...
-        Collection<CacheOperationContext> cachePutContexts = contexts.get(CachePutOperation.class);
-        Collection<CacheOperationContext> excluded = new ArrayList<CacheOperationContext>();
+        Collection<CacheOperationContext> cachePutContexts = contexts.get(MSCachePutOperation.class);
+        int excluded = 0;
         for (MSCacheAspectSupport.CacheOperationContext context : cachePutContexts) {
             try {
                 if (!context.isConditionPassing(MSCacheOperationExpressionEvaluator.RESULT_UNAVAILABLE)) {
-                    excluded.add(context);
+                    excluded++;
                 }
             }
             catch (MSVariableNotAvailableException ex) {
@@ -404,14 +729,15 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             }
         }
         // Check if all puts have been excluded by condition
-        return (cachePutContexts.size() != excluded.size());
+        return (cachePutContexts.size() != excluded);
     }
 
-    private void processCacheEvicts(Collection<CacheOperationContext> contexts, boolean beforeInvocation, Object result) {
+    private void processCacheEvicts(Collection<CacheOperationContext> contexts, boolean beforeInvocation, Object result,
+                                    CacheWrites cacheWrites) {
         for (MSCacheAspectSupport.CacheOperationContext context : contexts) {
             MSCacheEvictOperation operation = (MSCacheEvictOperation) context.metadata.operation;
             if (beforeInvocation == operation.isBeforeInvocation() && isConditionPassing(context, result)) {
-                performCacheEvict(context, operation, result);
+                performCacheEvict(context, operation, result, cacheWrites);
             }
         }
     }
@@ -422,11 +748,14 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
      * @param operation
      * @param result
      */
-    private void performCacheEvict(CacheOperationContext context, MSCacheEvictOperation operation, Object result) {
+    private void performCacheEvict(CacheOperationContext context, MSCacheEvictOperation operation, Object result,
+                                   CacheWrites cacheWrites) {
         Object key = null;
         for (MSCache cache : context.getCaches()) {
             if (operation.isCacheWide()) {
                 logInvalidating(context, operation, null);
+                // writes gathered so far must not land after the clear
+                cacheWrites.flush();
                 doClear(cache);
             }
             else {
@@ -437,14 +766,14 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
                 DataType dataType = context.generateDataType();
                 switch (dataType){
                     case STRING:
-                        doEvict(cache, key);
+                        cacheWrites.add(new CacheWrite(cache, CacheWrite.EVICT, key, null, null));
                      break;
                     case HASH:
                         Object hashKey = context.generateHashKey(result);
-                        doHEvict(cache,key,hashKey);
+                        cacheWrites.add(new CacheWrite(cache, CacheWrite.HEVICT, key, hashKey, null));
                         break;
                     default:
-                        doEvict(cache, key);
+                        cacheWrites.add(new CacheWrite(cache, CacheWrite.EVICT, key, null, null));
                         break;
                 }
 
@@ -503,19 +832,24 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
      * the specified result item.
      * @param contexts the contexts to handle
      * @param result the result item (never {@code null})
-     * @param putRequests the collection to update
+     * @param putRequests the list to update, {@code null} if none was collected yet
+     * @return the updated list, {@code null} if there still is no request
      */
-    private void collectPutRequests(Collection<CacheOperationContext> contexts,
-                                    Object result, Collection<CachePutRequest> putRequests) {
+    private List<CachePutRequest> collectPutRequests(Collection<CacheOperationContext> contexts,
+                                                     Object result, List<CachePutRequest> putRequests) {
 
         for (CacheOperationContext context : contexts) {
             if (isConditionPassing(context, result)) {
                 Object key = generateKey(context, result);
-                Object hashKey = generateHashKey(context,result);
                 DataType dataType = generateDataType(context);
+                Object hashKey = (dataType == DataType.HASH ? generateHashKey(context, result) : null);
+                if (putRequests == null) {
+                    putRequests = new ArrayList<CachePutRequest>(2);
+                }
                 putRequests.add(new CachePutRequest(context, key,dataType,hashKey));
             }
         }
+        return putRequests;
     }
 
     private MSCache.ValueWrapper findInCaches(CacheOperationContext context, Object key) {
@@ -597,53 +931,127 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
 
     private class CacheOperationContexts {
 
-        private final MultiValueMap<Class<? extends MSCacheOperation>, CacheOperationContext> contexts =
-                new LinkedMultiValueMap<Class<? extends MSCacheOperation>, CacheOperationContext>();
+        private final InvocationPlan plan;
 
-        private final boolean sync;
+        private final List<CacheOperationContext> cacheables;
 
-        public CacheOperationContexts(Collection<? extends MSCacheOperation> operations, Method method,
-                                      Object[] args, Object target, Class<?> targetClass) {
+        private final List<CacheOperationContext> puts;
 
-            for (MSCacheOperation operation : operations) {
-                this.contexts.add(operation.getClass(), getOperationContext(operation, method, args, target, targetClass));
+        private final List<CacheOperationContext> evicts;
+
+        public CacheOperationContexts(InvocationPlan plan, Object[] args, Object target) {
+            this.plan = plan;
+            this.cacheables = createContexts(plan.cacheables, args, target);
+            this.puts = createContexts(plan.puts, args, target);
+            this.evicts = createContexts(plan.evicts, args, target);
+            if (plan.sync && this.cacheables.get(0).getCaches().size() > 1) {
+                throw new IllegalStateException("@MSCacheableOperation(sync=true) only allows a single cache on '" +
+                        this.cacheables.get(0).getOperation() + "'");
             }
-            this.sync = determineSyncFlag(method);
+        }
+
+        private List<CacheOperationContext> createContexts(List<CacheOperationMetadata> metadata, Object[] args,
+                                                           Object target) {
+            if (metadata.isEmpty()) {
+                return Collections.emptyList();
+            }
+            if (metadata.size() == 1) {
+                return Collections.singletonList(new CacheOperationContext(metadata.get(0), args, target));
+            }
+            List<CacheOperationContext> contexts = new ArrayList<CacheOperationContext>(metadata.size());
+            for (CacheOperationMetadata operationMetadata : metadata) {
+                contexts.add(new CacheOperationContext(operationMetadata, args, target));
+            }
+            return contexts;
         }
 
         public Collection<CacheOperationContext> get(Class<? extends CacheOperation> operationClass) {
-            Collection<CacheOperationContext> result = this.contexts.get(operationClass);
-            return (result != null ? result : Collections.<MSCacheAspectSupport.CacheOperationContext>emptyList());
+            if (operationClass == MSCacheableOperation.class) {
+                return this.cacheables;
+            }
+            if (operationClass == MSCachePutOperation.class) {
+                return this.puts;
+            }
+            if (operationClass == MSCacheEvictOperation.class) {
+                return this.evicts;
+            }
+            return Collections.emptyList();
         }
 
         public boolean isSynchronized() {
-            return this.sync;
+            return this.plan.sync;
+        }
+
+        public boolean isBulk() {
+            return this.plan.bulk;
+        }
+    }
+
+
+    /**
+     * Everything about the cache operations of a method on a target class that does not depend on a particular
+     * invocation, worked out on its first invocation: the metadata of the operations, split by kind, and whether
+     * invocations are synchronized or bulk ones.
+     */
+    protected static class InvocationPlan {
+
+        /**
+         * Plan of a method without any cache operation.
+         */
+        static final InvocationPlan NO_OPERATIONS = new InvocationPlan();
+
+        private final List<CacheOperationMetadata> cacheables;
+
+        private final List<CacheOperationMetadata> puts;
+
+        private final List<CacheOperationMetadata> evicts;
+
+        private final boolean sync;
+
+        private final boolean bulk;
+
+        private InvocationPlan() {
+            this.cacheables = Collections.emptyList();
+            this.puts = Collections.emptyList();
+            this.evicts = Collections.emptyList();
+            this.sync = false;
+            this.bulk = false;
+        }
+
+        InvocationPlan(Method method, List<CacheOperationMetadata> cacheables, List<CacheOperationMetadata> puts,
+                       List<CacheOperationMetadata> evicts) {
+            this.cacheables = freeze(cacheables);
+            this.puts = freeze(puts);
+            this.evicts = freeze(evicts);
+            this.sync = determineSyncFlag(method);
+            this.bulk = determineBulkFlag(method);
+        }
+
+        private static List<CacheOperationMetadata> freeze(List<CacheOperationMetadata> metadata) {
+            return (metadata.isEmpty() ? Collections.<CacheOperationMetadata>emptyList() :
+                    Collections.unmodifiableList(metadata));
+        }
+
+        private boolean hasOtherOperations() {
+            return (!this.puts.isEmpty() || !this.evicts.isEmpty());
         }
 
         private boolean determineSyncFlag(Method method) {
-            List<CacheOperationContext> cacheOperationContexts = this.contexts.get(MSCacheableOperation.class);
-            if (cacheOperationContexts == null) {  // no @Cacheable operation at all
-                return false;
-            }
             boolean syncEnabled = false;
-            for (CacheOperationContext cacheOperationContext : cacheOperationContexts) {
-                if (((MSCacheableOperation) cacheOperationContext.getOperation()).isSync()) {
+            for (CacheOperationMetadata metadata : this.cacheables) {
+                if (((MSCacheableOperation) metadata.operation).isSync()) {
                     syncEnabled = true;
                     break;
                 }
             }
             if (syncEnabled) {
-                if (this.contexts.size() > 1) {
+                if (hasOtherOperations()) {
                     throw new IllegalStateException("@MSCacheableOperation(sync=true) cannot be combined with other cache operations on '" + method + "'");
                 }
-                if (cacheOperationContexts.size() > 1) {
+                if (this.cacheables.size() > 1) {
                     throw new IllegalStateException("Only one @MSCacheableOperation(sync=true) entry is allowed on '" + method + "'");
                 }
-                CacheOperationContext cacheOperationContext = cacheOperationContexts.iterator().next();
-                MSCacheableOperation operation = (MSCacheableOperation) cacheOperationContext.getOperation();
-                if (cacheOperationContext.getCaches().size() > 1) {
-                    throw new IllegalStateException("@MSCacheableOperation(sync=true) only allows a single cache on '" + operation + "'");
-                }
+                MSCacheableOperation operation = (MSCacheableOperation) this.cacheables.get(0).operation;
                 if (StringUtils.hasText(operation.getUnless())) {
                     throw new IllegalStateException("@MSCacheableOperation(sync=true) does not support unless attribute on '" + operation + "'");
                 }
@@ -651,6 +1059,26 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             }
             return false;
         }
+
+        private boolean determineBulkFlag(Method method) {
+            boolean bulkEnabled = false;
+            for (CacheOperationMetadata metadata : this.cacheables) {
+                if (((MSCacheableOperation) metadata.operation).isBulk()) {
+                    bulkEnabled = true;
+                    break;
+                }
+            }
+            if (bulkEnabled) {
+                if (hasOtherOperations()) {
+                    throw new IllegalStateException("@MSCacheableOperation(bulk=true) cannot be combined with other cache operations on '" + method + "'");
+                }
+                if (this.cacheables.size() > 1) {
+                    throw new IllegalStateException("Only one @MSCacheableOperation(bulk=true) entry is allowed on '" + method + "'");
+                }
+                return true;
+            }
+            return false;
+        }
     }
 
 
@@ -672,8 +1100,31 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
 
         private final MSCacheResolver cacheResolver;
 
+        private final int bulkArgument;
+
+        private final MSCacheKeyExtractor keyExtractor;
+
+        private final MSCacheKeyExtractor hashKeyExtractor;
+
+        private final AnnotatedElementKey methodCacheKey;
+
+        // whether the caches depend on the operation only, and so can be resolved once
+        private final boolean cachesResolvable;
+
+        private volatile Collection<? extends MSCache> caches;
+
         public CacheOperationMetadata(MSCacheOperation operation, Method method, Class<?> targetClass,
                                       KeyGenerator keyGenerator, KeyGenerator hashKeyGenerator, MSCacheResolver cacheResolver) {
+            this(operation, method, targetClass, keyGenerator, hashKeyGenerator, cacheResolver, null, null);
+        }
+
+        /**
+         * @param keyExtractor reads the key off the arguments without SpEL, {@code null} to evaluate it
+         * @param hashKeyExtractor reads the hash key off the arguments without SpEL, {@code null} to evaluate it
+         */
+        CacheOperationMetadata(MSCacheOperation operation, Method method, Class<?> targetClass,
+                               KeyGenerator keyGenerator, KeyGenerator hashKeyGenerator, MSCacheResolver cacheResolver,
+                               MSCacheKeyExtractor keyExtractor, MSCacheKeyExtractor hashKeyExtractor) {
 
             this.operation = operation;
             this.method = method;
@@ -681,6 +1132,50 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             this.keyGenerator = keyGenerator;
             this.hashKeyGenerator = hashKeyGenerator;
             this.cacheResolver = cacheResolver;
+            this.bulkArgument = determineBulkArgument(operation, method);
+            this.keyExtractor = keyExtractor;
+            this.hashKeyExtractor = hashKeyExtractor;
+            this.methodCacheKey = new AnnotatedElementKey(method, targetClass);
+            this.cachesResolvable = (cacheResolver != null && cacheResolver.getClass() == SimpleMSCacheResolver.class);
+        }
+
+        /**
+         * Find the collection parameter a bulk operation splits into elements, checking the method can be served
+         * element by element.
+         * @return the index of the parameter, or {@code -1} if the operation is not a bulk one
+         */
+        private static int determineBulkArgument(MSCacheOperation operation, Method method) {
+            if (!(operation instanceof MSCacheableOperation) || !((MSCacheableOperation) operation).isBulk()) {
+                return -1;
+            }
+            if (method.isVarArgs()) {
+                throw new IllegalStateException("@MSCacheableOperation(bulk=true) does not support varargs methods on '" + method + "'");
+            }
+            Class<?> returnType = method.getReturnType();
+            if (!Map.class.isAssignableFrom(returnType) || !returnType.isAssignableFrom(LinkedHashMap.class)) {
+                throw new IllegalStateException("@MSCacheableOperation(bulk=true) requires a method returning a Map keyed by element on '" + method + "'");
+            }
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (Collection.class.isAssignableFrom(parameterTypes[i])) {
+                    if (!parameterTypes[i].isAssignableFrom(ArrayList.class) &&
+                            !parameterTypes[i].isAssignableFrom(LinkedHashSet.class)) {
+                        throw new IllegalStateException("@MSCacheableOperation(bulk=true) requires a List, Set or Collection parameter on '" + method + "'");
+                    }
+                    return i;
+                }
+            }
+            throw new IllegalStateException("@MSCacheableOperation(bulk=true) requires a Collection parameter on '" + method + "'");
+        }
+
+        /**
+         * Create the argument a bulk operation invokes the method with, holding the given elements only.
+         */
+        private Collection<Object> createBulkArgument(Collection<Object> elements) {
+            if (this.method.getParameterTypes()[this.bulkArgument].isAssignableFrom(ArrayList.class)) {
+                return new ArrayList<Object>(elements);
+            }
+            return new LinkedHashSet<Object>(elements);
         }
     }
 
@@ -695,17 +1190,36 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
 
         private final Collection<? extends MSCache> caches;
 
-        private final Collection<String> cacheNames;
+        private Collection<String> cacheNames;
 
-        private final AnnotatedElementKey methodCacheKey;
+        // built on first use, then rebound to each result
+        private MSCacheEvaluationContext evaluationContext;
+
+        // what does not depend on the result of the method is computed once per invocation
+        private Boolean conditionPassing;
+
+        private Object key;
+
+        private Object hashKey;
 
         public CacheOperationContext(CacheOperationMetadata metadata, Object[] args, Object target) {
             this.metadata = metadata;
             this.args = extractArgs(metadata.method, args);
             this.target = target;
-            this.caches = MSCacheAspectSupport.this.getCaches(this, metadata.cacheResolver);
-            this.cacheNames = createCacheNames(this.caches);
-            this.methodCacheKey = new AnnotatedElementKey(metadata.method, metadata.targetClass);
+            this.caches = resolveCaches(metadata);
+        }
+
+        private Collection<? extends MSCache> resolveCaches(CacheOperationMetadata metadata) {
+            if (!metadata.cachesResolvable) {
+                return MSCacheAspectSupport.this.getCaches(this, metadata.cacheResolver);
+            }
+            Collection<? extends MSCache> caches = metadata.caches;
+            if (caches == null) {
+                caches = Collections.unmodifiableList(
+                        new ArrayList<MSCache>(MSCacheAspectSupport.this.getCaches(this, metadata.cacheResolver)));
+                metadata.caches = caches;
+            }
+            return caches;
         }
 
         @Override
@@ -740,12 +1254,28 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         }
 
         protected boolean isConditionPassing(Object result) {
-            if (StringUtils.hasText(this.metadata.operation.getCondition())) {
-                EvaluationContext evaluationContext = createEvaluationContext(result);
-                return evaluator.condition(this.metadata.operation.getCondition(),
-                        this.methodCacheKey, evaluationContext);
+            String condition = this.metadata.operation.getCondition();
+            if (!StringUtils.hasText(condition)) {
+                return true;
             }
-            return true;
+            if (isMemoizable(condition, result) && this.conditionPassing != null) {
+                return this.conditionPassing;
+            }
+            boolean passing = evaluator.condition(condition, this.metadata.methodCacheKey, createEvaluationContext(result));
+            if (result == MSCacheOperationExpressionEvaluator.NO_RESULT) {
+                // only a value taken before the method runs is shared: a check made on behalf of a cache put before
+                // the invocation must not stand in for the evaluation after it
+                this.conditionPassing = passing;
+            }
+            return passing;
+        }
+
+        /**
+         * Whether the value of the given expression for the given result can be shared with the other phases of the
+         * invocation: always if the expression does not refer to the result, otherwise only before the method runs.
+         */
+        private boolean isMemoizable(String expression, Object result) {
+            return (result == MSCacheOperationExpressionEvaluator.NO_RESULT || !evaluator.referencesResult(expression));
         }
 
         protected boolean canPutToCache(Object value) {
@@ -758,7 +1288,7 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             }
             if (StringUtils.hasText(unless)) {
                 EvaluationContext evaluationContext = createEvaluationContext(value);
-                return !evaluator.unless(unless, this.methodCacheKey, evaluationContext);
+                return !evaluator.unless(unless, this.metadata.methodCacheKey, evaluationContext);
             }
             return true;
         }
@@ -768,11 +1298,58 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
          * @return the generated key, or {@code null} if none can be generated
          */
         protected Object generateKey(Object result) {
-            if (StringUtils.hasText(this.metadata.operation.getKey())) {
-                EvaluationContext evaluationContext = createEvaluationContext(result);
-                return evaluator.key(this.metadata.operation.getKey(), this.methodCacheKey, evaluationContext);
+            String expression = this.metadata.operation.getKey();
+            boolean memoizable = (!StringUtils.hasText(expression) || isMemoizable(expression, result));
+            if (memoizable && this.key != null) {
+                return this.key;
+            }
+            Object key;
+            if (StringUtils.hasText(expression)) {
+                key = extract(this.metadata.keyExtractor);
+                if (key == MSCacheKeyExtractor.FALLBACK) {
+                    key = evaluator.key(expression, this.metadata.methodCacheKey, createEvaluationContext(result));
+                }
+            }
+            else {
+                key = this.metadata.keyGenerator.generate(this.target, this.metadata.method, this.args);
+            }
+            if (memoizable) {
+                this.key = key;
+            }
+            return key;
+        }
+
+        /**
+         * Compute the key of every element of a bulk operation: the cache key for {@link DataType#STRING}, the hash
+         * field for {@link DataType#HASH}. The element itself is used unless a key, respectively hash key,
+         * expression is set, which is then evaluated with the element bound to {@code #element}.
+         * @return the keys by element, in the iteration order of the elements
+         */
+        protected Map<Object, Object> generateElementKeys(Collection<?> elements) {
+            boolean hash = (generateDataType() == DataType.HASH);
+            String expression = (hash ? this.metadata.operation.getHashKey() : this.metadata.operation.getKey());
+            EvaluationContext evaluationContext = (StringUtils.hasText(expression) ?
+                    createEvaluationContext(MSCacheOperationExpressionEvaluator.NO_RESULT) : null);
+
+            Map<Object, Object> keys = new LinkedHashMap<Object, Object>(elements.size() * 4 / 3 + 1);
+            for (Object element : elements) {
+                Object key = element;
+                if (evaluationContext != null) {
+                    evaluationContext.setVariable(MSCacheOperationExpressionEvaluator.ELEMENT_VARIABLE, element);
+                    key = (hash ? evaluator.hashKey(expression, this.metadata.methodCacheKey, evaluationContext) :
+                            evaluator.key(expression, this.metadata.methodCacheKey, evaluationContext));
+                }
+                if (key == null) {
+                    throw new IllegalArgumentException("Null key returned for element '" + element +
+                            "' of bulk cache operation " + this.metadata.operation);
+                }
+                keys.put(element, key);
             }
-            return this.metadata.keyGenerator.generate(this.target, this.metadata.method, this.args);
+            if (evaluationContext != null) {
+                // the context is shared with the other expressions of the operation
+                evaluationContext.setVariable(MSCacheOperationExpressionEvaluator.ELEMENT_VARIABLE, null);
+            }
+            return keys;
         }
 
         protected DataType generateDataType(){
@@ -780,10 +1357,18 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         }
 
         protected Object generateHashKey( Object result ){
+            String expression = this.metadata.operation.getHashKey();
+            boolean memoizable = (!StringUtils.hasText(expression) || isMemoizable(expression, result));
+            if (memoizable && this.hashKey != null) {
+                return this.hashKey;
+            }
             String hashKey = "";
             if( StringUtils.hasText( this.metadata.operation.getHashKey()) ){
-                EvaluationContext evaluationContext = createEvaluationContext(result);
-                hashKey += evaluator.hashKey(this.metadata.operation.getHashKey(),this.methodCacheKey, evaluationContext);
+                Object value = extract(this.metadata.hashKeyExtractor);
+                if (value == MSCacheKeyExtractor.FALLBACK) {
+                    value = evaluator.hashKey(expression, this.metadata.methodCacheKey, createEvaluationContext(result));
+                }
+                hashKey += value;
             }
             if( StringUtils.hasText( this.metadata.operation.getHashKeyGenerator())  ){
                 if(  StringUtils.hasText( this.metadata.operation.getHashKey())  ){
@@ -792,14 +1377,28 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
                 hashKey += this.metadata.hashKeyGenerator.generate(this.target, this.metadata.method, this.args);
             }
 
+            if (memoizable) {
+                this.hashKey = hashKey;
+            }
             return hashKey;
         }
 
 
 
+        private Object extract(MSCacheKeyExtractor extractor) {
+            return (extractor != null ? extractor.extract(this.args) : MSCacheKeyExtractor.FALLBACK);
+        }
+
+        /**
+         * Return the evaluation context of this operation, bound to the given result. Built once per invocation.
+         */
         private EvaluationContext createEvaluationContext(Object result) {
-            return evaluator.createEvaluationContext(this.caches, this.metadata.method, this.args,
-                    this.target, this.metadata.targetClass, result, beanFactory);
+            if (this.evaluationContext == null) {
+                this.evaluationContext = (MSCacheEvaluationContext) evaluator.createEvaluationContext(this.caches,
+                        this.metadata.method, this.args, this.target, this.metadata.targetClass, beanFactory);
+            }
+            this.evaluationContext.setResult(result);
+            return this.evaluationContext;
         }
 
         protected Collection<? extends MSCache> getCaches() {
@@ -807,6 +1406,9 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
         }
 
         protected Collection<String> getCacheNames() {
+            if (this.cacheNames == null) {
+                this.cacheNames = createCacheNames(this.caches);
+            }
             return this.cacheNames;
         }
 
@@ -837,19 +1439,19 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
             this.hashKey = hashKey;
         }
 
-        public void apply(Object result) {
+        public void apply(Object result, CacheWrites cacheWrites) {
             if (this.context.canPutToCache(result)) {
                 for (MSCache cache : this.context.getCaches()) {
 
                     switch (dataType){
                         case STRING:
-                            doPut(cache, this.key, result);
+                            cacheWrites.add(new CacheWrite(cache, CacheWrite.PUT, this.key, null, result));
                             break;
                         case HASH:
-                            doHSet(cache,this.key,this.hashKey,result);
+                            cacheWrites.add(new CacheWrite(cache, CacheWrite.HSET, this.key, this.hashKey, result));
                             break;
                         default:
-                            doPut(cache, this.key, result);
+                            cacheWrites.add(new CacheWrite(cache, CacheWrite.PUT, this.key, null, result));
                             break;
                     }
 
@@ -860,6 +1462,134 @@ public class MSCacheAspectSupport extends AbstractMSCacheInvoker implements Bean
     }
 
 
+    /**
+     * A single write of an invocation to one cache.
+     */
+    private class CacheWrite {
+
+        static final int PUT = 0;
+        static final int HSET = 1;
+        static final int EVICT = 2;
+        static final int HEVICT = 3;
+
+        private final MSCache cache;
+
+        private final int type;
+
+        private final Object key;
+
+        private final Object hashKey;
+
+        private final Object value;
+
+        public CacheWrite(MSCache cache, int type, Object key, Object hashKey, Object value) {
+            this.cache = cache;
+            this.type = type;
+            this.key = key;
+            this.hashKey = hashKey;
+            this.value = value;
+        }
+
+        public MSCache getTargetCache() {
+            if (cache instanceof TransactionAwareMSCacheDecorator) {
+                return ((TransactionAwareMSCacheDecorator) cache).getTargetCache();
+            }
+            return cache;
+        }
+
+        /**
+         * Write straight to the cache, handing a failure to the error handler.
+         */
+        public void apply() {
+            switch (type) {
+                case PUT:
+                    doPut(cache, key, value);
+                    break;
+                case HSET:
+                    doHSet(cache, key, hashKey, value);
+                    break;
+                case EVICT:
+                    doEvict(cache, key);
+                    break;
+                default:
+                    doHEvict(cache, key, hashKey);
+                    break;
+            }
+        }
+
+        public void addTo(MSRedisCache target, MSRedisCache.WriteBatch batch) {
+            switch (type) {
+                case PUT:
+                    batch.put(target, key, value);
+                    break;
+                case HSET:
+                    batch.hSet(target, key, hashKey, value);
+                    break;
+                case EVICT:
+                    batch.evict(target, key);
+                    break;
+                default:
+                    batch.hEvict(target, key, hashKey);
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     * The writes of one invocation, gathered across caches, {@code @MSCaching} groups and operations. Writes to
+     * {@link MSRedisCache}s are held back and sent in one {@link MSRedisCache.WriteBatch} per {@code RedisOperations},
+     * so that all of them cost a single round trip and a value going to several caches is serialized once; any other
+     * cache is written to right away. Should a batch fail, its writes are replayed one by one, leaving the error handler
+     * to see each failing write on its own just as without batching.
+     */
+    private class CacheWrites {
+
+        private final Map<Object, List<CacheWrite>> pending = new LinkedHashMap<Object, List<CacheWrite>>();
+
+        public void add(CacheWrite write) {
+            MSCache target = write.getTargetCache();
+            if (!(target instanceof MSRedisCache)) {
+                write.apply();
+                return;
+            }
+            // caches sharing their RedisOperations share a batch
+            Object redisOperations = target.getNativeCache();
+            List<CacheWrite> writes = this.pending.get(redisOperations);
+            if (writes == null) {
+                writes = new ArrayList<CacheWrite>();
+                this.pending.put(redisOperations, writes);
+            }
+            writes.add(write);
+        }
+
+        public void flush() {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            List<List<CacheWrite>> batches = new ArrayList<List<CacheWrite>>(this.pending.values());
+            this.pending.clear();
+            for (List<CacheWrite> writes : batches) {
+                MSRedisCache.WriteBatch batch = new MSRedisCache.WriteBatch();
+                for (CacheWrite write : writes) {
+                    write.addTo((MSRedisCache) write.getTargetCache(), batch);
+                }
+                try {
+                    batch.execute();
+                }
+                catch (RuntimeException ex) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("Batched cache writes failed, replaying them one by one", ex);
+                    }
+                    for (CacheWrite write : writes) {
+                        write.apply();
+                    }
+                }
+            }
+        }
+    }
+
+
     private static final class CacheOperationCacheKey implements Comparable<CacheOperationCacheKey> {
 
         private final CacheOperation cacheOperation;
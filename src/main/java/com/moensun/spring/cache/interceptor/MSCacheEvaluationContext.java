@@ -38,6 +38,23 @@ public class MSCacheEvaluationContext extends MethodBasedEvaluationContext {
     }
 
 
+    /**
+     * Bind the result of the method, replacing the previous binding, so that the same context can serve every phase
+     * of an invocation. {@link MSCacheOperationExpressionEvaluator#NO_RESULT} leaves the result variable unset,
+     * {@link MSCacheOperationExpressionEvaluator#RESULT_UNAVAILABLE} makes it unavailable.
+     */
+    void setResult(Object result) {
+        if (result == MSCacheOperationExpressionEvaluator.RESULT_UNAVAILABLE) {
+            setVariable(MSCacheOperationExpressionEvaluator.RESULT_VARIABLE, null);
+            addUnavailableVariable(MSCacheOperationExpressionEvaluator.RESULT_VARIABLE);
+            return;
+        }
+        this.unavailableVariables.remove(MSCacheOperationExpressionEvaluator.RESULT_VARIABLE);
+        setVariable(MSCacheOperationExpressionEvaluator.RESULT_VARIABLE,
+                (result != MSCacheOperationExpressionEvaluator.NO_RESULT ? result : null));
+    }
+
+
     /**
      * Load the param information only when needed.
      */
@@ -3,8 +3,6 @@ package com.moensun.spring.cache.interceptor;
 import com.moensun.spring.cache.annotation.DataType;
 import org.springframework.data.redis.serializer.RedisSerializer;
 
-import java.util.Arrays;
-
 import static org.springframework.util.Assert.notNull;
 
 /**
@@ -25,6 +23,8 @@ public class MSCacheKey {
 
     private final Object hashKeyElement;
 
+    private volatile byte[] keyBytes;
+    private volatile byte[] hashKeyBytes;
 
     public MSCacheKey(Object keyElement) {
 
@@ -42,23 +42,29 @@ public class MSCacheKey {
     }
 
     /**
-     * Get the {@link Byte} representation of the given key element using prefix if available.
+     * Get the {@link Byte} representation of the given key element using prefix if available. The representation is
+     * computed once and shared by subsequent calls, so it must not be modified.
      */
     public byte[] getKeyBytes() {
 
-        byte[] rawKey = serializeKeyElement();
-        if (!hasPrefix()) {
-            return rawKey;
+        byte[] bytes = keyBytes;
+        if (bytes == null) {
+            bytes = keyBytes = prefixKeyElement();
         }
-
-        byte[] prefixedKey = Arrays.copyOf(prefix, prefix.length + rawKey.length);
-        System.arraycopy(rawKey, 0, prefixedKey, prefix.length, rawKey.length);
-
-        return prefixedKey;
+        return bytes;
     }
 
+    /**
+     * Get the {@link Byte} representation of the hash key element. The representation is computed once and shared by
+     * subsequent calls, so it must not be modified.
+     */
     public byte[] getHashKeyBytes() {
-        return serializeHashKeyElement();
+
+        byte[] bytes = hashKeyBytes;
+        if (bytes == null) {
+            bytes = hashKeyBytes = serializeHashKeyElement();
+        }
+        return bytes;
     }
 
     /**
@@ -76,6 +82,20 @@ public class MSCacheKey {
         return hashKeyElement;
     }
 
+    private byte[] prefixKeyElement() {
+
+        byte[] rawKey = serializeKeyElement();
+        if (!hasPrefix()) {
+            return rawKey;
+        }
+
+        byte[] prefixedKey = new byte[prefix.length + rawKey.length];
+        System.arraycopy(prefix, 0, prefixedKey, 0, prefix.length);
+        System.arraycopy(rawKey, 0, prefixedKey, prefix.length, rawKey.length);
+
+        return prefixedKey;
+    }
+
     @SuppressWarnings("unchecked")
     private byte[] serializeKeyElement() {
 
@@ -103,6 +123,7 @@ public class MSCacheKey {
      */
     public void setSerializer(RedisSerializer<?> serializer) {
         this.serializer = serializer;
+        resetBytes();
     }
 
     /**
@@ -120,6 +141,7 @@ public class MSCacheKey {
      */
     public MSCacheKey usePrefix(byte[] prefix) {
         this.prefix = prefix;
+        this.keyBytes = null;
         return this;
     }
 
@@ -132,7 +154,13 @@ public class MSCacheKey {
     public MSCacheKey withKeySerializer(RedisSerializer serializer) {
 
         this.serializer = serializer;
+        resetBytes();
         return this;
     }
 
+    private void resetBytes() {
+        this.keyBytes = null;
+        this.hashKeyBytes = null;
+    }
+
 }
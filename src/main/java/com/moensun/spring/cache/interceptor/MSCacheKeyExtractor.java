@@ -0,0 +1,277 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.TypeDescriptor;
+import org.springframework.core.convert.support.DefaultConversionService;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.CompoundExpression;
+import org.springframework.expression.spel.ast.OpPlus;
+import org.springframework.expression.spel.ast.PropertyOrFieldReference;
+import org.springframework.expression.spel.ast.StringLiteral;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.util.ReflectionUtils;
+import org.springframework.util.StringUtils;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a key straight off the method arguments for the simple expressions most keys are written as: a parameter
+ * reference ({@code #id}, {@code #p0}, {@code #a0}), a property chain ({@code #user.id}) and the concatenation of those
+ * with string literals ({@code 'user:' + #user.id}). Gives the same result as evaluating the expression with SpEL, and
+ * answers {@link #FALLBACK} wherever it might not, such as a {@literal null} along a property chain or two numbers
+ * being added, leaving the caller to evaluate the expression after all.
+ */
+abstract class MSCacheKeyExtractor {
+
+    /**
+     * Returned by {@link #extract(Object[])} when the expression has to be evaluated by SpEL.
+     */
+    static final Object FALLBACK = new Object();
+
+    private static final Pattern INDEXED_ARGUMENT = Pattern.compile("[ap]\\d+");
+
+    /**
+     * Extract the value of the expression from the given arguments.
+     * @return the value, or {@link #FALLBACK}
+     */
+    abstract Object extract(Object[] args);
+
+    /**
+     * Build the extractor of the given expression.
+     * @param ast the parsed expression
+     * @param parameterNames the parameter names of the method, {@code null} if not discoverable
+     * @param parameterCount the number of parameters of the method
+     * @return the extractor, or {@code null} if the expression is not a simple one
+     */
+    static MSCacheKeyExtractor compile(SpelNode ast, String[] parameterNames, int parameterCount) {
+        if (ast instanceof VariableReference) {
+            int index = resolveArgument(ast.toStringAST().substring(1), parameterNames, parameterCount);
+            return (index >= 0 ? new Argument(index) : null);
+        }
+        if (ast instanceof StringLiteral) {
+            return new Literal(((StringLiteral) ast).getLiteralValue().getValue());
+        }
+        if (ast instanceof CompoundExpression) {
+            MSCacheKeyExtractor extractor = compile(ast.getChild(0), parameterNames, parameterCount);
+            if (!(extractor instanceof Argument)) {
+                return null;
+            }
+            for (int i = 1; i < ast.getChildCount(); i++) {
+                SpelNode child = ast.getChild(i);
+                if (!(child instanceof PropertyOrFieldReference) || ((PropertyOrFieldReference) child).isNullSafe()) {
+                    return null;
+                }
+                extractor = new Property(extractor, ((PropertyOrFieldReference) child).getName());
+            }
+            return extractor;
+        }
+        if (ast instanceof OpPlus && ast.getChildCount() == 2) {
+            MSCacheKeyExtractor left = compile(ast.getChild(0), parameterNames, parameterCount);
+            MSCacheKeyExtractor right = compile(ast.getChild(1), parameterNames, parameterCount);
+            return (left != null && right != null ? new Concatenation(left, right) : null);
+        }
+        return null;
+    }
+
+    /**
+     * Resolve a variable to the index of the argument it names, the way
+     * {@link org.springframework.context.expression.MethodBasedEvaluationContext} binds them.
+     * @return the index, or {@code -1} if the variable is not an argument
+     */
+    private static int resolveArgument(String name, String[] parameterNames, int parameterCount) {
+        if (MSCacheOperationExpressionEvaluator.RESULT_VARIABLE.equals(name) ||
+                MSCacheOperationExpressionEvaluator.ELEMENT_VARIABLE.equals(name)) {
+            return -1;
+        }
+        // parameter names are bound last and so take precedence over the indexed names
+        if (parameterNames != null) {
+            for (int i = 0; i < parameterNames.length; i++) {
+                if (name.equals(parameterNames[i])) {
+                    return i;
+                }
+            }
+        }
+        if (INDEXED_ARGUMENT.matcher(name).matches()) {
+            try {
+                int index = Integer.parseInt(name.substring(1));
+                return (index < parameterCount ? index : -1);
+            }
+            catch (NumberFormatException ex) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+
+    private static class Argument extends MSCacheKeyExtractor {
+
+        private final int index;
+
+        Argument(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object extract(Object[] args) {
+            return (this.index < args.length ? args[this.index] : null);
+        }
+    }
+
+
+    private static class Literal extends MSCacheKeyExtractor {
+
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object extract(Object[] args) {
+            return this.value;
+        }
+    }
+
+
+    /**
+     * Reads a property through its public getter, or public field, as SpEL's reflective property accessor would.
+     */
+    private static class Property extends MSCacheKeyExtractor {
+
+        private static final Object NO_ACCESSOR = new Object();
+
+        private final MSCacheKeyExtractor target;
+
+        private final String name;
+
+        private final Map<Class<?>, Object> accessors = new ConcurrentHashMap<Class<?>, Object>(4);
+
+        Property(MSCacheKeyExtractor target, String name) {
+            this.target = target;
+            this.name = name;
+        }
+
+        @Override
+        Object extract(Object[] args) {
+            Object target = this.target.extract(args);
+            if (target == FALLBACK || target == null || target instanceof Map || target instanceof Class) {
+                return FALLBACK;
+            }
+            Object accessor = getAccessor(target.getClass());
+            try {
+                if (accessor instanceof Method) {
+                    return ((Method) accessor).invoke(target);
+                }
+                if (accessor instanceof Field) {
+                    return ((Field) accessor).get(target);
+                }
+            }
+            catch (IllegalAccessException ex) {
+                // let SpEL report it
+            }
+            catch (InvocationTargetException ex) {
+                // let SpEL report it
+            }
+            return FALLBACK;
+        }
+
+        private Object getAccessor(Class<?> type) {
+            Object accessor = this.accessors.get(type);
+            if (accessor == null) {
+                try {
+                    accessor = findAccessor(type);
+                }
+                catch (RuntimeException ex) {
+                    // such as a module not opening the type up for reflection
+                    accessor = NO_ACCESSOR;
+                }
+                this.accessors.put(type, accessor);
+            }
+            return accessor;
+        }
+
+        private Object findAccessor(Class<?> type) {
+            String suffix = StringUtils.capitalize(this.name);
+            Method getter = findGetter(type, "get" + suffix);
+            if (getter == null) {
+                getter = findGetter(type, "is" + suffix);
+                if (getter != null && getter.getReturnType() != boolean.class && getter.getReturnType() != Boolean.class) {
+                    getter = null;
+                }
+            }
+            if (getter != null) {
+                ReflectionUtils.makeAccessible(getter);
+                return getter;
+            }
+            Field field = ReflectionUtils.findField(type, this.name);
+            if (field != null && Modifier.isPublic(field.getModifiers()) && !Modifier.isStatic(field.getModifiers())) {
+                ReflectionUtils.makeAccessible(field);
+                return field;
+            }
+            return NO_ACCESSOR;
+        }
+
+        private static Method findGetter(Class<?> type, String methodName) {
+            Method method = ReflectionUtils.findMethod(type, methodName);
+            if (method == null || !Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers()) ||
+                    method.getReturnType() == void.class) {
+                return null;
+            }
+            return method;
+        }
+    }
+
+
+    /**
+     * Applies the string concatenation of SpEL's {@code +}: as soon as one side is a string, the other side is
+     * converted to one as well. Anything else, such as adding two numbers, is left to SpEL.
+     */
+    private static class Concatenation extends MSCacheKeyExtractor {
+
+        private static final TypeDescriptor STRING = TypeDescriptor.valueOf(String.class);
+
+        private final MSCacheKeyExtractor left;
+
+        private final MSCacheKeyExtractor right;
+
+        Concatenation(MSCacheKeyExtractor left, MSCacheKeyExtractor right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object extract(Object[] args) {
+            Object left = this.left.extract(args);
+            if (left == FALLBACK) {
+                return FALLBACK;
+            }
+            Object right = this.right.extract(args);
+            if (right == FALLBACK) {
+                return FALLBACK;
+            }
+            if (left instanceof String) {
+                return (right instanceof String ? ((String) left).concat((String) right) : left + toString(right));
+            }
+            if (right instanceof String) {
+                return toString(left) + right;
+            }
+            return FALLBACK;
+        }
+
+        private static String toString(Object value) {
+            ConversionService conversionService = DefaultConversionService.getSharedInstance();
+            TypeDescriptor type = TypeDescriptor.forObject(value);
+            if (conversionService.canConvert(type, STRING)) {
+                return String.valueOf(conversionService.convert(value, type, STRING));
+            }
+            return String.valueOf(value);
+        }
+    }
+}
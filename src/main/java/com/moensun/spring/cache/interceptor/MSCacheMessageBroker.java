@@ -0,0 +1,34 @@
+package com.moensun.spring.cache.interceptor;
+
+/**
+ * Channel based publish/subscribe the caches use to tell each other about events such as released load leases,
+ * cache locks and invalidations.
+ *
+ * @see LocalMSCacheMessageBroker
+ * @see RedisMSCacheMessageBroker
+ */
+public interface MSCacheMessageBroker {
+
+    /**
+     * Publish the given message to every listener subscribed to the channel, on this node and,
+     * depending on the implementation, on every other node sharing the same broker.
+     * @param channel the channel name
+     * @param message the raw message body
+     */
+    void publish(String channel, byte[] message);
+
+    /**
+     * Register a listener for the given channel.
+     * @param channel the channel name
+     * @param listener the listener to notify
+     */
+    void subscribe(String channel, MSCacheMessageListener listener);
+
+    /**
+     * Remove a listener registered for the given channel, if present.
+     * @param channel the channel name
+     * @param listener the listener to remove
+     */
+    void unsubscribe(String channel, MSCacheMessageListener listener);
+
+}
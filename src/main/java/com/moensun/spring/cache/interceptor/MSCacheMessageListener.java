@@ -0,0 +1,15 @@
+package com.moensun.spring.cache.interceptor;
+
+/**
+ * Receives the messages published on a {@link MSCacheMessageBroker} channel.
+ */
+public interface MSCacheMessageListener {
+
+    /**
+     * Callback for a message published on a channel this listener is subscribed to.
+     * @param channel the channel the message was published on
+     * @param message the raw message body
+     */
+    void onMessage(String channel, byte[] message);
+
+}
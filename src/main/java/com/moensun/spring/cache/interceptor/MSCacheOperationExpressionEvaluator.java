@@ -1,5 +1,8 @@
 package com.moensun.spring.cache.interceptor;
 
+import com.moensun.spring.cache.operation.MSCacheOperation;
+import com.moensun.spring.cache.operation.MSCachePutOperation;
+import com.moensun.spring.cache.operation.MSCacheableOperation;
 import org.springframework.aop.support.AopUtils;
 import org.springframework.beans.factory.BeanFactory;
 import org.springframework.cache.Cache;
@@ -8,6 +11,14 @@ import org.springframework.context.expression.BeanFactoryResolver;
 import org.springframework.context.expression.CachedExpressionEvaluator;
 import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.Expression;
+import org.springframework.expression.ParseException;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.SpelNode;
+import org.springframework.expression.spel.ast.VariableReference;
+import org.springframework.expression.spel.standard.SpelExpression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.util.StringUtils;
 
 import java.lang.reflect.Method;
 import java.util.Collection;
@@ -38,6 +49,11 @@ public class MSCacheOperationExpressionEvaluator extends CachedExpressionEvaluat
      */
     public static final String RESULT_VARIABLE = "result";
 
+    /**
+     * The name of the variable holding the current element of a bulk operation.
+     */
+    public static final String ELEMENT_VARIABLE = "element";
+
 
     private final Map<ExpressionKey, Expression> keyCache = new ConcurrentHashMap<ExpressionKey, Expression>(64);
 
@@ -47,10 +63,21 @@ public class MSCacheOperationExpressionEvaluator extends CachedExpressionEvaluat
 
     private final Map<ExpressionKey, Expression> unlessCache = new ConcurrentHashMap<ExpressionKey, Expression>(64);
 
+    private final Map<String, Boolean> resultReferenceCache = new ConcurrentHashMap<String, Boolean>(64);
+
     private final Map<AnnotatedElementKey, Method> targetMethodCache =
             new ConcurrentHashMap<AnnotatedElementKey, Method>(64);
 
 
+    /**
+     * Expressions that are not turned into a {@link MSCacheKeyExtractor} are compiled to bytecode once they ran a few
+     * times, falling back to interpretation whenever the compiled form does not fit.
+     */
+    public MSCacheOperationExpressionEvaluator() {
+        super(new SpelExpressionParser(new SpelParserConfiguration(SpelCompilerMode.MIXED, null)));
+    }
+
+
     /**
      * Create an {@link EvaluationContext} without a return value.
      * @see #createEvaluationContext(Collection, Method, Object[], Object, Class, Object, BeanFactory)
@@ -109,6 +136,81 @@ public class MSCacheOperationExpressionEvaluator extends CachedExpressionEvaluat
         return getExpression(this.unlessCache, methodKey, unlessExpression).getValue(evalContext, boolean.class);
     }
 
+    /**
+     * Whether the given expression refers to the {@link #RESULT_VARIABLE result variable}, that is whether its value may
+     * differ before and after the method was invoked.
+     */
+    public boolean referencesResult(String expression) {
+        Boolean references = this.resultReferenceCache.get(expression);
+        if (references == null) {
+            Expression parsed = getParser().parseExpression(expression);
+            // be conservative with anything we cannot look into
+            references = (!(parsed instanceof SpelExpression) ||
+                    referencesVariable(((SpelExpression) parsed).getAST(), "#" + RESULT_VARIABLE));
+            this.resultReferenceCache.put(expression, references);
+        }
+        return references;
+    }
+
+    private static boolean referencesVariable(SpelNode node, String reference) {
+        if (node instanceof VariableReference && reference.equals(node.toStringAST())) {
+            return true;
+        }
+        for (int i = 0; i < node.getChildCount(); i++) {
+            if (referencesVariable(node.getChild(i), reference)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turn a key, or hash key, expression into a {@link MSCacheKeyExtractor} reading it straight off the arguments,
+     * once per method.
+     * @return the extractor, or {@code null} if the expression has to be evaluated by SpEL
+     */
+    MSCacheKeyExtractor compileKeyExtractor(String expression, Method method, Class<?> targetClass) {
+        if (method.isVarArgs()) {
+            return null;
+        }
+        Expression parsed;
+        try {
+            parsed = getParser().parseExpression(expression);
+        }
+        catch (ParseException ex) {
+            // reported once the expression is evaluated
+            return null;
+        }
+        if (!(parsed instanceof SpelExpression)) {
+            return null;
+        }
+        Method targetMethod = getTargetMethod(targetClass, method);
+        return MSCacheKeyExtractor.compile(((SpelExpression) parsed).getAST(),
+                getParameterNameDiscoverer().getParameterNames(targetMethod), targetMethod.getParameterTypes().length);
+    }
+
+    /**
+     * Parse the key, hash key, condition and unless expressions of the given operation ahead of its first invocation.
+     */
+    void parseExpressions(MSCacheOperation operation, AnnotatedElementKey methodKey) {
+        parseExpression(this.keyCache, methodKey, operation.getKey());
+        parseExpression(this.hashKeyCache, methodKey, operation.getHashKey());
+        parseExpression(this.conditionCache, methodKey, operation.getCondition());
+        if (operation instanceof MSCacheableOperation) {
+            parseExpression(this.unlessCache, methodKey, ((MSCacheableOperation) operation).getUnless());
+        }
+        else if (operation instanceof MSCachePutOperation) {
+            parseExpression(this.unlessCache, methodKey, ((MSCachePutOperation) operation).getUnless());
+        }
+    }
+
+    private void parseExpression(Map<ExpressionKey, Expression> cache, AnnotatedElementKey methodKey, String expression) {
+        if (StringUtils.hasText(expression)) {
+            getExpression(cache, methodKey, expression);
+            referencesResult(expression);
+        }
+    }
+
     /**
      * Clear all caches.
      */
@@ -117,6 +219,7 @@ public class MSCacheOperationExpressionEvaluator extends CachedExpressionEvaluat
         this.hashKeyCache.clear();
         this.conditionCache.clear();
         this.unlessCache.clear();
+        this.resultReferenceCache.clear();
         this.targetMethodCache.clear();
     }
 
@@ -0,0 +1,195 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.moensun.spring.cache.MSCache;
+import com.moensun.spring.cache.MSMemoryCache;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache manager handing out {@link MSMemoryCache}s, configured like {@link MSRedisCacheManager} but needing no Redis.
+ */
+public class MSMemoryCacheManager extends AbstractTransactionSupportingMSCacheManager implements DisposableBean {
+
+    private boolean dynamic = true;
+
+    // 0 - never expire
+    private long defaultExpiration = 0;
+    private Map<String, Long> expires = null;
+
+    private Set<String> configuredCacheNames = Collections.emptySet();
+
+    // 0 - only writes reclaim expired entries
+    private long cleanUpInterval = 1000;
+
+    private ScheduledExecutorService cleaner;
+
+    private final boolean cacheNullValues;
+
+    /**
+     * Construct a dynamic {@link MSMemoryCacheManager}, creating caches on first access.
+     */
+    public MSMemoryCacheManager() {
+        this(Collections.<String> emptyList());
+    }
+
+    /**
+     * Construct a static {@link MSMemoryCacheManager}, managing caches for the specified cache names only.
+     *
+     * @param cacheNames
+     */
+    public MSMemoryCacheManager(Collection<String> cacheNames) {
+        this(cacheNames, false);
+    }
+
+    /**
+     * Construct a static {@link MSMemoryCacheManager}, managing caches for the specified cache names only.
+     *
+     * @param cacheNames {@link Collection} of known cache names.
+     * @param cacheNullValues set to {@literal true} to allow caching {@literal null}.
+     */
+    public MSMemoryCacheManager(Collection<String> cacheNames, boolean cacheNullValues) {
+
+        this.cacheNullValues = cacheNullValues;
+        setCacheNames(cacheNames);
+    }
+
+    /**
+     * Specify the set of cache names for this CacheManager's 'static' mode. Calling this with a {@code null} or empty
+     * collection argument resets the mode to 'dynamic', allowing for further creation of caches again.
+     */
+    public void setCacheNames(Collection<String> cacheNames) {
+
+        this.configuredCacheNames = CollectionUtils.isEmpty(cacheNames) ? Collections.<String> emptySet()
+                : new LinkedHashSet<String>(cacheNames);
+        this.dynamic = this.configuredCacheNames.isEmpty();
+    }
+
+    /**
+     * Sets the default expire time (in seconds).
+     *
+     * @param defaultExpireTime time in seconds.
+     */
+    public void setDefaultExpiration(long defaultExpireTime) {
+        this.defaultExpiration = defaultExpireTime;
+    }
+
+    /**
+     * Sets the expire time (in seconds) for cache regions (by key).
+     *
+     * @param expires time in seconds
+     */
+    public void setExpires(Map<String, Long> expires) {
+        this.expires = (expires != null ? new ConcurrentHashMap<String, Long>(expires) : null);
+    }
+
+    /**
+     * Sets the interval at which a background thread reclaims the memory of expired entries of all caches, in
+     * milliseconds. Defaults to 1000; 0 leaves it to writes.
+     *
+     * @param cleanUpInterval time in milliseconds.
+     * @see MSMemoryCache#cleanUp()
+     */
+    public void setCleanUpInterval(long cleanUpInterval) {
+        this.cleanUpInterval = cleanUpInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+
+        super.afterPropertiesSet();
+
+        if (cleanUpInterval > 0 && cleaner == null) {
+            cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ms-cache-memory-cleaner");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            cleaner.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    cleanUp();
+                }
+            }, cleanUpInterval, cleanUpInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void destroy() {
+
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+            cleaner = null;
+        }
+    }
+
+    /**
+     * Reclaim the memory of expired entries of every cache of this manager.
+     */
+    protected void cleanUp() {
+
+        for (String cacheName : getCacheNames()) {
+
+            MSCache cache = lookupCache(cacheName);
+            if (cache instanceof TransactionAwareMSCacheDecorator) {
+                cache = ((TransactionAwareMSCacheDecorator) cache).getTargetCache();
+            }
+            if (cache instanceof MSMemoryCache) {
+                ((MSMemoryCache) cache).cleanUp();
+            }
+        }
+    }
+
+    @Override
+    protected Collection<? extends MSCache> loadCaches() {
+
+        List<MSCache> caches = new ArrayList<MSCache>(configuredCacheNames.size());
+        for (String cacheName : configuredCacheNames) {
+            caches.add(createCache(cacheName));
+        }
+        return caches;
+    }
+
+    @Override
+    protected MSCache getMissingCache(String name) {
+        return this.dynamic ? createCache(name) : null;
+    }
+
+    protected MSMemoryCache createCache(String cacheName) {
+        return new MSMemoryCache(cacheName, computeExpiration(cacheName), cacheNullValues);
+    }
+
+    protected long computeExpiration(String name) {
+        Long expiration = null;
+        if (expires != null) {
+            expiration = expires.get(name);
+        }
+        return (expiration != null ? expiration.longValue() : defaultExpiration);
+    }
+
+    @Override
+    protected MSCache decorateCache(MSCache cache) {
+
+        if (isTransactionAware() && cache instanceof TransactionAwareMSCacheDecorator) {
+            return cache;
+        }
+        return super.decorateCache(cache);
+    }
+}
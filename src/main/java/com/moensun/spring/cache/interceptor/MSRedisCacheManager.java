@@ -4,11 +4,13 @@ import com.moensun.spring.cache.MSCache;
 import com.moensun.spring.cache.MSRedisCache;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cache.Cache;
 import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.cache.DefaultRedisCachePrefix;
 import org.springframework.data.redis.cache.RedisCachePrefix;
 import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisAccessor;
 import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.serializer.RedisSerializer;
@@ -16,7 +18,16 @@ import org.springframework.util.Assert;
 import org.springframework.util.CollectionUtils;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Bane.Shi.
@@ -25,7 +36,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * Date: 2018/7/18
  * Time: 下午6:26
  */
-public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheManager {
+public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheManager implements DisposableBean {
 
     private final Log logger = LogFactory.getLog(MSRedisCacheManager.class);
 
@@ -43,6 +54,44 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
 
     private Set<String> configuredCacheNames;
 
+    private MSCacheMessageBroker messageBroker;
+
+    private RedisMSCacheMessageBroker defaultRemoteBroker;
+
+    private Long loadLeaseTimeout;
+
+    private Long lockProbeInterval;
+
+    private Long clearLockTimeout;
+
+    private Integer clearBatchSize;
+
+    private Long clearBatchPause;
+
+    private boolean useGenerations = false;
+
+    private Integer knownKeysShards;
+
+    private Integer nearCacheMaxEntries;
+
+    private Long nearCacheMaxBytes;
+
+    private Long nearCacheOffHeapBytes;
+
+    private Long autoPipelineWindow;
+
+    private Integer autoPipelineMaxBatch;
+
+    // 0 - never reap
+    private long knownKeysReapInterval = 60000;
+
+    private ScheduledExecutorService knownKeysReaper;
+
+    private int remoteCachesConcurrency = 4;
+
+    // 0 - no limit
+    private long remoteCachesTimeout = 0;
+
     private final boolean cacheNullValues;
 
     /**
@@ -133,9 +182,272 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
         this.expires = (expires != null ? new ConcurrentHashMap<String, Long>(expires) : null);
     }
 
+    /**
+     * Sets the {@link MSCacheMessageBroker} caches use to notify each other, e.g. when a value has been loaded. Defaults
+     * to a {@link LocalMSCacheMessageBroker}, or, when an in-process tier is configured, to a
+     * {@link RedisMSCacheMessageBroker} on the connection factory of the template shared by all caches.
+     *
+     * @param messageBroker must not be {@literal null}.
+     */
+    public void setMessageBroker(MSCacheMessageBroker messageBroker) {
+        Assert.notNull(messageBroker, "MessageBroker must not be null!");
+        this.messageBroker = messageBroker;
+    }
+
+    /**
+     * Sets how long a node may hold the load lease of a single key (in milliseconds) while loading it through
+     * {@link MSCache#get(Object, java.util.concurrent.Callable)}.
+     *
+     * @param loadLeaseTimeout time in milliseconds.
+     */
+    public void setLoadLeaseTimeout(long loadLeaseTimeout) {
+        this.loadLeaseTimeout = loadLeaseTimeout;
+    }
+
+    /**
+     * Sets how old a cache's view of its {@code clear()} lock may get before a write refreshes it from Redis, in
+     * milliseconds. Defaults to 500.
+     *
+     * @param lockProbeInterval time in milliseconds.
+     * @see MSRedisCache#setLockProbeInterval(long)
+     */
+    public void setLockProbeInterval(long lockProbeInterval) {
+        this.lockProbeInterval = lockProbeInterval;
+    }
+
+    /**
+     * Sets the time to live of the lock a cache holds while it is cleared, in milliseconds. Defaults to 10000.
+     *
+     * @param clearLockTimeout time in milliseconds.
+     * @see MSRedisCache#setClearLockTimeout(long)
+     */
+    public void setClearLockTimeout(long clearLockTimeout) {
+        this.clearLockTimeout = clearLockTimeout;
+    }
+
+    /**
+     * Sets how many keys a cache deletes per command while it is cleared. Defaults to 1000.
+     *
+     * @param clearBatchSize must be positive.
+     * @see MSRedisCache#setClearBatchSize(int)
+     */
+    public void setClearBatchSize(int clearBatchSize) {
+        this.clearBatchSize = clearBatchSize;
+    }
+
+    /**
+     * Sets the pause a prefixed cache takes after each batch of keys deleted while it is cleared, in milliseconds.
+     * Defaults to 0.
+     *
+     * @param clearBatchPause time in milliseconds.
+     * @see MSRedisCache#setClearBatchPause(long)
+     */
+    public void setClearBatchPause(long clearBatchPause) {
+        this.clearBatchPause = clearBatchPause;
+    }
+
+    /**
+     * Sets the maximum number of entries of the in-process tier each cache keeps in front of Redis, expiring after the
+     * expiration of the cache. Defaults to 0, which disables the tier. Writes invalidate it on all nodes through the
+     * {@link #setMessageBroker(MSCacheMessageBroker) message broker}, Redis pub/sub unless set otherwise.
+     *
+     * @param nearCacheMaxEntries must not be negative.
+     * @see MSRedisCache#setNearCacheMaxEntries(int)
+     */
+    public void setNearCacheMaxEntries(int nearCacheMaxEntries) {
+        this.nearCacheMaxEntries = nearCacheMaxEntries;
+    }
+
+    /**
+     * Sets the maximum summed size, in bytes, of the serialized values held by the in-process tier of each cache.
+     * Defaults to 0, no limit.
+     *
+     * @param nearCacheMaxBytes must not be negative.
+     * @see MSRedisCache#setNearCacheMaxBytes(long)
+     */
+    public void setNearCacheMaxBytes(long nearCacheMaxBytes) {
+        this.nearCacheMaxBytes = nearCacheMaxBytes;
+    }
+
+    /**
+     * Sets the off-heap memory, in bytes, of each cache's in-process tier, keeping serialized values in direct buffers
+     * instead of objects on the heap. Defaults to 0, an on-heap tier.
+     *
+     * @param nearCacheOffHeapBytes must not be negative.
+     * @see MSRedisCache#setNearCacheOffHeapBytes(long)
+     */
+    public void setNearCacheOffHeapBytes(long nearCacheOffHeapBytes) {
+        this.nearCacheOffHeapBytes = nearCacheOffHeapBytes;
+    }
+
+    /**
+     * Sets the window (in microseconds) during which caches collect concurrent reads into one round trip. Defaults to
+     * 0, sending every read on its own.
+     *
+     * @param autoPipelineWindow time in microseconds, must not be negative.
+     * @see MSRedisCache#setAutoPipelineWindow(long)
+     */
+    public void setAutoPipelineWindow(long autoPipelineWindow) {
+        this.autoPipelineWindow = autoPipelineWindow;
+    }
+
+    /**
+     * Sets the number of reads after which caches send an auto-pipelined batch early. Defaults to 128.
+     *
+     * @param autoPipelineMaxBatch must be positive.
+     * @see MSRedisCache#setAutoPipelineMaxBatch(int)
+     */
+    public void setAutoPipelineMaxBatch(int autoPipelineMaxBatch) {
+        this.autoPipelineMaxBatch = autoPipelineMaxBatch;
+    }
+
+    /**
+     * Sets whether caches version their keys by a generation counter, turning {@code clear()} into a single increment
+     * of that counter. Defaults to {@literal false}.
+     *
+     * @param useGenerations whether to version keys by generation.
+     * @see MSRedisCache#setUseGenerations(boolean)
+     */
+    public void setUseGenerations(boolean useGenerations) {
+        this.useGenerations = useGenerations;
+    }
+
+    /**
+     * Sets the number of shards the known keys index of caches without prefix is spread across. Defaults to 1. Must
+     * not be changed while caches hold entries.
+     *
+     * @param knownKeysShards must be positive.
+     * @see MSRedisCache#setKnownKeysShards(int)
+     */
+    public void setKnownKeysShards(int knownKeysShards) {
+        this.knownKeysShards = knownKeysShards;
+    }
+
+    /**
+     * Sets how often the keys of expired entries are dropped from the known keys index of caches without prefix, in
+     * milliseconds. Defaults to 60000, 0 disables reaping.
+     *
+     * @param knownKeysReapInterval time in milliseconds.
+     */
+    public void setKnownKeysReapInterval(long knownKeysReapInterval) {
+        this.knownKeysReapInterval = knownKeysReapInterval;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+
+        super.afterPropertiesSet();
+
+        if (knownKeysReapInterval > 0 && knownKeysReaper == null) {
+            knownKeysReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ms-cache-known-keys-reaper");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            knownKeysReaper.scheduleWithFixedDelay(new Runnable() {
+
+                @Override
+                public void run() {
+                    reapKnownKeys();
+                }
+            }, knownKeysReapInterval, knownKeysReapInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @return the broker set, or the default one, created on first use.
+     */
+    protected synchronized MSCacheMessageBroker getMessageBroker() {
+
+        if (messageBroker != null) {
+            return messageBroker;
+        }
+
+        boolean localTier = (nearCacheMaxEntries != null && nearCacheMaxEntries > 0)
+                || (nearCacheOffHeapBytes != null && nearCacheOffHeapBytes > 0);
+        if (!localTier) {
+            messageBroker = new LocalMSCacheMessageBroker();
+            return messageBroker;
+        }
+
+        // the local broker would never deliver the writes and clears of other nodes to the in-process tiers
+        if (!(redisOperations instanceof RedisAccessor)
+                || ((RedisAccessor) redisOperations).getConnectionFactory() == null) {
+            throw new IllegalStateException("An in-process tier needs a message broker reaching all nodes; "
+                    + "set one through setMessageBroker.");
+        }
+        defaultRemoteBroker = new RedisMSCacheMessageBroker(((RedisAccessor) redisOperations).getConnectionFactory());
+        defaultRemoteBroker.afterPropertiesSet();
+        messageBroker = defaultRemoteBroker;
+        return messageBroker;
+    }
+
+    @Override
+    public void destroy() {
+
+        if (knownKeysReaper != null) {
+            knownKeysReaper.shutdownNow();
+            knownKeysReaper = null;
+        }
+
+        for (String cacheName : getCacheNames()) {
+
+            MSCache cache = lookupCache(cacheName);
+            if (cache instanceof TransactionAwareMSCacheDecorator) {
+                cache = ((TransactionAwareMSCacheDecorator) cache).getTargetCache();
+            }
+            if (cache instanceof MSRedisCache) {
+                ((MSRedisCache) cache).destroy();
+            }
+        }
+
+        if (defaultRemoteBroker != null) {
+            try {
+                defaultRemoteBroker.destroy();
+            } catch (Exception ex) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Failed to stop the default message broker", ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drop the keys of expired entries from the known keys index of every cache of this manager.
+     */
+    protected void reapKnownKeys() {
+
+        for (String cacheName : getCacheNames()) {
+
+            MSCache cache = lookupCache(cacheName);
+            if (cache instanceof TransactionAwareMSCacheDecorator) {
+                cache = ((TransactionAwareMSCacheDecorator) cache).getTargetCache();
+            }
+            if (!(cache instanceof MSRedisCache)) {
+                continue;
+            }
+
+            try {
+                long reaped = ((MSRedisCache) cache).reapKnownKeys();
+                if (reaped > 0 && logger.isDebugEnabled()) {
+                    logger.debug("Dropped " + reaped + " expired keys from the known keys of cache '" + cacheName + "'");
+                }
+            } catch (RuntimeException ex) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("Failed to drop expired keys from the known keys of cache '" + cacheName + "'", ex);
+                }
+            }
+        }
+    }
+
     /**
      * If set to {@code true} {@link MSRedisCacheManager} will try to retrieve cache names from redis server using
-     * {@literal KEYS} command and initialize {@link MSCache} for each of them.
+     * {@literal SCAN} (on all masters in parallel on cluster, never {@literal KEYS}) and initialize {@link MSCache} for
+     * each of them.
      *
      * @param loadRemoteCachesOnStartup
      * @since 1.2
@@ -144,6 +456,26 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
         this.loadRemoteCachesOnStartup = loadRemoteCachesOnStartup;
     }
 
+    /**
+     * Sets how many remote caches are initialized concurrently on startup. Defaults to 4.
+     *
+     * @param remoteCachesConcurrency must be positive.
+     */
+    public void setRemoteCachesConcurrency(int remoteCachesConcurrency) {
+        Assert.isTrue(remoteCachesConcurrency > 0, "RemoteCachesConcurrency must be positive!");
+        this.remoteCachesConcurrency = remoteCachesConcurrency;
+    }
+
+    /**
+     * Sets how long loading remote caches may delay startup, in milliseconds. Caches not found or initialized by then
+     * are created on first use instead. Defaults to 0, waiting as long as it takes.
+     *
+     * @param remoteCachesTimeout time in milliseconds.
+     */
+    public void setRemoteCachesTimeout(long remoteCachesTimeout) {
+        this.remoteCachesTimeout = remoteCachesTimeout;
+    }
+
     /*
      * (non-Javadoc)
      * @see org.springframework.cache.support.AbstractCacheManager#loadCaches()
@@ -228,8 +560,44 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
     @SuppressWarnings("unchecked")
     protected MSRedisCache createCache(String cacheName) {
         long expiration = computeExpiration(cacheName);
-        return new MSRedisCache(cacheName, (usePrefix ? cachePrefix.prefix(cacheName) : null), redisOperations, expiration,
-                cacheNullValues);
+        MSRedisCache cache = new MSRedisCache(cacheName, (usePrefix ? cachePrefix.prefix(cacheName) : null),
+                redisOperations, expiration, cacheNullValues);
+        cache.setMessageBroker(getMessageBroker());
+        cache.setUseGenerations(useGenerations);
+        if (knownKeysShards != null) {
+            cache.setKnownKeysShards(knownKeysShards);
+        }
+        if (loadLeaseTimeout != null) {
+            cache.setLoadLeaseTimeout(loadLeaseTimeout);
+        }
+        if (lockProbeInterval != null) {
+            cache.setLockProbeInterval(lockProbeInterval);
+        }
+        if (clearLockTimeout != null) {
+            cache.setClearLockTimeout(clearLockTimeout);
+        }
+        if (clearBatchSize != null) {
+            cache.setClearBatchSize(clearBatchSize);
+        }
+        if (clearBatchPause != null) {
+            cache.setClearBatchPause(clearBatchPause);
+        }
+        if (nearCacheMaxBytes != null) {
+            cache.setNearCacheMaxBytes(nearCacheMaxBytes);
+        }
+        if (nearCacheMaxEntries != null) {
+            cache.setNearCacheMaxEntries(nearCacheMaxEntries);
+        }
+        if (nearCacheOffHeapBytes != null) {
+            cache.setNearCacheOffHeapBytes(nearCacheOffHeapBytes);
+        }
+        if (autoPipelineMaxBatch != null) {
+            cache.setAutoPipelineMaxBatch(autoPipelineMaxBatch);
+        }
+        if (autoPipelineWindow != null) {
+            cache.setAutoPipelineWindow(autoPipelineWindow);
+        }
+        return cache;
     }
 
     protected long computeExpiration(String name) {
@@ -243,25 +611,72 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
     protected List<MSCache> loadAndInitRemoteCaches() {
 
         List<MSCache> caches = new ArrayList<MSCache>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(remoteCachesTimeout);
+
+        ExecutorService executor = Executors.newFixedThreadPool(remoteCachesConcurrency, new ThreadFactory() {
 
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ms-cache-remote-caches");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
         try {
-            Set<String> cacheNames = loadRemoteCacheKeys();
+            Set<String> cacheNames = awaitRemoteCaches(executor.submit(new Callable<Set<String>>() {
+
+                @Override
+                public Set<String> call() {
+                    return loadRemoteCacheKeys();
+                }
+            }), deadline);
+
             if (!CollectionUtils.isEmpty(cacheNames)) {
-                for (String cacheName : cacheNames) {
-                    if (null == super.getCache(cacheName)) {
-                        caches.add(createCache(cacheName));
+
+                List<Future<MSRedisCache>> creations = new ArrayList<Future<MSRedisCache>>(cacheNames.size());
+                for (final String cacheName : cacheNames) {
+                    if (null == lookupCache(cacheName)) {
+                        creations.add(executor.submit(new Callable<MSRedisCache>() {
+
+                            @Override
+                            public MSRedisCache call() {
+                                return createCache(cacheName);
+                            }
+                        }));
                     }
                 }
+                for (Future<MSRedisCache> creation : creations) {
+                    caches.add(awaitRemoteCaches(creation, deadline));
+                }
+            }
+        } catch (TimeoutException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Loading remote caches took longer than " + remoteCachesTimeout + "ms, initialized "
+                        + caches.size() + " of them; the others will be created on first use.");
             }
         } catch (Exception e) {
             if (logger.isWarnEnabled()) {
                 logger.warn("Failed to initialize cache with remote cache keys.", e);
             }
+        } finally {
+            executor.shutdownNow();
         }
 
         return caches;
     }
 
+    private <T> T awaitRemoteCaches(Future<T> future, long deadline) throws Exception {
+
+        try {
+            if (remoteCachesTimeout <= 0) {
+                return future.get();
+            }
+            return future.get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
     @SuppressWarnings("unchecked")
     protected Set<String> loadRemoteCacheKeys() {
         return (Set<String>) redisOperations.execute(new RedisCallback<Set<String>>() {
@@ -269,21 +684,51 @@ public class MSRedisCacheManager extends AbstractTransactionSupportingMSCacheMan
             @Override
             public Set<String> doInRedis(RedisConnection connection) throws DataAccessException {
 
-                // we are using the ~keys postfix as defined in MSCache#setName
-                Set<byte[]> keys = connection.keys(redisOperations.getKeySerializer().serialize("*~keys"));
-                Set<String> cacheKeys = new LinkedHashSet<String>();
+                // we are using the ~keys postfix as defined in MSCache#setName, shards of the index add ~<shard>
+                final Set<String> cacheKeys = Collections.synchronizedSet(new LinkedHashSet<String>());
+
+                new RedisKeyScanner("*~keys*", 1000).scan(connection, new RedisKeyScanner.KeyBatchHandler() {
+
+                    @Override
+                    public void handle(RedisConnection connection, List<byte[]> keys) {
 
-                if (!CollectionUtils.isEmpty(keys)) {
-                    for (byte[] key : keys) {
-                        cacheKeys.add(redisOperations.getKeySerializer().deserialize(key).toString().replace("~keys", ""));
+                        for (byte[] key : keys) {
+                            String cacheName = toCacheName(redisOperations.getKeySerializer().deserialize(key).toString());
+                            if (cacheName != null) {
+                                cacheKeys.add(cacheName);
+                            }
+                        }
                     }
-                }
+                });
 
                 return cacheKeys;
             }
         });
     }
 
+    /**
+     * @return the name of the cache the given known keys index (shard) belongs to, {@literal null} if the key is no such
+     *         index.
+     */
+    private static String toCacheName(String knownKeysKey) {
+
+        if (knownKeysKey.endsWith("~keys")) {
+            return knownKeysKey.substring(0, knownKeysKey.length() - "~keys".length());
+        }
+
+        int shard = knownKeysKey.lastIndexOf("~keys~");
+        if (shard > 0) {
+            String suffix = knownKeysKey.substring(shard + "~keys~".length());
+            for (int i = 0; i < suffix.length(); i++) {
+                if (!Character.isDigit(suffix.charAt(i))) {
+                    return null;
+                }
+            }
+            return suffix.isEmpty() ? null : knownKeysKey.substring(0, shard);
+        }
+        return null;
+    }
+
     @SuppressWarnings("rawtypes")
     protected RedisOperations getRedisOperations() {
         return redisOperations;
@@ -0,0 +1,640 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.springframework.util.Assert;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded in-process tier in front of a remote cache, holding deserialized store values by their binary key and, for
+ * hash fields, binary hash key. Entries are capped by count and by the summed size of their serialized form and expire
+ * after the time to live given when they are added.
+ * <p>Eviction follows W-TinyLFU: new entries enter a small LRU admission window, entries leaving the window compete
+ * against the LRU victim of a segmented main region (probation and protected) and are only admitted when a count-min
+ * sketch of recent access frequencies, halved periodically so it follows changing workloads, rates them higher. One-off
+ * scans thus pass through the window without displacing hot entries. Reads are served from a concurrent map and record
+ * the access in striped, lossy ring buffers; the access order and sketch are only updated when a buffer is drained
+ * under the eviction lock, which reads merely try to acquire.
+ * <p>Values read from the remote cache race with invalidations of the same key: a reader takes
+ * {@link #getEpoch()} before going remote and hands it to {@link #put(Key, Object, int, long, long)}, which drops the
+ * value if any invalidation happened in between.
+ */
+public class NearCache {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+    private static final int RETIRED = 3;
+
+    private static final int READ_BUFFERS = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+
+    private final int maximumEntries;
+    private final long maximumWeight;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+
+    private final ConcurrentHashMap<Key, Node> data = new ConcurrentHashMap<Key, Node>();
+
+    private final ReadBuffer[] readBuffers = new ReadBuffer[READ_BUFFERS];
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    // guarded by evictionLock
+    private final AccessOrder window = new AccessOrder();
+    private final AccessOrder probation = new AccessOrder();
+    private final AccessOrder protectedRegion = new AccessOrder();
+    private final FrequencySketch sketch;
+    private int entryCount;
+    private int windowCount;
+    private int protectedCount;
+
+    private volatile long weight;
+
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maximumEntries the maximum number of entries, must be positive.
+     * @param maximumWeight the maximum summed size of the serialized values in bytes, {@literal 0} for no limit.
+     */
+    public NearCache(int maximumEntries, long maximumWeight) {
+
+        Assert.isTrue(maximumEntries > 0, "MaximumEntries must be positive!");
+        Assert.isTrue(maximumWeight >= 0, "MaximumWeight must not be negative!");
+        this.maximumEntries = maximumEntries;
+        this.maximumWeight = maximumWeight == 0 ? Long.MAX_VALUE : maximumWeight;
+        this.windowMaximum = Math.max(1, maximumEntries / 100);
+        this.protectedMaximum = (int) ((maximumEntries - windowMaximum) * 8L / 10);
+        this.sketch = new FrequencySketch(maximumEntries);
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer();
+        }
+    }
+
+    /**
+     * @param key must not be {@literal null}.
+     * @return the store value, {@literal null} if there is no live entry for the key.
+     */
+    public Object get(Key key) {
+
+        Node node = data.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (node.isExpired(System.nanoTime())) {
+            misses.increment();
+            if (evictionLock.tryLock()) {
+                try {
+                    if (data.remove(key, node)) {
+                        retire(node);
+                    }
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            return null;
+        }
+
+        hits.increment();
+        Object value = node.value;
+        if (!readBuffers[probe()].offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the current invalidation epoch, to be passed to {@link #put(Key, Object, int, long, long)}.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Add a value read from the remote cache, unless the key has been invalidated since the given epoch was taken.
+     * Whether a new entry is kept is up to the admission policy.
+     *
+     * @param key must not be {@literal null}.
+     * @param value the store value, must not be {@literal null}.
+     * @param size the size of the serialized value in bytes.
+     * @param timeToLive time in milliseconds, {@literal 0} to never expire.
+     * @param readEpoch the epoch taken before the value was read.
+     */
+    public void put(Key key, Object value, int size, long timeToLive, long readEpoch) {
+
+        long entryWeight = (long) size + key.size();
+        if (entryWeight > maximumWeight || epoch.get() != readEpoch) {
+            return;
+        }
+
+        long expiresAt = timeToLive > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive) : 0;
+
+        evictionLock.lock();
+        try {
+            // invalidations bump the epoch before taking the lock, so a change seen here means the value is stale and
+            // no change means any pending invalidation removes the entry after us
+            if (epoch.get() != readEpoch) {
+                return;
+            }
+
+            drainReadBuffers();
+
+            Node node = data.get(key);
+            if (node != null) {
+                node.value = value;
+                node.expiresAt = expiresAt;
+                weight += entryWeight - node.weight;
+                node.weight = entryWeight;
+                onAccess(node);
+            } else {
+                node = new Node(key, value, entryWeight, expiresAt);
+                data.put(key, node);
+                node.region = WINDOW;
+                window.linkLast(node);
+                windowCount++;
+                entryCount++;
+                weight += entryWeight;
+                sketch.increment(key.hashCode());
+            }
+
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remove the entry of the given key, if any.
+     *
+     * @param key must not be {@literal null}.
+     */
+    public void invalidate(Key key) {
+
+        epoch.incrementAndGet();
+        evictionLock.lock();
+        try {
+            Node node = data.remove(key);
+            if (node != null) {
+                retire(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void invalidateAll() {
+
+        epoch.incrementAndGet();
+        evictionLock.lock();
+        try {
+            for (Node node : data.values()) {
+                node.region = RETIRED;
+            }
+            data.clear();
+            window.clear();
+            probation.clear();
+            protectedRegion.clear();
+            entryCount = 0;
+            windowCount = 0;
+            protectedCount = 0;
+            weight = 0;
+            drainReadBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the summed size of the keys and serialized values held, in bytes.
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private void drainReadBuffers() {
+
+        for (ReadBuffer buffer : readBuffers) {
+            buffer.drainTo(this);
+        }
+    }
+
+    /**
+     * Replay a read: bump the frequency of the key and move the entry to the most recently used end of its region,
+     * promoting it from probation to protected.
+     */
+    private void onAccess(Node node) {
+
+        if (node.region == RETIRED) {
+            return;
+        }
+
+        sketch.increment(node.key.hashCode());
+
+        if (node.region == WINDOW) {
+            window.moveToLast(node);
+        } else if (node.region == PROTECTED) {
+            protectedRegion.moveToLast(node);
+        } else {
+            probation.unlink(node);
+            node.region = PROTECTED;
+            protectedRegion.linkLast(node);
+            protectedCount++;
+
+            while (protectedCount > protectedMaximum) {
+                Node demoted = protectedRegion.first;
+                protectedRegion.unlink(demoted);
+                demoted.region = PROBATION;
+                probation.linkLast(demoted);
+                protectedCount--;
+            }
+        }
+    }
+
+    /**
+     * Move the entries overflowing the window to probation, then evict until the cache is within its bounds, each
+     * candidate from the window competing against the probation victim on its estimated frequency.
+     */
+    private void evict() {
+
+        Node candidate = null;
+        while (windowCount > windowMaximum) {
+            Node node = window.first;
+            window.unlink(node);
+            node.region = PROBATION;
+            probation.linkLast(node);
+            windowCount--;
+            if (candidate == null) {
+                candidate = node;
+            }
+        }
+
+        while (entryCount > maximumEntries || weight > maximumWeight) {
+
+            if (candidate == null) {
+                Node victim = probation.first != null ? probation.first
+                        : protectedRegion.first != null ? protectedRegion.first : window.first;
+                if (victim == null) {
+                    return;
+                }
+                evict(victim);
+                continue;
+            }
+
+            Node victim = probation.first;
+            if (victim == candidate) {
+                // probation holds nothing but fresh candidates, let them compete with the protected region
+                victim = protectedRegion.first;
+            }
+
+            Node next = candidate.next;
+            if (victim == null || sketch.frequency(candidate.key.hashCode()) <= sketch.frequency(victim.key.hashCode())) {
+                evict(candidate);
+                candidate = next;
+            } else {
+                evict(victim);
+                candidate = next;
+            }
+        }
+    }
+
+    private void evict(Node node) {
+
+        if (data.remove(node.key, node)) {
+            retire(node);
+            evictions.increment();
+        }
+    }
+
+    private void retire(Node node) {
+
+        if (node.region == WINDOW) {
+            window.unlink(node);
+            windowCount--;
+        } else if (node.region == PROBATION) {
+            probation.unlink(node);
+        } else if (node.region == PROTECTED) {
+            protectedRegion.unlink(node);
+            protectedCount--;
+        } else {
+            return;
+        }
+        node.region = RETIRED;
+        entryCount--;
+        weight -= node.weight;
+    }
+
+    private static int probe() {
+
+        long id = Thread.currentThread().getId();
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (READ_BUFFERS - 1);
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * @param keyBytes the binary key, must not be {@literal null}.
+     * @param hashKeyBytes the binary hash key for hash fields, can be {@literal null}.
+     * @return never {@literal null}.
+     */
+    public static Key key(byte[] keyBytes, byte[] hashKeyBytes) {
+        return new Key(keyBytes, hashKeyBytes);
+    }
+
+    /**
+     * Binary key of an entry: the key of the remote entry plus, for hash fields, the hash key.
+     */
+    public static final class Key {
+
+        private final byte[] keyBytes;
+        private final byte[] hashKeyBytes;
+        private final int hash;
+
+        private Key(byte[] keyBytes, byte[] hashKeyBytes) {
+
+            Assert.notNull(keyBytes, "KeyBytes must not be null!");
+            this.keyBytes = keyBytes;
+            this.hashKeyBytes = hashKeyBytes;
+            this.hash = 31 * Arrays.hashCode(keyBytes) + Arrays.hashCode(hashKeyBytes);
+        }
+
+        public byte[] getKeyBytes() {
+            return keyBytes;
+        }
+
+        /**
+         * @return {@literal null} unless the key denotes a hash field.
+         */
+        public byte[] getHashKeyBytes() {
+            return hashKeyBytes;
+        }
+
+        int size() {
+            return keyBytes.length + (hashKeyBytes != null ? hashKeyBytes.length : 0);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key) other;
+            return hash == that.hash && Arrays.equals(keyBytes, that.keyBytes)
+                    && Arrays.equals(hashKeyBytes, that.hashKeyBytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Node {
+
+        private final Key key;
+        private volatile Object value;
+        private volatile long expiresAt;
+
+        // guarded by evictionLock
+        private long weight;
+        private int region;
+        private Node previous;
+        private Node next;
+
+        private Node(Key key, Object value, long weight, long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired(long now) {
+            long expiresAt = this.expiresAt;
+            return expiresAt != 0 && now - expiresAt >= 0;
+        }
+    }
+
+    /**
+     * Doubly linked list of the entries of one region, least recently used first.
+     */
+    private static final class AccessOrder {
+
+        private Node first;
+        private Node last;
+
+        private void linkLast(Node node) {
+
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        private void unlink(Node node) {
+
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        private void moveToLast(Node node) {
+
+            if (node != last) {
+                unlink(node);
+                linkLast(node);
+            }
+        }
+
+        private void clear() {
+            first = null;
+            last = null;
+        }
+    }
+
+    /**
+     * Lossy ring buffer of reads awaiting replay. Readers claim a slot without locking and drop the record when the
+     * buffer is full or the slot is contended; only the holder of the eviction lock drains it.
+     */
+    private static final class ReadBuffer {
+
+        private static final int SIZE = 16;
+        private static final int MASK = SIZE - 1;
+
+        private final AtomicReferenceArray<Node> slots = new AtomicReferenceArray<Node>(SIZE);
+        private final AtomicLong writeCounter = new AtomicLong();
+        private volatile long readCounter;
+
+        /**
+         * @return {@literal false} if the buffer is full and should be drained.
+         */
+        private boolean offer(Node node) {
+
+            long head = readCounter;
+            long tail = writeCounter.get();
+            if (tail - head >= SIZE) {
+                return false;
+            }
+            if (writeCounter.compareAndSet(tail, tail + 1)) {
+                slots.lazySet((int) (tail & MASK), node);
+            }
+            return true;
+        }
+
+        private void drainTo(NearCache cache) {
+
+            long head = readCounter;
+            long tail = writeCounter.get();
+            for (; head < tail; head++) {
+                int index = (int) (head & MASK);
+                Node node = slots.get(index);
+                if (node == null) {
+                    // claimed but not yet published, picked up by the next drain
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            readCounter = head;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters, four per key, estimating how often keys were accessed recently. Once the
+     * number of increments reaches ten times the capacity all counters are halved, aging out past popularity.
+     */
+    private static final class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L};
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final long ONE_MASK = 0x1111111111111111L;
+        private static final int MAXIMUM_TABLE_SIZE = 1 << 22;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int size;
+
+        private FrequencySketch(int capacity) {
+
+            int tableSize = ceilingPowerOfTwo(Math.max(8, Math.min(capacity, MAXIMUM_TABLE_SIZE)));
+            this.table = new long[tableSize];
+            this.tableMask = tableSize - 1;
+            this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+        }
+
+        private int frequency(int hashCode) {
+
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++) {
+                int index = indexOf(hash, i);
+                int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+                frequency = Math.min(frequency, count);
+            }
+            return frequency;
+        }
+
+        private void increment(int hashCode) {
+
+            int hash = spread(hashCode);
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                added |= incrementAt(indexOf(hash, i), start + i);
+            }
+            if (added && ++size >= sampleSize) {
+                reset();
+            }
+        }
+
+        private boolean incrementAt(int index, int counter) {
+
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        private void reset() {
+
+            int odd = 0;
+            for (int i = 0; i < table.length; i++) {
+                odd += Long.bitCount(table[i] & ONE_MASK);
+                table[i] = (table[i] >>> 1) & RESET_MASK;
+            }
+            size = (size >>> 1) - (odd >>> 2);
+        }
+
+        private int indexOf(int hash, int i) {
+
+            long index = (hash + SEEDS[i]) * SEEDS[i];
+            index += index >>> 32;
+            return ((int) index) & tableMask;
+        }
+
+        private static int spread(int hash) {
+
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
+        }
+    }
+}
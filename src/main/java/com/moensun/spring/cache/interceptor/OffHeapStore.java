@@ -0,0 +1,477 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.springframework.util.Assert;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process tier keeping serialized values outside the Java heap, so large local caches neither grow the old
+ * generation nor lengthen collections. Records (key, hash key, value and expiry) are appended to fixed-size direct
+ * buffer slabs and located through an open-addressing index of primitive longs, each packing the hash of the key with
+ * the slab and offset of its record. When a segment runs out of slabs its oldest slab is recycled, dropping the records
+ * still live in it, which makes eviction first in, first out. Values are copied back onto the heap on read and are
+ * deserialized by the caller.
+ * <p>The store is split into independently locked segments by key hash. Invalidations follow the same epoch protocol as
+ * {@link NearCache}: a value read remotely is only added if no invalidation happened since {@link #getEpoch()} was
+ * taken.
+ */
+public class OffHeapStore {
+
+    /**
+     * Largest slab, bounded by the 24 bits of a record offset within the index.
+     */
+    public static final int MAXIMUM_SLAB_SIZE = 1 << 24;
+
+    private static final int MINIMUM_SLAB_SIZE = 1 << 12;
+
+    private static final int MAXIMUM_SLABS_PER_SEGMENT = 255;
+
+    // hash, key length, hash key length (-1 if none), value length, expiry in nanos (0 if none)
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 4 + 8;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+    private final long capacity;
+    private final int slabSize;
+
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param capacity the off-heap memory to use in bytes, allocated slab by slab as needed, must be positive.
+     */
+    public OffHeapStore(long capacity) {
+
+        Assert.isTrue(capacity > 0, "Capacity must be positive!");
+
+        int segmentCount = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()));
+        while (segmentCount > 1 && capacity / segmentCount < 2L * MINIMUM_SLAB_SIZE) {
+            segmentCount >>>= 1;
+        }
+
+        long segmentCapacity = capacity / segmentCount;
+        Assert.isTrue(segmentCapacity <= (long) MAXIMUM_SLABS_PER_SEGMENT * MAXIMUM_SLAB_SIZE,
+                "Capacity must not exceed " + (long) MAXIMUM_SLABS_PER_SEGMENT * MAXIMUM_SLAB_SIZE * segmentCount
+                        + " bytes!");
+        int slabSize = (int) Math.max(MINIMUM_SLAB_SIZE, Math.min(MAXIMUM_SLAB_SIZE, segmentCapacity / 8));
+        int slabCount = (int) Math.max(2, segmentCapacity / slabSize);
+
+        this.segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(slabCount, slabSize);
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(segmentCount);
+        this.capacity = (long) slabCount * slabSize * segmentCount;
+        this.slabSize = slabSize;
+    }
+
+    /**
+     * @param key must not be {@literal null}.
+     * @return a copy of the serialized value, {@literal null} if there is no live entry for the key.
+     */
+    public byte[] get(NearCache.Key key) {
+
+        int hash = key.hashCode();
+        byte[] value = segmentFor(hash).get(key, hash);
+        if (value == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * @return the current invalidation epoch, to be passed to {@link #put(NearCache.Key, byte[], long, long)}.
+     */
+    public long getEpoch() {
+        return epoch.get();
+    }
+
+    /**
+     * Add a serialized value read from the remote cache, unless the key has been invalidated since the given epoch was
+     * taken. Records larger than a slab are not kept.
+     *
+     * @param key must not be {@literal null}.
+     * @param value the serialized value, must not be {@literal null}.
+     * @param timeToLive time in milliseconds, {@literal 0} to never expire.
+     * @param readEpoch the epoch taken before the value was read.
+     */
+    public void put(NearCache.Key key, byte[] value, long timeToLive, long readEpoch) {
+
+        byte[] hashKeyBytes = key.getHashKeyBytes();
+        long recordSize = (long) HEADER_SIZE + key.getKeyBytes().length
+                + (hashKeyBytes != null ? hashKeyBytes.length : 0) + value.length;
+        if (recordSize > slabSize || epoch.get() != readEpoch) {
+            return;
+        }
+
+        long expiresAt = timeToLive > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeToLive) : 0;
+        int hash = key.hashCode();
+        segmentFor(hash).put(key, hash, value, (int) recordSize, expiresAt, readEpoch);
+    }
+
+    /**
+     * Remove the entry of the given key, if any.
+     *
+     * @param key must not be {@literal null}.
+     */
+    public void invalidate(NearCache.Key key) {
+
+        epoch.incrementAndGet();
+        int hash = key.hashCode();
+        segmentFor(hash).remove(key, hash);
+    }
+
+    /**
+     * Remove all entries. Allocated slabs are kept for reuse.
+     */
+    public void invalidateAll() {
+
+        epoch.incrementAndGet();
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public long getEntryCount() {
+
+        long count = 0;
+        for (Segment segment : segments) {
+            count += segment.entryCount;
+        }
+        return count;
+    }
+
+    /**
+     * @return the size of the records of live entries, in bytes.
+     */
+    public long getLiveBytes() {
+
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += segment.liveBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the off-heap memory allocated so far, in bytes.
+     */
+    public long getAllocatedBytes() {
+
+        long bytes = 0;
+        for (Segment segment : segments) {
+            bytes += (long) segment.allocatedSlabs * slabSize;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the off-heap memory the store grows to at most, in bytes.
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of live entries dropped to make room.
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments.length == 1 ? segments[0] : segments[spread(hash) >>> segmentShift];
+    }
+
+    private static int spread(int hash) {
+
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+        return (hash >>> 16) ^ hash;
+    }
+
+    /**
+     * Slabs and index of one stripe of the key space, all guarded by the segment lock.
+     */
+    private final class Segment {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final ByteBuffer[] slabs;
+        private final int[] slabUsage;
+        private final int slabSize;
+        private int currentSlab;
+        private volatile int allocatedSlabs;
+
+        // entry: hash in the high 32 bits, (slab + 1) << 24 | offset in the low 32 bits, 0 if free
+        private long[] index = new long[64];
+        private volatile int entryCount;
+        private volatile long liveBytes;
+
+        private Segment(int slabCount, int slabSize) {
+            this.slabs = new ByteBuffer[slabCount];
+            this.slabUsage = new int[slabCount];
+            this.slabSize = slabSize;
+        }
+
+        private byte[] get(NearCache.Key key, int hash) {
+
+            lock.lock();
+            try {
+                int slot = find(key, hash);
+                if (slot < 0) {
+                    return null;
+                }
+
+                ByteBuffer slab = slabOf(index[slot]);
+                int offset = offsetOf(index[slot]);
+                long expiresAt = slab.getLong(offset + 16);
+                if (expiresAt != 0 && System.nanoTime() - expiresAt >= 0) {
+                    liveBytes -= recordSize(slab, offset);
+                    removeAt(slot);
+                    return null;
+                }
+
+                byte[] value = new byte[slab.getInt(offset + 12)];
+                int valueOffset = offset + HEADER_SIZE + slab.getInt(offset + 4) + Math.max(0, slab.getInt(offset + 8));
+                slab.position(valueOffset);
+                slab.get(value);
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void put(NearCache.Key key, int hash, byte[] value, int recordSize, long expiresAt, long readEpoch) {
+
+            lock.lock();
+            try {
+                // invalidations bump the epoch before taking the lock, see NearCache#put
+                if (epoch.get() != readEpoch) {
+                    return;
+                }
+
+                if (slabs[currentSlab] == null || slabUsage[currentSlab] + recordSize > slabSize) {
+                    nextSlab();
+                }
+
+                ByteBuffer slab = slabs[currentSlab];
+                int offset = slabUsage[currentSlab];
+                byte[] keyBytes = key.getKeyBytes();
+                byte[] hashKeyBytes = key.getHashKeyBytes();
+
+                slab.position(offset);
+                slab.putInt(hash).putInt(keyBytes.length).putInt(hashKeyBytes != null ? hashKeyBytes.length : -1)
+                        .putInt(value.length).putLong(expiresAt).put(keyBytes);
+                if (hashKeyBytes != null) {
+                    slab.put(hashKeyBytes);
+                }
+                slab.put(value);
+                slabUsage[currentSlab] = offset + recordSize;
+
+                long entry = ((long) hash << 32) | ((long) (currentSlab + 1) << 24) | offset;
+                int slot = find(key, hash);
+                if (slot >= 0) {
+                    liveBytes -= recordSize(slabOf(index[slot]), offsetOf(index[slot]));
+                    index[slot] = entry;
+                } else {
+                    insert(entry);
+                }
+                liveBytes += recordSize;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void remove(NearCache.Key key, int hash) {
+
+            lock.lock();
+            try {
+                int slot = find(key, hash);
+                if (slot >= 0) {
+                    liveBytes -= recordSize(slabOf(index[slot]), offsetOf(index[slot]));
+                    removeAt(slot);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void clear() {
+
+            lock.lock();
+            try {
+                Arrays.fill(index, 0L);
+                Arrays.fill(slabUsage, 0);
+                currentSlab = 0;
+                entryCount = 0;
+                liveBytes = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Move on to the next slab of the ring, allocating it on first use and otherwise dropping the records still
+         * live in it.
+         */
+        private void nextSlab() {
+
+            if (slabs[currentSlab] != null) {
+                currentSlab = (currentSlab + 1) % slabs.length;
+            }
+
+            if (slabs[currentSlab] == null) {
+                slabs[currentSlab] = ByteBuffer.allocateDirect(slabSize);
+                allocatedSlabs++;
+                return;
+            }
+
+            ByteBuffer slab = slabs[currentSlab];
+            int offset = 0;
+            while (offset < slabUsage[currentSlab]) {
+                int size = recordSize(slab, offset);
+                long entry = ((long) slab.getInt(offset) << 32) | ((long) (currentSlab + 1) << 24) | offset;
+                int slot = findEntry(entry);
+                if (slot >= 0) {
+                    liveBytes -= size;
+                    removeAt(slot);
+                    evictions.increment();
+                }
+                offset += size;
+            }
+            slabUsage[currentSlab] = 0;
+        }
+
+        private int find(NearCache.Key key, int hash) {
+
+            int mask = index.length - 1;
+            for (int slot = spread(hash) & mask; ; slot = (slot + 1) & mask) {
+                long entry = index[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                if ((int) (entry >>> 32) == hash && matches(slabOf(entry), offsetOf(entry), key)) {
+                    return slot;
+                }
+            }
+        }
+
+        private int findEntry(long wanted) {
+
+            int mask = index.length - 1;
+            for (int slot = spread((int) (wanted >>> 32)) & mask; ; slot = (slot + 1) & mask) {
+                long entry = index[slot];
+                if (entry == 0) {
+                    return -1;
+                }
+                if (entry == wanted) {
+                    return slot;
+                }
+            }
+        }
+
+        private void insert(long entry) {
+
+            if (++entryCount > index.length / 2) {
+                long[] previous = index;
+                index = new long[previous.length * 2];
+                for (long moved : previous) {
+                    if (moved != 0) {
+                        place(moved);
+                    }
+                }
+            }
+            place(entry);
+        }
+
+        private void place(long entry) {
+
+            int mask = index.length - 1;
+            int slot = spread((int) (entry >>> 32)) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = entry;
+        }
+
+        /**
+         * Free the given slot, shifting back the entries of the probe sequence behind it so lookups need no tombstones.
+         */
+        private void removeAt(int slot) {
+
+            int mask = index.length - 1;
+            int free = slot;
+            index[free] = 0;
+            entryCount--;
+
+            for (int next = (free + 1) & mask; index[next] != 0; next = (next + 1) & mask) {
+                int home = spread((int) (index[next] >>> 32)) & mask;
+                boolean movable = free <= next ? home <= free || home > next : home <= free && home > next;
+                if (movable) {
+                    index[free] = index[next];
+                    index[next] = 0;
+                    free = next;
+                }
+            }
+        }
+
+        private boolean matches(ByteBuffer slab, int offset, NearCache.Key key) {
+
+            byte[] keyBytes = key.getKeyBytes();
+            byte[] hashKeyBytes = key.getHashKeyBytes();
+            if (slab.getInt(offset + 4) != keyBytes.length
+                    || slab.getInt(offset + 8) != (hashKeyBytes != null ? hashKeyBytes.length : -1)) {
+                return false;
+            }
+
+            int position = offset + HEADER_SIZE;
+            for (byte b : keyBytes) {
+                if (slab.get(position++) != b) {
+                    return false;
+                }
+            }
+            if (hashKeyBytes != null) {
+                for (byte b : hashKeyBytes) {
+                    if (slab.get(position++) != b) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private ByteBuffer slabOf(long entry) {
+            return slabs[(int) ((entry >>> 24) & 0xff) - 1];
+        }
+
+        private int offsetOf(long entry) {
+            return (int) (entry & 0xffffff);
+        }
+
+        private int recordSize(ByteBuffer slab, int offset) {
+            return HEADER_SIZE + slab.getInt(offset + 4) + Math.max(0, slab.getInt(offset + 8))
+                    + slab.getInt(offset + 12);
+        }
+    }
+}
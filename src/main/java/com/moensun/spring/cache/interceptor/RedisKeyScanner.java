@@ -0,0 +1,349 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.lambdaworks.redis.KeyScanCursor;
+import com.lambdaworks.redis.ScanArgs;
+import com.lambdaworks.redis.ScanCursor;
+import com.lambdaworks.redis.cluster.api.async.RedisAdvancedClusterAsyncCommands;
+import com.lambdaworks.redis.cluster.api.async.RedisClusterAsyncCommands;
+import org.springframework.data.redis.connection.DecoratedRedisConnection;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisClusterNode;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisCluster;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.ScanParams;
+import redis.clients.jedis.ScanResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Walks the keys matching a glob pattern without blocking Redis and hands them out in batches. A single node is walked
+ * incrementally with {@literal SCAN MATCH}. On cluster, where the cluster connection cannot route {@literal SCAN} to a
+ * node, every master is walked in parallel with {@literal SCAN MATCH} through the node connections of the driver, Jedis
+ * or Lettuce.
+ */
+public class RedisKeyScanner {
+
+    private static final StringRedisSerializer STRING_SERIALIZER = new StringRedisSerializer();
+
+    private static final byte[] SCAN_START = STRING_SERIALIZER.serialize("0");
+    private static final byte[] SCAN_MATCH = STRING_SERIALIZER.serialize("MATCH");
+    private static final byte[] SCAN_COUNT = STRING_SERIALIZER.serialize("COUNT");
+
+    private static final boolean JEDIS_PRESENT =
+            ClassUtils.isPresent("redis.clients.jedis.JedisCluster", RedisKeyScanner.class.getClassLoader());
+    private static final boolean LETTUCE_PRESENT = ClassUtils.isPresent(
+            "com.lambdaworks.redis.cluster.api.async.RedisAdvancedClusterAsyncCommands", RedisKeyScanner.class.getClassLoader());
+
+    private static final ThreadFactory SCAN_THREADS = new ThreadFactory() {
+
+        private final AtomicLong count = new AtomicLong();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ms-cache-scan-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private final String pattern;
+    private final byte[] patternBytes;
+    private final int batchSize;
+
+    /**
+     * @param pattern the glob pattern keys have to match, must not be {@literal null}.
+     * @param batchSize the maximum number of keys per batch, also the {@literal COUNT} hint of {@literal SCAN}.
+     */
+    public RedisKeyScanner(String pattern, int batchSize) {
+
+        Assert.notNull(pattern, "Pattern must not be null!");
+        Assert.isTrue(batchSize > 0, "BatchSize must be positive!");
+        this.pattern = pattern;
+        this.patternBytes = STRING_SERIALIZER.serialize(pattern);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Hand all keys matching the pattern to the given handler. On cluster the handler is called concurrently, once per
+     * master, with the keys of that master only.
+     *
+     * @param connection must not be {@literal null}.
+     * @param handler must not be {@literal null}.
+     */
+    public void scan(RedisConnection connection, KeyBatchHandler handler) {
+
+        RedisConnection target = connection;
+        while (target instanceof DecoratedRedisConnection) {
+            target = ((DecoratedRedisConnection) target).getDelegate();
+        }
+
+        if (target instanceof RedisClusterConnection) {
+            scanCluster((RedisClusterConnection) target, handler);
+        } else {
+            scanNode(connection, handler);
+        }
+    }
+
+    private void scanNode(RedisConnection connection, KeyBatchHandler handler) {
+
+        List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+        byte[] count = STRING_SERIALIZER.serialize(String.valueOf(batchSize));
+        byte[] cursor = SCAN_START;
+
+        do {
+            // raw SCAN: the Jedis connection of spring-data-redis 1.8 decodes scanned keys as UTF-8, mangling binary keys
+            Object reply = connection.execute("SCAN", cursor, SCAN_MATCH, patternBytes, SCAN_COUNT, count);
+            if (!(reply instanceof List) || ((List<?>) reply).size() != 2) {
+                scanNodeWithCursor(connection, handler);
+                return;
+            }
+
+            List<?> page = (List<?>) reply;
+            cursor = (byte[]) page.get(0);
+            for (Object key : (List<?>) page.get(1)) {
+                batch.add((byte[]) key);
+                if (batch.size() >= batchSize) {
+                    handle(connection, handler, batch);
+                }
+            }
+        } while (!Arrays.equals(SCAN_START, cursor));
+
+        handle(connection, handler, batch);
+    }
+
+    private void scanNodeWithCursor(RedisConnection connection, KeyBatchHandler handler) {
+
+        // not closed on purpose: closing the cursor closes the connection, which belongs to the caller
+        Cursor<byte[]> cursor = connection.scan(ScanOptions.scanOptions().match(pattern).count(batchSize).build());
+
+        List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+        while (cursor.hasNext()) {
+            batch.add(cursor.next());
+            if (batch.size() >= batchSize) {
+                handle(connection, handler, batch);
+            }
+        }
+        handle(connection, handler, batch);
+    }
+
+    private void scanCluster(final RedisClusterConnection connection, final KeyBatchHandler handler) {
+
+        List<RedisClusterNode> masters = new ArrayList<RedisClusterNode>();
+        for (RedisClusterNode node : connection.clusterGetNodes()) {
+            if (node.isMaster() && node.getSlotRange() != null) {
+                masters.add(node);
+            }
+        }
+        if (masters.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(masters.size(), SCAN_THREADS);
+        try {
+            List<Future<?>> scans = new ArrayList<Future<?>>(masters.size());
+            for (final RedisClusterNode master : masters) {
+                scans.add(executor.submit(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        scanMaster(connection, master, handler);
+                    }
+                }));
+            }
+            for (Future<?> scan : scans) {
+                await(scan);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void scanMaster(RedisClusterConnection connection, RedisClusterNode master, KeyBatchHandler handler) {
+
+        NodeScan scan = openNodeScan(connection, master);
+        try {
+            List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+            boolean more;
+            do {
+                more = scan.next(batch);
+                if (batch.size() >= batchSize) {
+                    handle(connection, handler, batch);
+                }
+            } while (more);
+            handle(connection, handler, batch);
+        } finally {
+            scan.close();
+        }
+    }
+
+    private NodeScan openNodeScan(RedisClusterConnection connection, RedisClusterNode master) {
+
+        // the connection handed to callbacks may be a proxy, the native one is what tells the driver
+        Object nativeConnection = connection.getNativeConnection();
+        if (JEDIS_PRESENT && nativeConnection instanceof JedisCluster) {
+            return new JedisNodeScan((JedisCluster) nativeConnection, master, patternBytes, batchSize);
+        }
+        if (LETTUCE_PRESENT && nativeConnection instanceof RedisAdvancedClusterAsyncCommands) {
+            return new LettuceNodeScan((RedisAdvancedClusterAsyncCommands<?, ?>) nativeConnection, master, pattern,
+                    batchSize);
+        }
+        throw new UnsupportedOperationException("Cannot scan the nodes of cluster connection "
+                + nativeConnection.getClass().getName());
+    }
+
+    private static void handle(RedisConnection connection, KeyBatchHandler handler, List<byte[]> batch) {
+
+        if (batch.isEmpty()) {
+            return;
+        }
+        handler.handle(connection, new ArrayList<byte[]>(batch));
+        batch.clear();
+    }
+
+    private static void await(Future<?> scan) {
+
+        try {
+            scan.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while scanning keys", ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Build the pattern matching all keys starting with the given prefix, glob characters in the prefix being escaped.
+     *
+     * @param prefix must not be {@literal null}.
+     * @return never {@literal null}.
+     */
+    public static String prefixPattern(String prefix) {
+
+        StringBuilder pattern = new StringBuilder(prefix.length() + 8);
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = prefix.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                pattern.append('\\');
+            }
+            pattern.append(c);
+        }
+        return pattern.append('*').toString();
+    }
+
+    /**
+     * Receives the keys found by a {@link RedisKeyScanner}.
+     */
+    public interface KeyBatchHandler {
+
+        /**
+         * @param connection the connection the keys were found with, usable for follow-up commands.
+         * @param keys never empty.
+         */
+        void handle(RedisConnection connection, List<byte[]> keys);
+    }
+
+    /**
+     * {@literal SCAN} on a single cluster node, which the cluster connection of spring-data-redis 1.8 does not offer,
+     * through the node connections of the driver. Kept apart so that the driver classes are only loaded when used.
+     */
+    private interface NodeScan {
+
+        /**
+         * Add the keys of the next page to the given list.
+         *
+         * @return whether there are more pages.
+         */
+        boolean next(List<byte[]> keys);
+
+        void close();
+    }
+
+    private static class JedisNodeScan implements NodeScan {
+
+        private final Jedis jedis;
+        private final ScanParams params;
+        private byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+
+        JedisNodeScan(JedisCluster cluster, RedisClusterNode node, byte[] pattern, int count) {
+
+            JedisPool pool = cluster.getClusterNodes().get(node.getHost() + ":" + node.getPort());
+            if (pool == null) {
+                throw new IllegalStateException("No connection pool for cluster node " + node.asString());
+            }
+            this.jedis = pool.getResource();
+            this.params = new ScanParams().match(pattern).count(count);
+        }
+
+        @Override
+        public boolean next(List<byte[]> keys) {
+
+            ScanResult<byte[]> page = jedis.scan(cursor, params);
+            keys.addAll(page.getResult());
+            cursor = page.getCursorAsBytes();
+            return !Arrays.equals(ScanParams.SCAN_POINTER_START_BINARY, cursor);
+        }
+
+        @Override
+        public void close() {
+            jedis.close();
+        }
+    }
+
+    private static class LettuceNodeScan implements NodeScan {
+
+        private final RedisClusterAsyncCommands<byte[], byte[]> commands;
+        private final ScanArgs args;
+        private ScanCursor cursor = ScanCursor.INITIAL;
+
+        @SuppressWarnings("unchecked")
+        LettuceNodeScan(RedisAdvancedClusterAsyncCommands<?, ?> cluster, RedisClusterNode node, String pattern,
+                        int count) {
+
+            this.commands = ((RedisAdvancedClusterAsyncCommands<byte[], byte[]>) cluster)
+                    .getConnection(node.getHost(), node.getPort());
+            this.args = new ScanArgs().match(pattern).limit(count);
+        }
+
+        @Override
+        public boolean next(List<byte[]> keys) {
+
+            KeyScanCursor<byte[]> page;
+            try {
+                page = commands.scan(cursor, args).get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning keys", ex);
+            } catch (ExecutionException ex) {
+                throw new IllegalStateException("Failed to scan keys", ex.getCause());
+            }
+            keys.addAll(page.getKeys());
+            cursor = page;
+            return !page.isFinished();
+        }
+
+        @Override
+        public void close() {
+            // the node connection is shared and managed by the cluster connection
+        }
+    }
+}
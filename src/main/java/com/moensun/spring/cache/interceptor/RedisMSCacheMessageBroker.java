@@ -0,0 +1,134 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisConnectionUtils;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.util.Assert;
+
+/**
+ * {@link MSCacheMessageBroker} backed by Redis pub/sub, reaching every node connected to the same Redis.
+ * Messages published by a node are delivered back to that node as well.
+ */
+public class RedisMSCacheMessageBroker implements MSCacheMessageBroker, InitializingBean, DisposableBean {
+
+    private static final StringRedisSerializer CHANNEL_SERIALIZER = new StringRedisSerializer();
+
+    private final RedisConnectionFactory connectionFactory;
+
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final boolean manageContainer;
+
+    /**
+     * Create a broker with its own {@link RedisMessageListenerContainer}, started and stopped with this bean.
+     * @param connectionFactory the connection factory used for publishing and subscribing
+     */
+    public RedisMSCacheMessageBroker(RedisConnectionFactory connectionFactory) {
+        Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+        this.connectionFactory = connectionFactory;
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.manageContainer = true;
+    }
+
+    /**
+     * Create a broker sharing an existing, externally managed {@link RedisMessageListenerContainer}.
+     * @param connectionFactory the connection factory used for publishing
+     * @param listenerContainer the container used for subscribing
+     */
+    public RedisMSCacheMessageBroker(RedisConnectionFactory connectionFactory,
+                                     RedisMessageListenerContainer listenerContainer) {
+        Assert.notNull(connectionFactory, "ConnectionFactory must not be null!");
+        Assert.notNull(listenerContainer, "ListenerContainer must not be null!");
+        this.connectionFactory = connectionFactory;
+        this.listenerContainer = listenerContainer;
+        this.manageContainer = false;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (this.manageContainer) {
+            this.listenerContainer.afterPropertiesSet();
+            this.listenerContainer.start();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.manageContainer) {
+            this.listenerContainer.destroy();
+        }
+    }
+
+    @Override
+    public void publish(String channel, byte[] message) {
+        RedisConnection connection = RedisConnectionUtils.getConnection(this.connectionFactory);
+        try {
+            connection.publish(CHANNEL_SERIALIZER.serialize(channel), message);
+        }
+        finally {
+            RedisConnectionUtils.releaseConnection(connection, this.connectionFactory);
+        }
+    }
+
+    @Override
+    public void subscribe(final String channel, final MSCacheMessageListener listener) {
+        Assert.hasText(channel, "Channel must not be null or empty!");
+        Assert.notNull(listener, "Listener must not be null!");
+        this.listenerContainer.addMessageListener(new ChannelListenerAdapter(channel, listener),
+                new ChannelTopic(channel));
+    }
+
+    @Override
+    public void unsubscribe(String channel, MSCacheMessageListener listener) {
+        this.listenerContainer.removeMessageListener(new ChannelListenerAdapter(channel, listener),
+                new ChannelTopic(channel));
+    }
+
+
+    /**
+     * Adapts a {@link MSCacheMessageListener} to the container, equal to any adapter of the same listener and channel
+     * so that it can be removed again.
+     */
+    private static class ChannelListenerAdapter implements MessageListener {
+
+        private final String channel;
+
+        private final MSCacheMessageListener listener;
+
+        ChannelListenerAdapter(String channel, MSCacheMessageListener listener) {
+            this.channel = channel;
+            this.listener = listener;
+        }
+
+        @Override
+        public void onMessage(Message message, byte[] pattern) {
+            this.listener.onMessage(this.channel, message.getBody());
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof ChannelListenerAdapter)) {
+                return false;
+            }
+            ChannelListenerAdapter otherAdapter = (ChannelListenerAdapter) other;
+            return (this.channel.equals(otherAdapter.channel) && this.listener.equals(otherAdapter.listener));
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.channel.hashCode() * 29 + this.listener.hashCode());
+        }
+    }
+
+}
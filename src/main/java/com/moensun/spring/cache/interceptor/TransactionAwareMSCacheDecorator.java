@@ -4,6 +4,8 @@ import com.moensun.spring.cache.MSCache;
 import org.springframework.cache.Cache;
 import org.springframework.util.Assert;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Callable;
 
 /**
@@ -52,6 +54,36 @@ public class TransactionAwareMSCacheDecorator implements MSCache {
         this.targetCache.hEvict(key,hashKey);
     }
 
+    @Override
+    public Map<Object, Cache.ValueWrapper> getAll(Collection<?> keys) {
+        return this.targetCache.getAll(keys);
+    }
+
+    @Override
+    public Map<Object, Cache.ValueWrapper> hGetAll(Object key, Collection<?> hashKeys) {
+        return this.targetCache.hGetAll(key,hashKeys);
+    }
+
+    @Override
+    public void putAll(Map<?, ?> entries) {
+        this.targetCache.putAll(entries);
+    }
+
+    @Override
+    public void evictAll(Collection<?> keys) {
+        this.targetCache.evictAll(keys);
+    }
+
+    @Override
+    public void hPutAll(Object key, Map<?, ?> entries) {
+        this.targetCache.hPutAll(key,entries);
+    }
+
+    @Override
+    public void hEvictAll(Object key, Collection<?> hashKeys) {
+        this.targetCache.hEvictAll(key,hashKeys);
+    }
+
 
     @Override
     public String getName() {
@@ -85,7 +117,7 @@ public class TransactionAwareMSCacheDecorator implements MSCache {
 
     @Override
     public Cache.ValueWrapper putIfAbsent(Object key, Object value) {
-        return this.putIfAbsent(key,value);
+        return this.targetCache.putIfAbsent(key,value);
     }
 
 
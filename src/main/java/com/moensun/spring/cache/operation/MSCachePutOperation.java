@@ -47,8 +47,8 @@ public class MSCachePutOperation extends MSCacheOperation {
             return sb;
         }
 
-        public MSCacheOperation build() {
-            return new MSCacheOperation(this);
+        public MSCachePutOperation build() {
+            return new MSCachePutOperation(this);
         }
     }
 
@@ -15,6 +15,7 @@ public class MSCacheableOperation extends MSCacheOperation {
 
     private final boolean sync;
 
+    private final boolean bulk;
 
     /**
      * @param b
@@ -24,6 +25,7 @@ public class MSCacheableOperation extends MSCacheOperation {
         super(b);
         this.unless = b.unless;
         this.sync = b.sync;
+        this.bulk = b.bulk;
     }
 
     public String getUnless() {
@@ -34,6 +36,10 @@ public class MSCacheableOperation extends MSCacheOperation {
         return this.sync;
     }
 
+    public boolean isBulk() {
+        return this.bulk;
+    }
+
     public static class Builder extends MSCacheOperation.Builder {
 
 
@@ -41,6 +47,8 @@ public class MSCacheableOperation extends MSCacheOperation {
 
         private boolean sync;
 
+        private boolean bulk;
+
         public void setUnless(String unless) {
             this.unless = unless;
         }
@@ -50,6 +58,10 @@ public class MSCacheableOperation extends MSCacheOperation {
             this.sync = sync;
         }
 
+        public void setBulk(boolean bulk) {
+            this.bulk = bulk;
+        }
+
 
         @Override
         protected StringBuilder getOperationDescription() {
@@ -60,6 +72,9 @@ public class MSCacheableOperation extends MSCacheOperation {
             sb.append(" | sync='");
             sb.append(this.sync);
             sb.append("'");
+            sb.append(" | bulk='");
+            sb.append(this.bulk);
+            sb.append("'");
             return sb;
         }
 
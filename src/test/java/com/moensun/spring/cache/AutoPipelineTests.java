@@ -0,0 +1,208 @@
+package com.moensun.spring.cache;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the coalescing of concurrent reads by {@link MSRedisCache.AutoPipeline} against a Redis server on
+ * {@code localhost:6379}, skipped when there is none.
+ */
+public class AutoPipelineTests {
+
+    private static final int CALLERS = 8;
+
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private static JedisConnectionFactory connectionFactory;
+
+    private final CountingTemplate template = new CountingTemplate();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    private RedisConnection connection;
+
+    @BeforeClass
+    public static void connect() {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().close();
+        }
+        catch (RuntimeException ex) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        Assume.assumeTrue("Redis is not available on localhost:6379", connectionFactory != null);
+    }
+
+    @AfterClass
+    public static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.template.setConnectionFactory(connectionFactory);
+        this.template.afterPropertiesSet();
+        this.connection = connectionFactory.getConnection();
+        deleteTestKeys();
+        for (int i = 0; i < CALLERS; i++) {
+            this.connection.set(bytes("pipeline-test:k" + i), bytes("v" + i));
+        }
+        this.connection.hSet(bytes("pipeline-test:h"), bytes("f"), bytes("hv"));
+    }
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+        deleteTestKeys();
+        this.connection.close();
+    }
+
+    @Test
+    public void readsKeysAndHashFields() {
+        MSRedisCache.AutoPipeline pipeline = new MSRedisCache.AutoPipeline(this.template, WINDOW, 16);
+
+        assertArrayEquals(bytes("v0"), pipeline.read(bytes("pipeline-test:k0"), null));
+        assertArrayEquals(bytes("hv"), pipeline.read(bytes("pipeline-test:h"), bytes("f")));
+        assertNull(pipeline.read(bytes("pipeline-test:missing"), null));
+        assertNull(pipeline.read(bytes("pipeline-test:h"), bytes("missing")));
+    }
+
+    @Test
+    public void coalescesConcurrentReadsIntoBatches() throws Exception {
+        final MSRedisCache.AutoPipeline pipeline = new MSRedisCache.AutoPipeline(this.template, WINDOW, 128);
+
+        List<Future<byte[]>> replies = readConcurrently(pipeline);
+
+        for (int i = 0; i < CALLERS; i++) {
+            byte[] expected = i == 0 ? bytes("hv") : bytes("v" + i);
+            assertArrayEquals(expected, replies.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertTrue("sent " + this.template.executions.get() + " batches", this.template.executions.get() < CALLERS);
+    }
+
+    @Test
+    public void sendsFullBatchWithoutWaitingForTheWindow() throws Exception {
+        MSRedisCache.AutoPipeline pipeline = new MSRedisCache.AutoPipeline(this.template,
+                TimeUnit.SECONDS.toNanos(10), CALLERS);
+
+        List<Future<byte[]>> replies = readConcurrently(pipeline);
+
+        // the leader sleeps through its window, everybody else gets the reply of the full batch
+        int answered = 0;
+        for (Future<byte[]> reply : replies) {
+            try {
+                reply.get(1, TimeUnit.SECONDS);
+                answered++;
+            }
+            catch (TimeoutException ex) {
+                // the leader
+            }
+        }
+        assertTrue("answered " + answered, answered >= CALLERS - 1);
+    }
+
+    @Test
+    public void failureOfTheBatchReachesEveryReader() throws Exception {
+        this.template.failure = new RedisSystemException("batch failed", null);
+        MSRedisCache.AutoPipeline pipeline = new MSRedisCache.AutoPipeline(this.template, WINDOW, 128);
+
+        for (Future<byte[]> reply : readConcurrently(pipeline)) {
+            try {
+                reply.get(5, TimeUnit.SECONDS);
+                fail("Expected the failure of the batch");
+            }
+            catch (ExecutionException ex) {
+                assertSame(this.template.failure, ex.getCause());
+            }
+        }
+    }
+
+
+    /**
+     * Read a hash field and {@link #CALLERS} - 1 keys from as many threads at once.
+     */
+    private List<Future<byte[]>> readConcurrently(final MSRedisCache.AutoPipeline pipeline)
+            throws InterruptedException {
+
+        final CountDownLatch ready = new CountDownLatch(CALLERS);
+        final CountDownLatch go = new CountDownLatch(1);
+        List<Future<byte[]>> replies = new ArrayList<Future<byte[]>>(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            final byte[] keyBytes = bytes(i == 0 ? "pipeline-test:h" : "pipeline-test:k" + i);
+            final byte[] hashKeyBytes = i == 0 ? bytes("f") : null;
+            replies.add(this.executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    ready.countDown();
+                    go.await();
+                    return pipeline.read(keyBytes, hashKeyBytes);
+                }
+            }));
+        }
+        assertTrue(ready.await(5, TimeUnit.SECONDS));
+        go.countDown();
+        return replies;
+    }
+
+    private void deleteTestKeys() {
+        for (int i = 0; i < CALLERS; i++) {
+            this.connection.del(bytes("pipeline-test:k" + i));
+        }
+        this.connection.del(bytes("pipeline-test:h"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+
+
+    /**
+     * Counts the round trips of the pipeline, optionally failing them.
+     */
+    private static class CountingTemplate extends RedisTemplate<Object, Object> {
+
+        private final AtomicInteger executions = new AtomicInteger();
+
+        private volatile RuntimeException failure;
+
+        @Override
+        public <T> T execute(RedisCallback<T> action) {
+            this.executions.incrementAndGet();
+            if (this.failure != null) {
+                throw this.failure;
+            }
+            return super.execute(action);
+        }
+    }
+}
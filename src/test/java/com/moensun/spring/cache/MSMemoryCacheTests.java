@@ -0,0 +1,245 @@
+package com.moensun.spring.cache;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link MSCache} semantics of {@link MSMemoryCache}: {@literal null} handling, expiry, hashes, loading and
+ * clearing.
+ */
+public class MSMemoryCacheTests {
+
+    private static final int CALLERS = 8;
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void storesNullAsAWrapperWhenAllowed() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0, true);
+
+        cache.put("k", null);
+        cache.hSet("h", "f", null);
+
+        Cache.ValueWrapper wrapper = cache.get("k");
+        assertNotNull(wrapper);
+        assertNull(wrapper.get());
+        Cache.ValueWrapper hashWrapper = cache.hGet("h", "f");
+        assertNotNull(hashWrapper);
+        assertNull(hashWrapper.get());
+    }
+
+    @Test
+    public void removesTheEntryOnNullWhenNotAllowed() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        cache.put("k", "v");
+        cache.hSet("h", "f", "v");
+
+        cache.put("k", null);
+        cache.hSet("h", "f", null);
+
+        assertNull(cache.get("k"));
+        assertNull(cache.hGet("h", "f"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiresEntriesAfterTheExpiration() throws InterruptedException {
+        MSMemoryCache cache = new MSMemoryCache("test", 1);
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k", String.class));
+
+        Thread.sleep(1100);
+
+        assertNull(cache.get("k"));
+        cache.cleanUp();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiresHashesAsAWholeAfterTheirLastWrite() throws InterruptedException {
+        MSMemoryCache cache = new MSMemoryCache("test", 1);
+        cache.hSet("h", "a", "1");
+        Thread.sleep(600);
+        cache.hSet("h", "b", "2");
+        Thread.sleep(600);
+
+        // the second write renewed the hash
+        assertEquals("1", cache.hGet("h", "a", String.class));
+        assertEquals("2", cache.hGet("h", "b", String.class));
+
+        Thread.sleep(600);
+
+        assertNull(cache.hGet("h", "a"));
+        assertNull(cache.hGet("h", "b"));
+    }
+
+    @Test
+    public void keepsEntriesWithoutExpiration() throws InterruptedException {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        cache.put("k", "v");
+
+        Thread.sleep(50);
+        cache.cleanUp();
+
+        assertEquals("v", cache.get("k", String.class));
+    }
+
+    @Test
+    public void setsGetsAndEvictsHashFields() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        cache.hSet("h", "a", "1");
+        cache.hSet("h", "b", "2");
+        cache.hSet("h", "a", "3");
+
+        assertEquals("3", cache.hGet("h", "a", String.class));
+        assertEquals("2", cache.hGet("h", "b").get());
+        assertNull(cache.hGet("h", "missing"));
+        assertNull(cache.hGet("missing", "a"));
+
+        Map<Object, Cache.ValueWrapper> fields = cache.hGetAll("h", Arrays.asList("b", "missing", "a"));
+        assertEquals(Arrays.<Object>asList("b", "a"), new ArrayList<Object>(fields.keySet()));
+        assertEquals("2", fields.get("b").get());
+        assertEquals("3", fields.get("a").get());
+
+        cache.hEvict("h", "a");
+        assertNull(cache.hGet("h", "a"));
+        assertEquals("2", cache.hGet("h", "b", String.class));
+
+        cache.hEvict("h", "b");
+        assertEquals(0, cache.size());
+        assertTrue(cache.hGetAll("h", Arrays.asList("a", "b")).isEmpty());
+    }
+
+    @Test
+    public void writesAndEvictsHashFieldsInBulk() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        Map<Object, Object> fields = new LinkedHashMap<Object, Object>();
+        fields.put("a", "1");
+        fields.put("b", "2");
+        fields.put("c", "3");
+        cache.hPutAll("h", fields);
+
+        cache.hEvictAll("h", Arrays.asList("a", "c"));
+
+        assertEquals(1, cache.hGetAll("h", Arrays.asList("a", "b", "c")).size());
+        assertEquals("2", cache.hGet("h", "b", String.class));
+    }
+
+    @Test
+    public void loadsOnceForConcurrentMisses() throws Exception {
+        final MSMemoryCache cache = new MSMemoryCache("test", 0);
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                loads.incrementAndGet();
+                loading.countDown();
+                release.await();
+                return "v";
+            }
+        };
+
+        List<Future<String>> values = new ArrayList<Future<String>>(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            values.add(this.executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return cache.get("k", loader);
+                }
+            }));
+        }
+        assertTrue(loading.await(5, TimeUnit.SECONDS));
+        // give the other callers time to miss and join the running load
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Future<String> value : values) {
+            assertEquals("v", value.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals("v", cache.get("k", String.class));
+    }
+
+    @Test
+    public void loadsHashFieldsThroughTheLoader() throws Exception {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        final AtomicInteger loads = new AtomicInteger();
+        Callable<String> loader = new Callable<String>() {
+            @Override
+            public String call() {
+                loads.incrementAndGet();
+                return "v";
+            }
+        };
+
+        assertEquals("v", cache.hGet("h", "f", loader));
+        assertEquals("v", cache.hGet("h", "f", loader));
+
+        assertEquals(1, loads.get());
+        assertEquals("v", cache.hGet("h", "f", String.class));
+    }
+
+    @Test
+    public void putsOnlyIfAbsent() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+
+        assertNull(cache.putIfAbsent("k", "v1"));
+        Cache.ValueWrapper existing = cache.putIfAbsent("k", "v2");
+
+        assertNotNull(existing);
+        assertEquals("v1", existing.get());
+        assertEquals("v1", cache.get("k", String.class));
+    }
+
+    @Test
+    public void putsIfAbsentOverAnExpiredEntry() throws InterruptedException {
+        MSMemoryCache cache = new MSMemoryCache("test", 1);
+        cache.put("k", "v1");
+
+        Thread.sleep(1100);
+
+        assertNull(cache.putIfAbsent("k", "v2"));
+        assertEquals("v2", cache.get("k", String.class));
+    }
+
+    @Test
+    public void clearsValuesAndHashes() {
+        MSMemoryCache cache = new MSMemoryCache("test", 0);
+        cache.put("k", "v");
+        cache.hSet("h", "f", "v");
+
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get("k"));
+        assertNull(cache.hGet("h", "f"));
+        cache.put("k", "v2");
+        assertEquals("v2", cache.get("k", String.class));
+    }
+}
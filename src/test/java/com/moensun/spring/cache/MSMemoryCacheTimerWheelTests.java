@@ -0,0 +1,151 @@
+package com.moensun.spring.cache;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the {@link MSMemoryCache.TimerWheel} reclaiming expired entries of {@link MSMemoryCache}, driven by a clock of
+ * its own.
+ */
+public class MSMemoryCacheTimerWheelTests {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    // a tick of the finest level, the most an entry may fire late once it sits there
+    private static final long TICK = 1L << 30;
+
+    private final long start = 1L << 50;
+
+    private final RecordingCache cache = new RecordingCache();
+
+    private final MSMemoryCache.TimerWheel timerWheel = new MSMemoryCache.TimerWheel(start);
+
+    @Test
+    public void firesEntryOnceItsTimeHasPassed() {
+        MSMemoryCache.Entry entry = schedule("a", start + 3 * SECOND);
+
+        advanceTo(start + 2 * SECOND);
+        assertTrue(cache.fired.isEmpty());
+
+        advanceTo(start + 3 * SECOND + 2 * TICK);
+        assertEquals(1, cache.fired.size());
+        assertTrue(cache.fired.contains(entry));
+    }
+
+    @Test
+    public void cascadesEntriesFromCoarserLevels() {
+        List<MSMemoryCache.Entry> entries = new ArrayList<MSMemoryCache.Entry>();
+        entries.add(schedule("minutes", start + TimeUnit.MINUTES.toNanos(2)));
+        entries.add(schedule("hours", start + TimeUnit.HOURS.toNanos(2)));
+        entries.add(schedule("days", start + TimeUnit.DAYS.toNanos(2)));
+
+        long step = 10 * SECOND;
+        for (long time = start; time <= start + TimeUnit.DAYS.toNanos(3); time += step) {
+            advanceTo(time);
+        }
+
+        assertEquals(entries, cache.fired);
+        for (int i = 0; i < entries.size(); i++) {
+            long lateness = cache.firedAt.get(i) - entries.get(i).expiresAt;
+            assertTrue(entries.get(i).key + " fired " + lateness + "ns late", lateness < step + 2 * TICK);
+        }
+    }
+
+    @Test
+    public void firesAllDueEntriesOnALongJump() {
+        schedule("seconds", start + SECOND);
+        schedule("minutes", start + TimeUnit.MINUTES.toNanos(1));
+        schedule("hours", start + TimeUnit.HOURS.toNanos(1));
+        schedule("days", start + TimeUnit.DAYS.toNanos(1));
+
+        advanceTo(start + TimeUnit.DAYS.toNanos(3));
+        assertEquals(4, cache.fired.size());
+    }
+
+    @Test
+    public void doesNotFireDescheduledEntry() {
+        MSMemoryCache.Entry kept = schedule("kept", start + 2 * SECOND);
+        MSMemoryCache.Entry cancelled = schedule("cancelled", start + 2 * SECOND);
+
+        timerWheel.deschedule(cancelled);
+        timerWheel.deschedule(cancelled);
+        advanceTo(start + 10 * SECOND);
+
+        assertEquals(1, cache.fired.size());
+        assertTrue(cache.fired.contains(kept));
+    }
+
+    @Test
+    public void reschedulesRenewedEntry() {
+        MSMemoryCache.Entry entry = schedule("a", start + 2 * SECOND);
+        entry.expiresAt = start + TimeUnit.MINUTES.toNanos(5);
+
+        advanceTo(start + 10 * SECOND);
+        assertTrue(cache.fired.isEmpty());
+
+        for (long time = start; time <= start + TimeUnit.MINUTES.toNanos(6); time += SECOND) {
+            advanceTo(time);
+        }
+        assertEquals(1, cache.fired.size());
+        assertTrue(cache.firedAt.get(0) >= entry.expiresAt);
+    }
+
+    @Test
+    public void cleanUpReclaimsExpiredEntriesWithoutReads() throws InterruptedException {
+        MSMemoryCache memoryCache = new MSMemoryCache("expiring", 1);
+        memoryCache.put("a", "1");
+        memoryCache.hSet("h", "f", "2");
+        assertEquals(2, memoryCache.size());
+
+        Thread.sleep(2 * TimeUnit.NANOSECONDS.toMillis(TICK) + 200);
+        memoryCache.cleanUp();
+
+        assertEquals(0, memoryCache.size());
+        assertNull(memoryCache.get("a"));
+    }
+
+
+    private MSMemoryCache.Entry schedule(String key, long expiresAt) {
+        MSMemoryCache.Entry entry = new MSMemoryCache.ValueEntry(key, key, expiresAt);
+        timerWheel.schedule(entry);
+        return entry;
+    }
+
+    private void advanceTo(long time) {
+        cache.now = time;
+        timerWheel.advance(time, cache);
+    }
+
+    /**
+     * Records the entries the wheel fires, judging their expiry by the clock of the test.
+     */
+    private static class RecordingCache extends MSMemoryCache {
+
+        private final List<Entry> fired = new ArrayList<Entry>();
+
+        private final List<Long> firedAt = new ArrayList<Long>();
+
+        private long now;
+
+        RecordingCache() {
+            super("recording", 0);
+        }
+
+        @Override
+        boolean onTimer(Entry entry) {
+            if (entry.expiresAt - now > 0) {
+                return false;
+            }
+            fired.add(entry);
+            firedAt.add(now);
+            return true;
+        }
+    }
+}
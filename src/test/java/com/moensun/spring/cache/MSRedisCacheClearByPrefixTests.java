@@ -0,0 +1,174 @@
+package com.moensun.spring.cache;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the prefix clear of {@link MSRedisCache} against a Redis server on {@code localhost:6379}, skipped when there
+ * is none.
+ */
+public class MSRedisCacheClearByPrefixTests {
+
+    private static final int KEYS = 25;
+
+    private static JedisConnectionFactory connectionFactory;
+
+    private final MSRedisCache.RedisCacheMetadata metadata =
+            new MSRedisCache.RedisCacheMetadata("clear-test", bytes("clear-test:"));
+
+    private RedisConnection connection;
+
+    @BeforeClass
+    public static void connect() {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().close();
+        }
+        catch (RuntimeException ex) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        Assume.assumeTrue("Redis is not available on localhost:6379", connectionFactory != null);
+    }
+
+    @AfterClass
+    public static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.connection = connectionFactory.getConnection();
+        this.metadata.setClearBatchSize(10);
+        for (int i = 0; i < KEYS - 1; i++) {
+            this.connection.set(bytes("clear-test:k" + i), bytes("v"));
+        }
+        // not valid UTF-8
+        this.connection.set(new byte[] {'c', 'l', 'e', 'a', 'r', '-', 't', 'e', 's', 't', ':', (byte) 0xff}, bytes("v"));
+        this.connection.set(bytes("clear-other"), bytes("v"));
+    }
+
+    @After
+    public void tearDown() {
+        this.connection.del(bytes("clear-other"));
+        Set<byte[]> left = this.connection.keys(bytes("clear-test:*"));
+        if (left != null && !left.isEmpty()) {
+            this.connection.del(left.toArray(new byte[left.size()][]));
+        }
+        this.connection.close();
+    }
+
+    @Test
+    public void deletesEveryKeyWithThePrefix() {
+        MSRedisCache.ClearProgress progress = new MSRedisCache.ClearProgress();
+
+        new MSRedisCache.RedisCacheCleanByPrefixCallback(this.metadata, progress).doInRedis(this.connection);
+
+        assertTrue(this.connection.keys(bytes("clear-test:*")).isEmpty());
+        assertTrue(this.connection.exists(bytes("clear-other")));
+        assertEquals(KEYS, progress.getDeletedKeys());
+    }
+
+    @Test
+    public void fallsBackToDelWhenUnlinkIsUnknown() {
+        AtomicInteger unlinks = new AtomicInteger();
+        MSRedisCache.ClearProgress progress = new MSRedisCache.ClearProgress();
+
+        new MSRedisCache.RedisCacheCleanByPrefixCallback(this.metadata, progress)
+                .doInRedis(withoutUnlink(this.connection, unlinks));
+
+        assertTrue(this.connection.keys(bytes("clear-test:*")).isEmpty());
+        assertEquals(KEYS, progress.getDeletedKeys());
+        assertEquals(1, unlinks.get());
+        assertFalse(this.connection.keys(bytes("clear-other")).isEmpty());
+    }
+
+    @Test
+    public void clearRemovesWhatANodeMissingTheLockWrote() throws Exception {
+        RedisTemplate<String, String> template = new RedisTemplate<String, String>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new StringRedisSerializer());
+        template.afterPropertiesSet();
+        final MSRedisCache cache = new MSRedisCache("clear-test", bytes("clear-test:"), template, 0);
+        cache.setLockProbeInterval(300);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            long start = System.nanoTime();
+            Future<?> clear = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    cache.clear();
+                }
+            });
+            // written around the cache, as a node which never heard of the lock would
+            Thread.sleep(100);
+            this.connection.set(bytes("clear-test:late"), bytes("v"));
+            clear.get(5, TimeUnit.SECONDS);
+
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 300);
+            assertTrue(this.connection.keys(bytes("clear-test:*")).isEmpty());
+            assertEquals(KEYS + 1, cache.getClearProgress().getDeletedKeys());
+        }
+        finally {
+            executor.shutdownNow();
+            cache.destroy();
+        }
+    }
+
+
+    /**
+     * Answer {@literal UNLINK} like a server before Redis 4 would.
+     */
+    private static RedisConnection withoutUnlink(final RedisConnection connection, final AtomicInteger unlinks) {
+        return (RedisConnection) Proxy.newProxyInstance(RedisConnection.class.getClassLoader(),
+                new Class<?>[] {RedisConnection.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("eval") || method.getName().equals("evalSha")) {
+                            unlinks.incrementAndGet();
+                            throw new InvalidDataAccessApiUsageException(
+                                    "ERR Error running script: @user_script:1: Unknown Redis command called from Lua script");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        }
+                        catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    }
+                });
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}
@@ -0,0 +1,235 @@
+package com.moensun.spring.cache;
+
+import com.moensun.spring.cache.annotation.DataType;
+import com.moensun.spring.cache.interceptor.MSCacheElement;
+import com.moensun.spring.cache.interceptor.MSCacheKey;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the load lease scripts of {@link MSRedisCache} against a Redis server on {@code localhost:6379}, skipped when
+ * there is none.
+ */
+public class MSRedisCacheLoadLeaseTests {
+
+    private static final StringRedisSerializer SERIALIZER = new StringRedisSerializer();
+
+    private static final long TIMEOUT = 5000;
+
+    private static JedisConnectionFactory connectionFactory;
+
+    private final MSRedisCache.RedisCacheMetadata metadata = new MSRedisCache.RedisCacheMetadata("lease-test", null);
+
+    private final MSRedisCache.CacheValueAccessor accessor = new MSRedisCache.CacheValueAccessor(SERIALIZER);
+
+    private RedisConnection connection;
+
+    @BeforeClass
+    public static void connect() {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().close();
+        }
+        catch (RuntimeException ex) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        Assume.assumeTrue("Redis is not available on localhost:6379", connectionFactory != null);
+    }
+
+    @AfterClass
+    public static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.connection = connectionFactory.getConnection();
+        deleteTestKeys();
+    }
+
+    @After
+    public void tearDown() {
+        deleteTestKeys();
+        this.connection.close();
+    }
+
+    @Test
+    public void returnsPresentValueWithoutTakingTheLease() {
+        this.connection.set(bytes("k"), bytes("v"));
+        MSRedisCache.BinaryCacheElement element = element("k", null);
+
+        MSRedisCache.LoadLease lease = acquire(element, "t1");
+
+        assertArrayEquals(bytes("v"), lease.getValue());
+        assertFalse(lease.isAcquired());
+        assertFalse(this.connection.exists(leaseKey(element)));
+    }
+
+    @Test
+    public void takesTheLeaseOfAMissingValue() {
+        MSRedisCache.BinaryCacheElement element = element("k", null);
+
+        MSRedisCache.LoadLease lease = acquire(element, "t1");
+
+        assertNull(lease.getValue());
+        assertTrue(lease.isAcquired());
+        assertArrayEquals(bytes("t1"), this.connection.get(leaseKey(element)));
+        long ttl = this.connection.pTtl(leaseKey(element));
+        assertTrue("lease ttl " + ttl, ttl > 0 && ttl <= TIMEOUT);
+    }
+
+    @Test
+    public void reportsTheRemainingTimeOfALeaseHeldByAnotherCaller() {
+        MSRedisCache.BinaryCacheElement element = element("k", null);
+        acquire(element, "t1");
+
+        MSRedisCache.LoadLease lease = acquire(element, "t2");
+
+        assertNull(lease.getValue());
+        assertFalse(lease.isAcquired());
+        assertTrue(lease.getRemainingTime() > 0 && lease.getRemainingTime() <= TIMEOUT);
+        assertArrayEquals(bytes("t1"), this.connection.get(leaseKey(element)));
+    }
+
+    @Test
+    public void readsHashFieldsAndLeasesThemPerField() {
+        this.connection.hSet(bytes("h"), bytes("f1"), bytes("v1"));
+        MSRedisCache.BinaryCacheElement present = element("h", "f1");
+        MSRedisCache.BinaryCacheElement missing = element("h", "f2");
+
+        assertArrayEquals(bytes("v1"), acquire(present, "t1").getValue());
+        assertTrue(acquire(missing, "t1").isAcquired());
+        assertFalse(this.connection.exists(leaseKey(present)));
+        assertTrue(this.connection.exists(leaseKey(missing)));
+    }
+
+    @Test
+    public void releasesOnlyTheOwnLease() {
+        MSRedisCache.BinaryCacheElement element = element("k", null);
+        acquire(element, "t1");
+
+        new MSRedisCache.RedisLeaseReleaseCallback(leaseKey(element), bytes("t2")).doInRedis(this.connection);
+        assertTrue(this.connection.exists(leaseKey(element)));
+
+        new MSRedisCache.RedisLeaseReleaseCallback(leaseKey(element), bytes("t1")).doInRedis(this.connection);
+        assertFalse(this.connection.exists(leaseKey(element)));
+    }
+
+    @Test
+    public void renewsOnlyTheOwnLease() {
+        MSRedisCache.BinaryCacheElement element = element("k", null);
+        this.connection.pSetEx(leaseKey(element), 1000, bytes("t1"));
+
+        assertFalse(new MSRedisCache.RedisLeaseRenewalCallback(leaseKey(element), bytes("t2"), 60000)
+                .doInRedis(this.connection));
+        assertTrue(this.connection.pTtl(leaseKey(element)) <= 1000);
+
+        assertTrue(new MSRedisCache.RedisLeaseRenewalCallback(leaseKey(element), bytes("t1"), 60000)
+                .doInRedis(this.connection));
+        assertTrue(this.connection.pTtl(leaseKey(element)) > 1000);
+    }
+
+    @Test
+    public void concurrentLoadsOfACacheRunTheLoaderOnce() throws Exception {
+        final MSRedisCache first = createCache();
+        final MSRedisCache second = createCache();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final Callable<Object> loader = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                loads.incrementAndGet();
+                loading.countDown();
+                Thread.sleep(200);
+                return "loaded";
+            }
+        };
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> owner = executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    return first.get("k", loader);
+                }
+            });
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+
+            // a cache of its own stands in for another node, waiting on the lease in Redis
+            assertEquals("loaded", second.get("k", loader));
+            assertEquals("loaded", owner.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+            assertFalse(this.connection.exists(this.metadata.getLoadLeaseKey(bytes("k"), null)));
+        }
+        finally {
+            executor.shutdownNow();
+            first.destroy();
+            second.destroy();
+        }
+    }
+
+
+    private MSRedisCache createCache() {
+        RedisTemplate<Object, Object> template = new RedisTemplate<Object, Object>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(SERIALIZER);
+        template.setValueSerializer(SERIALIZER);
+        template.afterPropertiesSet();
+        return new MSRedisCache("lease-test", null, template, 60);
+    }
+
+    private MSRedisCache.LoadLease acquire(MSRedisCache.BinaryCacheElement element, String token) {
+        return new MSRedisCache.RedisLoadLeaseCallback(element, leaseKey(element), bytes(token), TIMEOUT)
+                .doInRedis(this.connection);
+    }
+
+    private MSRedisCache.BinaryCacheElement element(String key, String hashKey) {
+        MSCacheKey cacheKey = (hashKey == null ? new MSCacheKey(key) : new MSCacheKey(key, DataType.HASH, hashKey))
+                .withKeySerializer(SERIALIZER);
+        return new MSRedisCache.BinaryCacheElement(new MSCacheElement(cacheKey, "loaded"), this.accessor);
+    }
+
+    private byte[] leaseKey(MSRedisCache.BinaryCacheElement element) {
+        return this.metadata.getLoadLeaseKey(element.getKeyBytes(),
+                element.getDataType() == DataType.HASH ? element.getHashKeyBytes() : null);
+    }
+
+    private void deleteTestKeys() {
+        this.connection.del(bytes("k"), bytes("h"));
+        Set<byte[]> leases = this.connection.keys(bytes("lease-test~*"));
+        if (leases != null && !leases.isEmpty()) {
+            this.connection.del(leases.toArray(new byte[leases.size()][]));
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return SERIALIZER.serialize(value);
+    }
+}
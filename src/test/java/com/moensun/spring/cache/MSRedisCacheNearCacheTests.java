@@ -0,0 +1,158 @@
+package com.moensun.spring.cache;
+
+import com.moensun.spring.cache.interceptor.LocalMSCacheMessageBroker;
+import com.moensun.spring.cache.interceptor.MSRedisCacheManager;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests that the in-process tier of {@link MSRedisCache} sees the writes of other nodes against a Redis server on
+ * {@code localhost:6379}, skipped when there is none. Each node is a cache of its own on the same Redis.
+ */
+public class MSRedisCacheNearCacheTests {
+
+    private static final long TIMEOUT = 5000;
+
+    private static JedisConnectionFactory connectionFactory;
+
+    // per test, the listener containers of destroyed brokers may hand back connections still leaving their subscription
+    private final JedisConnectionFactory nodesConnectionFactory = new JedisConnectionFactory();
+
+    private final RedisTemplate<String, String> template = new RedisTemplate<String, String>();
+
+    private final List<MSRedisCache> caches = new ArrayList<MSRedisCache>();
+
+    private final List<MSRedisCacheManager> cacheManagers = new ArrayList<MSRedisCacheManager>();
+
+    @BeforeClass
+    public static void connect() {
+        connectionFactory = new JedisConnectionFactory();
+        connectionFactory.afterPropertiesSet();
+        try {
+            connectionFactory.getConnection().close();
+        }
+        catch (RuntimeException ex) {
+            connectionFactory.destroy();
+            connectionFactory = null;
+        }
+        Assume.assumeTrue("Redis is not available on localhost:6379", connectionFactory != null);
+    }
+
+    @AfterClass
+    public static void disconnect() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        this.nodesConnectionFactory.afterPropertiesSet();
+        this.template.setConnectionFactory(this.nodesConnectionFactory);
+        this.template.setKeySerializer(new StringRedisSerializer());
+        this.template.setValueSerializer(new StringRedisSerializer());
+        this.template.afterPropertiesSet();
+        this.template.delete("near-test:k");
+    }
+
+    @After
+    public void tearDown() {
+        for (MSRedisCache cache : this.caches) {
+            cache.destroy();
+        }
+        for (MSRedisCacheManager cacheManager : this.cacheManagers) {
+            cacheManager.destroy();
+        }
+        this.template.delete("near-test:k");
+    }
+
+    @Test
+    public void localTierSeesWritesOfOtherNodes() throws InterruptedException {
+        MSRedisCache reader = node();
+        MSRedisCache writer = node();
+        writer.put("k", "v1");
+        awaitCached(reader, "v1");
+
+        awaitValue(reader, writer, "v2");
+    }
+
+    @Test
+    public void localTierOfManagedCachesSeesWritesOfOtherNodes() throws InterruptedException {
+        MSRedisCache reader = (MSRedisCache) managedNode().getCache("near-test");
+        MSRedisCache writer = (MSRedisCache) managedNode().getCache("near-test");
+        writer.put("k", "v1");
+        awaitCached(reader, "v1");
+
+        awaitValue(reader, writer, "v2");
+    }
+
+    @Test
+    public void keepsTheBrokerSetBeforeTheLocalTier() throws InterruptedException {
+        MSRedisCache reader = new MSRedisCache("near-test", "near-test:".getBytes(), this.template, 0);
+        this.caches.add(reader);
+        reader.setMessageBroker(new LocalMSCacheMessageBroker());
+        reader.setNearCacheMaxEntries(100);
+        MSRedisCache writer = node();
+        writer.put("k", "v1");
+        awaitCached(reader, "v1");
+
+        writer.put("k", "v2");
+        Thread.sleep(200);
+
+        assertEquals("v1", reader.get("k", String.class));
+    }
+
+
+    /**
+     * Read the value until the local tier keeps it: a read is not kept while invalidations of earlier writes arrive.
+     */
+    private static void awaitCached(MSRedisCache reader, String value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (reader.getNearCache().size() == 0 && System.currentTimeMillis() < deadline) {
+            assertEquals(value, reader.get("k", String.class));
+            Thread.sleep(20);
+        }
+        assertEquals(1, reader.getNearCache().size());
+    }
+
+    /**
+     * Write the value until the reader sees it: the subscription of a new node becomes active asynchronously.
+     */
+    private static void awaitValue(MSRedisCache reader, MSRedisCache writer, String value) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        writer.put("k", value);
+        while (!value.equals(reader.get("k", String.class)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            writer.put("k", value);
+        }
+        assertEquals(value, reader.get("k", String.class));
+    }
+
+    private MSRedisCache node() {
+        MSRedisCache cache = new MSRedisCache("near-test", "near-test:".getBytes(), this.template, 0);
+        cache.setNearCacheMaxEntries(100);
+        this.caches.add(cache);
+        return cache;
+    }
+
+    private MSRedisCacheManager managedNode() {
+        MSRedisCacheManager cacheManager = new MSRedisCacheManager(this.template);
+        cacheManager.setUsePrefix(true);
+        cacheManager.setNearCacheMaxEntries(100);
+        cacheManager.afterPropertiesSet();
+        this.cacheManagers.add(cacheManager);
+        return cacheManager;
+    }
+}
@@ -0,0 +1,173 @@
+package com.moensun.spring.cache;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link MSRedisCache.SingleFlight}.
+ */
+public class SingleFlightTests {
+
+    private static final int CALLERS = 8;
+
+    private final MSRedisCache.SingleFlight singleFlight = new MSRedisCache.SingleFlight();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentCallersShareOneExecution() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final Object value = new Object();
+
+        List<Future<Object>> results = callConcurrently(id("k"), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                return value;
+            }
+        });
+        release.countDown();
+
+        for (Future<Object> result : results) {
+            assertSame(value, result.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void concurrentCallersShareTheFailure() throws Exception {
+        final AtomicInteger executions = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final IllegalStateException failure = new IllegalStateException("load failed");
+
+        List<Future<Object>> results = callConcurrently(id("k"), new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                executions.incrementAndGet();
+                release.await();
+                throw failure;
+            }
+        });
+        release.countDown();
+
+        for (Future<Object> result : results) {
+            try {
+                result.get(5, TimeUnit.SECONDS);
+                fail("Expected the failure of the shared execution");
+            }
+            catch (ExecutionException ex) {
+                assertSame(failure, ex.getCause());
+            }
+        }
+        assertEquals(1, executions.get());
+    }
+
+    @Test
+    public void landedFlightIsNotRetained() {
+        final AtomicInteger executions = new AtomicInteger();
+        Callable<Object> callable = new Callable<Object>() {
+            @Override
+            public Object call() {
+                return executions.incrementAndGet();
+            }
+        };
+
+        assertEquals(1, this.singleFlight.execute(id("k"), callable));
+        assertEquals(2, this.singleFlight.execute(id("k"), callable));
+    }
+
+    @Test
+    public void differentIdsDoNotWaitForEachOther() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        Future<Object> blocked = this.executor.submit(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return singleFlight.execute(id("a"), new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        release.await();
+                        return "a";
+                    }
+                });
+            }
+        });
+
+        Object other = this.singleFlight.execute(id("b"), new Callable<Object>() {
+            @Override
+            public Object call() {
+                return "b";
+            }
+        });
+        assertEquals("b", other);
+        release.countDown();
+        assertEquals("a", blocked.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void checkedExceptionIsWrapped() {
+        try {
+            this.singleFlight.execute(id("k"), new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    throw new Exception("checked");
+                }
+            });
+            fail("Expected IllegalStateException");
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("checked", ex.getCause().getMessage());
+        }
+    }
+
+
+    /**
+     * Run the callable from {@link #CALLERS} threads at once, returning once all of them are waiting for the flight.
+     */
+    private List<Future<Object>> callConcurrently(final ByteBuffer id, final Callable<Object> callable)
+            throws InterruptedException {
+
+        final CountDownLatch started = new CountDownLatch(CALLERS);
+        List<Future<Object>> results = new ArrayList<Future<Object>>(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            results.add(this.executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() {
+                    started.countDown();
+                    return singleFlight.execute(id, callable);
+                }
+            }));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // give the last caller the time to join the flight
+        Thread.sleep(100);
+        return results;
+    }
+
+    private static ByteBuffer id(String key) {
+        return ByteBuffer.wrap(key.getBytes());
+    }
+}
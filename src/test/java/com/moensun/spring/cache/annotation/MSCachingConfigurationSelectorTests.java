@@ -0,0 +1,29 @@
+package com.moensun.spring.cache.annotation;
+
+import com.moensun.spring.cache.config.AspectJMSCachingConfiguration;
+import com.moensun.spring.cache.config.ProxyMSCachingConfiguration;
+import org.junit.Test;
+import org.springframework.context.annotation.AdviceMode;
+import org.springframework.context.annotation.AutoProxyRegistrar;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests the configurations imported for each {@link AdviceMode} of {@code @EnableMSCaching}.
+ */
+public class MSCachingConfigurationSelectorTests {
+
+    private final MSCachingConfigurationSelector selector = new MSCachingConfigurationSelector();
+
+    @Test
+    public void importsTheProxyConfiguration() {
+        assertArrayEquals(new String[] {AutoProxyRegistrar.class.getName(), ProxyMSCachingConfiguration.class.getName()},
+                this.selector.selectImports(AdviceMode.PROXY));
+    }
+
+    @Test
+    public void importsTheAspectJConfiguration() {
+        assertArrayEquals(new String[] {AspectJMSCachingConfiguration.class.getName()},
+                this.selector.selectImports(AdviceMode.ASPECTJ));
+    }
+}
@@ -0,0 +1,155 @@
+package com.moensun.spring.cache.aspectj;
+
+import com.moensun.spring.cache.annotation.MSCacheable;
+import com.moensun.spring.cache.interceptor.MSMemoryCacheManager;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests the advice of {@link AnnotationMSCacheAspect} through a stub join point, without weaving.
+ */
+public class AnnotationMSCacheAspectTests {
+
+    private MSMemoryCacheManager cacheManager;
+
+    private AnnotationMSCacheAspect cacheAspect;
+
+    private final UserRepository target = new UserRepository();
+
+    private final List<Object[]> proceedings = new ArrayList<Object[]>();
+
+    @Before
+    public void setUp() {
+        this.cacheManager = new MSMemoryCacheManager();
+        this.cacheManager.afterPropertiesSet();
+
+        this.cacheAspect = new AnnotationMSCacheAspect();
+        this.cacheAspect.setCacheManager(this.cacheManager);
+        this.cacheAspect.afterPropertiesSet();
+        this.cacheAspect.afterSingletonsInstantiated();
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheAspect.destroy();
+        this.cacheManager.destroy();
+    }
+
+    @Test
+    public void proceedsWithTheBoundObjectAheadOfTheArguments() throws Throwable {
+        assertEquals("user1", find(1L));
+        assertEquals("user1", find(1L));
+
+        assertEquals(1, this.proceedings.size());
+        assertSame(this.target, this.proceedings.get(0)[0]);
+        assertEquals(Arrays.<Object>asList(this.target, 1L), Arrays.asList(this.proceedings.get(0)));
+    }
+
+    @Test
+    public void proceedsWithTheReducedBulkArgument() throws Throwable {
+        findUsers(Arrays.asList(1L, 2L));
+        Map<Long, String> users = findUsers(Arrays.asList(3L, 1L, 2L, 4L));
+
+        assertEquals(2, this.proceedings.size());
+        assertSame(this.target, this.proceedings.get(1)[0]);
+        assertEquals(Arrays.asList(3L, 4L), this.proceedings.get(1)[1]);
+        assertEquals(Arrays.asList(3L, 4L), this.target.invocations.get(1));
+        assertEquals(Arrays.asList(3L, 1L, 2L, 4L), new ArrayList<Long>(users.keySet()));
+    }
+
+
+    private String find(Long id) throws Throwable {
+        return (String) this.cacheAspect.cache(joinPoint("find", Long.class, id), this.target);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Long, String> findUsers(List<Long> ids) throws Throwable {
+        return (Map<Long, String>) this.cacheAspect.cache(joinPoint("findUsers", List.class, ids), this.target);
+    }
+
+    /**
+     * A join point of the given method of {@link #target}, proceeding like a woven one: with the bound {@code this()}
+     * followed by the arguments.
+     */
+    private ProceedingJoinPoint joinPoint(String methodName, Class<?> parameterType, final Object argument)
+            throws NoSuchMethodException {
+
+        final Method method = UserRepository.class.getMethod(methodName, parameterType);
+        final MethodSignature signature = (MethodSignature) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {MethodSignature.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method signatureMethod, Object[] args) {
+                        if (signatureMethod.getName().equals("getMethod")) {
+                            return method;
+                        }
+                        throw new UnsupportedOperationException(signatureMethod.getName());
+                    }
+                });
+        return (ProceedingJoinPoint) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ProceedingJoinPoint.class}, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method joinPointMethod, Object[] args) throws Throwable {
+                        String name = joinPointMethod.getName();
+                        if (name.equals("getSignature")) {
+                            return signature;
+                        }
+                        if (name.equals("getArgs")) {
+                            return new Object[] {argument};
+                        }
+                        if (name.equals("getThis") || name.equals("getTarget")) {
+                            return target;
+                        }
+                        if (name.equals("proceed") && args != null && args.length == 1) {
+                            Object[] proceedArgs = (Object[]) args[0];
+                            proceedings.add(proceedArgs);
+                            try {
+                                return method.invoke(proceedArgs[0], Arrays.copyOfRange(proceedArgs, 1, proceedArgs.length));
+                            }
+                            catch (InvocationTargetException ex) {
+                                throw ex.getCause();
+                            }
+                        }
+                        throw new UnsupportedOperationException(name);
+                    }
+                });
+    }
+
+
+    public static class UserRepository {
+
+        private final List<List<Long>> invocations = new ArrayList<List<Long>>();
+
+        @MSCacheable(cacheNames = "user", key = "#id")
+        public String find(Long id) {
+            return "user" + id;
+        }
+
+        @MSCacheable(cacheNames = "users", bulk = true)
+        public Map<Long, String> findUsers(List<Long> ids) {
+            this.invocations.add(ids);
+            Map<Long, String> users = new LinkedHashMap<Long, String>();
+            for (Long id : ids) {
+                users.put(id, "user" + id);
+            }
+            return users;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.moensun.spring.cache.config;
+
+import com.moensun.spring.cache.EnableMSCaching;
+import com.moensun.spring.cache.aspectj.AnnotationMSCacheAspect;
+import com.moensun.spring.cache.interceptor.MSCacheResolver;
+import com.moensun.spring.cache.interceptor.MSMemoryCacheManager;
+import com.moensun.spring.cache.interceptor.RedisCacheManager;
+import com.moensun.spring.cache.interceptor.RedisCachingConfigurer;
+import com.moensun.spring.cache.interceptor.SimpleMSCacheResolver;
+import org.aspectj.lang.Aspects;
+import org.aspectj.weaver.loadtime.Aj;
+import org.junit.Test;
+import org.springframework.cache.interceptor.CacheErrorHandler;
+import org.springframework.cache.interceptor.KeyGenerator;
+import org.springframework.cache.interceptor.SimpleCacheErrorHandler;
+import org.springframework.cache.interceptor.SimpleKeyGenerator;
+import org.springframework.context.annotation.AdviceMode;
+import org.springframework.core.type.StandardAnnotationMetadata;
+import org.springframework.util.StreamUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that {@link AspectJMSCachingConfiguration} configures the aspect instance of {@link Aspects#aspectOf(Class)}.
+ * The aspect only has that instance once woven, so each test runs in a class loader weaving the classes of this
+ * library through the {@code META-INF/aop.xml} they ship with.
+ */
+public class AspectJMSCachingConfigurationTests {
+
+    @Test
+    public void configuresTheWovenAspectWithTheCacheResolver() throws Exception {
+        runWoven(CacheResolverWiring.class);
+    }
+
+    @Test
+    public void configuresTheWovenAspectWithTheCacheManager() throws Exception {
+        runWoven(CacheManagerWiring.class);
+    }
+
+
+    private static void runWoven(Class<? extends Runnable> wiring) throws Exception {
+        ClassLoader classLoader = new WeavingClassLoader(AspectJMSCachingConfigurationTests.class.getClassLoader());
+        ((Runnable) classLoader.loadClass(wiring.getName()).newInstance()).run();
+    }
+
+    private static AnnotationMSCacheAspect cacheAspect(RedisCachingConfigurer configurer) {
+        AspectJMSCachingConfiguration configuration = new AspectJMSCachingConfiguration();
+        configuration.setImportMetadata(new StandardAnnotationMetadata(AspectJConfig.class));
+        configuration.useCachingConfigurer(configurer);
+        AnnotationMSCacheAspect cacheAspect = configuration.cacheAspect();
+        assertSame(Aspects.aspectOf(AnnotationMSCacheAspect.class), cacheAspect);
+        return cacheAspect;
+    }
+
+
+    public static class CacheResolverWiring implements Runnable {
+
+        @Override
+        public void run() {
+            TestCachingConfigurer configurer = new TestCachingConfigurer();
+            configurer.cacheResolver = new SimpleMSCacheResolver(configurer.cacheManager);
+
+            AnnotationMSCacheAspect cacheAspect = cacheAspect(configurer);
+
+            assertSame(configurer.cacheResolver, cacheAspect.getCacheResolver());
+            assertSame(configurer.keyGenerator, cacheAspect.getKeyGenerator());
+            assertSame(configurer.errorHandler, cacheAspect.getErrorHandler());
+        }
+    }
+
+    public static class CacheManagerWiring implements Runnable {
+
+        @Override
+        public void run() {
+            TestCachingConfigurer configurer = new TestCachingConfigurer();
+
+            AnnotationMSCacheAspect cacheAspect = cacheAspect(configurer);
+
+            assertTrue(cacheAspect.getCacheResolver() instanceof SimpleMSCacheResolver);
+            assertSame(configurer.cacheManager,
+                    ((SimpleMSCacheResolver) cacheAspect.getCacheResolver()).getCacheManager());
+            assertSame(configurer.errorHandler, cacheAspect.getErrorHandler());
+        }
+    }
+
+    @EnableMSCaching(mode = AdviceMode.ASPECTJ)
+    static class AspectJConfig {
+    }
+
+    static class TestCachingConfigurer implements RedisCachingConfigurer {
+
+        final RedisCacheManager cacheManager = new MSMemoryCacheManager();
+
+        MSCacheResolver cacheResolver;
+
+        final KeyGenerator keyGenerator = new SimpleKeyGenerator();
+
+        final CacheErrorHandler errorHandler = new SimpleCacheErrorHandler();
+
+        @Override
+        public RedisCacheManager cacheManager() {
+            return this.cacheManager;
+        }
+
+        @Override
+        public MSCacheResolver cacheResolver() {
+            return this.cacheResolver;
+        }
+
+        @Override
+        public KeyGenerator keyGenerator() {
+            return this.keyGenerator;
+        }
+
+        @Override
+        public CacheErrorHandler errorHandler() {
+            return this.errorHandler;
+        }
+    }
+
+
+    /**
+     * Loads the classes of this library itself, passing them through the AspectJ load-time weaver as the
+     * {@code -javaagent} would, and leaves every other class to its parent.
+     */
+    private static class WeavingClassLoader extends ClassLoader {
+
+        private static final String WOVEN_PACKAGE = "com.moensun.spring.cache.";
+
+        private final Aj weaver = new Aj();
+
+        WeavingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(WOVEN_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loaded = findLoadedClass(name);
+                if (loaded == null) {
+                    loaded = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(loaded);
+                }
+                return loaded;
+            }
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+            if (in == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try {
+                byte[] bytes = StreamUtils.copyToByteArray(in);
+                byte[] woven = this.weaver.preProcess(name, bytes, this, null);
+                return defineClass(name, woven, 0, woven.length);
+            }
+            catch (IOException ex) {
+                throw new ClassNotFoundException(name, ex);
+            }
+            finally {
+                try {
+                    in.close();
+                }
+                catch (IOException ex) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.moensun.spring.cache.annotation.MSCacheable;
+import com.moensun.spring.cache.operation.AnnotationMSCacheOperationSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the split, invoke and merge steps of {@link MSCacheable#bulk()} operations.
+ */
+public class MSCacheInterceptorBulkTests {
+
+    private MSMemoryCacheManager cacheManager;
+
+    private UserRepository target;
+
+    private UserService service;
+
+    @Before
+    public void setUp() {
+        this.cacheManager = new MSMemoryCacheManager();
+        this.cacheManager.afterPropertiesSet();
+
+        MSCacheInterceptor interceptor = new MSCacheInterceptor();
+        interceptor.setCacheOperationSources(new AnnotationMSCacheOperationSource());
+        interceptor.setCacheManager(this.cacheManager);
+        interceptor.afterPropertiesSet();
+        interceptor.afterSingletonsInstantiated();
+
+        this.target = new UserRepository();
+        ProxyFactory proxyFactory = new ProxyFactory(this.target);
+        proxyFactory.addInterface(UserService.class);
+        proxyFactory.addAdvice(interceptor);
+        this.service = (UserService) proxyFactory.getProxy();
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.destroy();
+    }
+
+    @Test
+    public void invokesMethodWithMissingElementsOnly() {
+        this.service.findUsers(Arrays.asList(1L, 2L));
+        Map<Long, String> users = this.service.findUsers(Arrays.asList(3L, 1L, 2L, 4L));
+
+        assertEquals(2, this.target.invocations.size());
+        assertEquals(Arrays.asList(1L, 2L), this.target.invocations.get(0));
+        assertEquals(Arrays.asList(3L, 4L), this.target.invocations.get(1));
+        assertEquals(Arrays.asList(3L, 1L, 2L, 4L), new ArrayList<Long>(users.keySet()));
+        assertEquals("user3", users.get(3L));
+        assertEquals("user1", users.get(1L));
+    }
+
+    @Test
+    public void skipsInvocationWhenAllElementsAreCached() {
+        this.service.findUsers(Arrays.asList(1L, 2L));
+        Map<Long, String> users = this.service.findUsers(Arrays.asList(2L, 1L));
+
+        assertEquals(1, this.target.invocations.size());
+        assertEquals(Arrays.asList(2L, 1L), new ArrayList<Long>(users.keySet()));
+    }
+
+    @Test
+    public void cachesEachElementUnderItsOwnKey() {
+        this.service.findUsers(Arrays.asList(1L, 2L));
+
+        assertEquals("user1", this.cacheManager.getCache("users").get(1L).get());
+        assertEquals("user2", this.cacheManager.getCache("users").get(2L).get());
+    }
+
+    @Test
+    public void leavesOutElementsTheMethodDoesNotReturn() {
+        Map<Long, String> users = this.service.findUsers(Arrays.asList(1L, -1L));
+        assertEquals(Collections.singleton(1L), users.keySet());
+        assertNull(this.cacheManager.getCache("users").get(-1L));
+
+        this.service.findUsers(Arrays.asList(1L, -1L));
+        assertEquals(Arrays.asList(-1L), this.target.invocations.get(1));
+    }
+
+    @Test
+    public void restoresOriginalArgumentAfterInvocation() {
+        this.service.findUsers(Arrays.asList(1L));
+        List<Long> ids = Arrays.asList(1L, 2L);
+        this.service.findUsers(ids);
+
+        assertTrue(this.target.invocations.get(1) != ids);
+        assertEquals(Arrays.asList(1L, 2L), ids);
+    }
+
+
+    public interface UserService {
+
+        Map<Long, String> findUsers(List<Long> ids);
+    }
+
+    public static class UserRepository implements UserService {
+
+        private final List<List<Long>> invocations = new ArrayList<List<Long>>();
+
+        @Override
+        @MSCacheable(cacheNames = "users", bulk = true)
+        public Map<Long, String> findUsers(List<Long> ids) {
+            this.invocations.add(ids);
+            Map<Long, String> users = new LinkedHashMap<Long, String>();
+            for (Long id : ids) {
+                if (id > 0) {
+                    users.put(id, "user" + id);
+                }
+            }
+            return users;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.moensun.spring.cache.interceptor;
+
+import com.moensun.spring.cache.annotation.MSCachePut;
+import com.moensun.spring.cache.annotation.MSCacheable;
+import com.moensun.spring.cache.annotation.MSCaching;
+import com.moensun.spring.cache.operation.AnnotationMSCacheOperationSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests when the value of a cache operation's condition is reused across the phases of an invocation.
+ */
+public class MSCacheInterceptorConditionTests {
+
+    private MSMemoryCacheManager cacheManager;
+
+    private AccountRepository target;
+
+    private AccountService service;
+
+    @Before
+    public void setUp() {
+        this.cacheManager = new MSMemoryCacheManager();
+        this.cacheManager.afterPropertiesSet();
+
+        MSCacheInterceptor interceptor = new MSCacheInterceptor();
+        interceptor.setCacheOperationSources(new AnnotationMSCacheOperationSource());
+        interceptor.setCacheManager(this.cacheManager);
+        interceptor.afterPropertiesSet();
+        interceptor.afterSingletonsInstantiated();
+
+        this.target = new AccountRepository();
+        ProxyFactory proxyFactory = new ProxyFactory(this.target);
+        proxyFactory.addInterface(AccountService.class);
+        proxyFactory.addAdvice(interceptor);
+        this.service = (AccountService) proxyFactory.getProxy();
+        Counter.evaluations = 0;
+    }
+
+    @After
+    public void tearDown() {
+        this.cacheManager.destroy();
+    }
+
+    @Test
+    public void cachePutConditionIsEvaluatedAgainAfterInvocation() {
+        this.cacheManager.getCache("accounts").put(1L, 1L);
+        Account account = new Account();
+        this.service.register(1L, account);
+
+        assertNotNull(account.id);
+        assertEquals(account.id, this.cacheManager.getCache("registrations").get(1L).get());
+    }
+
+    @Test
+    public void cacheableConditionIsEvaluatedOncePerInvocation() {
+        this.service.find(1L);
+        assertEquals(1, Counter.evaluations);
+
+        this.service.find(1L);
+        assertEquals(1, this.target.finds);
+        assertEquals(2, Counter.evaluations);
+    }
+
+    @Test
+    public void failingCacheableConditionBypassesCache() {
+        this.service.find(-1L);
+        this.service.find(-1L);
+
+        assertEquals(2, this.target.finds);
+        assertNull(this.cacheManager.getCache("accounts").get(-1L));
+    }
+
+
+    public interface AccountService {
+
+        Long register(Long id, Account account);
+
+        Long find(Long id);
+    }
+
+    public static class AccountRepository implements AccountService {
+
+        private long sequence;
+
+        private int finds;
+
+        @Override
+        @MSCaching(cacheable = @MSCacheable(cacheNames = "accounts", key = "#id"), put = {
+                @MSCachePut(cacheNames = "accounts", key = "#id"),
+                @MSCachePut(cacheNames = "registrations", key = "#id", condition = "#account.id != null")})
+        public Long register(Long id, Account account) {
+            account.id = ++this.sequence;
+            return account.id;
+        }
+
+        @Override
+        @MSCacheable(cacheNames = "accounts", condition = "T(com.moensun.spring.cache.interceptor.MSCacheInterceptorConditionTests.Counter).positive(#id)")
+        public Long find(Long id) {
+            this.finds++;
+            return id;
+        }
+    }
+
+    public static class Account {
+
+        public Long id;
+
+        public Long getId() {
+            return this.id;
+        }
+    }
+
+    public static class Counter {
+
+        static int evaluations;
+
+        public static boolean positive(Long id) {
+            evaluations++;
+            return id > 0;
+        }
+    }
+}
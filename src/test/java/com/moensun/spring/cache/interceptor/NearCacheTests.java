@@ -0,0 +1,142 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the bounds, expiry, invalidation and W-TinyLFU admission of {@link NearCache}.
+ */
+public class NearCacheTests {
+
+    @Test
+    public void returnsAddedValueAndCountsHitsAndMisses() {
+        NearCache cache = new NearCache(10, 0);
+        cache.put(key("a"), "value", 5, 0, cache.getEpoch());
+
+        assertEquals("value", cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(6, cache.getWeight());
+    }
+
+    @Test
+    public void keepsHashFieldsApart() {
+        NearCache cache = new NearCache(10, 0);
+        cache.put(NearCache.key(bytes("h"), bytes("f1")), "v1", 2, 0, cache.getEpoch());
+        cache.put(NearCache.key(bytes("h"), bytes("f2")), "v2", 2, 0, cache.getEpoch());
+
+        assertEquals("v1", cache.get(NearCache.key(bytes("h"), bytes("f1"))));
+        assertEquals("v2", cache.get(NearCache.key(bytes("h"), bytes("f2"))));
+        assertNull(cache.get(key("h")));
+    }
+
+    @Test
+    public void dropsValueReadBeforeAnInvalidation() {
+        NearCache cache = new NearCache(10, 0);
+        long readEpoch = cache.getEpoch();
+        cache.invalidate(key("a"));
+        cache.put(key("a"), "stale", 5, 0, readEpoch);
+
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void expiresEntriesAfterTheirTimeToLive() throws InterruptedException {
+        NearCache cache = new NearCache(10, 0);
+        cache.put(key("a"), "value", 5, 50, cache.getEpoch());
+        assertEquals("value", cache.get(key("a")));
+
+        Thread.sleep(100);
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void invalidatesSingleAndAllEntries() {
+        NearCache cache = new NearCache(10, 0);
+        for (int i = 0; i < 5; i++) {
+            cache.put(key("k" + i), i, 4, 0, cache.getEpoch());
+        }
+
+        cache.invalidate(key("k0"));
+        assertNull(cache.get(key("k0")));
+        assertEquals(4, cache.size());
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertNull(cache.get(key("k1")));
+    }
+
+    @Test
+    public void staysWithinTheMaximumEntries() {
+        NearCache cache = new NearCache(100, 0);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(key("k" + i), i, 4, 0, cache.getEpoch());
+        }
+
+        assertEquals(100, cache.size());
+        assertEquals(900, cache.getEvictionCount());
+    }
+
+    @Test
+    public void staysWithinTheMaximumWeight() {
+        NearCache cache = new NearCache(1000, 1000);
+        for (int i = 0; i < 100; i++) {
+            cache.put(key("k" + i), i, 96, 0, cache.getEpoch());
+        }
+
+        assertTrue("weight " + cache.getWeight(), cache.getWeight() <= 1000);
+        assertTrue(cache.size() <= 10);
+    }
+
+    @Test
+    public void rejectsEntriesHeavierThanTheMaximumWeight() {
+        NearCache cache = new NearCache(10, 100);
+        cache.put(key("a"), "value", 200, 0, cache.getEpoch());
+
+        assertNull(cache.get(key("a")));
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void frequentlyReadEntriesSurviveAScan() {
+        NearCache cache = new NearCache(100, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.put(key("hot" + i), i, 4, 0, cache.getEpoch());
+        }
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.get(key("hot" + i));
+            }
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put(key("scan" + i), i, 4, 0, cache.getEpoch());
+        }
+
+        int retained = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get(key("hot" + i)) != null) {
+                retained++;
+            }
+        }
+        assertTrue("retained " + retained + " of 50 hot entries", retained >= 45);
+        assertEquals(100, cache.size());
+    }
+
+
+    private static NearCache.Key key(String key) {
+        return NearCache.key(bytes(key), null);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}
@@ -0,0 +1,179 @@
+package com.moensun.spring.cache.interceptor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the index, slab recycling, expiry and invalidation of {@link OffHeapStore}.
+ */
+public class OffHeapStoreTests {
+
+    @Test
+    public void returnsCopyOfAddedValue() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        store.put(key("a"), bytes("value"), 0, store.getEpoch());
+
+        assertArrayEquals(bytes("value"), store.get(key("a")));
+        assertNull(store.get(key("b")));
+        assertEquals(1, store.getEntryCount());
+        assertEquals(1, store.getHitCount());
+        assertEquals(1, store.getMissCount());
+    }
+
+    @Test
+    public void replacesValueOfExistingKey() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        store.put(key("a"), bytes("first"), 0, store.getEpoch());
+        long liveBytes = store.getLiveBytes();
+        store.put(key("a"), bytes("second"), 0, store.getEpoch());
+
+        assertArrayEquals(bytes("second"), store.get(key("a")));
+        assertEquals(1, store.getEntryCount());
+        assertEquals(liveBytes + 1, store.getLiveBytes());
+    }
+
+    @Test
+    public void keepsHashFieldsApart() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        store.put(NearCache.key(bytes("h"), bytes("f1")), bytes("v1"), 0, store.getEpoch());
+        store.put(NearCache.key(bytes("h"), bytes("f2")), bytes("v2"), 0, store.getEpoch());
+
+        assertArrayEquals(bytes("v1"), store.get(NearCache.key(bytes("h"), bytes("f1"))));
+        assertArrayEquals(bytes("v2"), store.get(NearCache.key(bytes("h"), bytes("f2"))));
+        assertNull(store.get(key("h")));
+    }
+
+    @Test
+    public void findsEntriesBehindARemovedCollidingEntry() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        // "Aa" and "BB" share their hash code, so these keys share their home slot in the index
+        String[] keys = {"AaAa", "AaBB", "BBAa", "BBBB"};
+        for (String key : keys) {
+            store.put(key(key), bytes(key), 0, store.getEpoch());
+        }
+
+        store.invalidate(key("AaBB"));
+        assertNull(store.get(key("AaBB")));
+        assertArrayEquals(bytes("AaAa"), store.get(key("AaAa")));
+        assertArrayEquals(bytes("BBAa"), store.get(key("BBAa")));
+        assertArrayEquals(bytes("BBBB"), store.get(key("BBBB")));
+
+        store.invalidate(key("AaAa"));
+        assertArrayEquals(bytes("BBAa"), store.get(key("BBAa")));
+        assertArrayEquals(bytes("BBBB"), store.get(key("BBBB")));
+        assertEquals(2, store.getEntryCount());
+    }
+
+    @Test
+    public void indexAgreesWithAMapAcrossRandomUpdates() {
+        OffHeapStore store = new OffHeapStore(1 << 24);
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20000; i++) {
+            String key = "k" + random.nextInt(500);
+            if (random.nextInt(3) == 0) {
+                store.invalidate(key(key));
+                expected.remove(key);
+            } else {
+                String value = key + "-" + i;
+                store.put(key(key), bytes(value), 0, store.getEpoch());
+                expected.put(key, value);
+            }
+        }
+
+        for (int i = 0; i < 500; i++) {
+            String key = "k" + i;
+            String value = expected.get(key);
+            assertArrayEquals(key, value != null ? bytes(value) : null, store.get(key(key)));
+        }
+        assertEquals(expected.size(), store.getEntryCount());
+    }
+
+    @Test
+    public void recyclesOldestSlabWhenFull() {
+        // two slabs of the minimum size in a single segment
+        OffHeapStore store = new OffHeapStore(2 * 4096);
+        byte[] value = new byte[1000];
+        List<NearCache.Key> keys = new ArrayList<NearCache.Key>();
+        for (int i = 0; i < 12; i++) {
+            keys.add(key("k" + i));
+            store.put(keys.get(i), value, 0, store.getEpoch());
+        }
+
+        assertTrue(store.getEvictionCount() > 0);
+        assertNull(store.get(keys.get(0)));
+        assertArrayEquals(value, store.get(keys.get(11)));
+        assertEquals(12 - store.getEvictionCount(), store.getEntryCount());
+        assertTrue(store.getLiveBytes() <= store.getCapacity());
+        assertEquals(store.getCapacity(), store.getAllocatedBytes());
+    }
+
+    @Test
+    public void rejectsRecordsLargerThanASlab() {
+        OffHeapStore store = new OffHeapStore(2 * 4096);
+        store.put(key("a"), new byte[5000], 0, store.getEpoch());
+
+        assertNull(store.get(key("a")));
+        assertEquals(0, store.getEntryCount());
+    }
+
+    @Test
+    public void dropsValueReadBeforeAnInvalidation() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        long readEpoch = store.getEpoch();
+        store.invalidate(key("a"));
+        store.put(key("a"), bytes("stale"), 0, readEpoch);
+
+        assertNull(store.get(key("a")));
+    }
+
+    @Test
+    public void expiresEntriesAfterTheirTimeToLive() throws InterruptedException {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        store.put(key("a"), bytes("value"), 50, store.getEpoch());
+        assertArrayEquals(bytes("value"), store.get(key("a")));
+
+        Thread.sleep(100);
+        assertNull(store.get(key("a")));
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0, store.getLiveBytes());
+    }
+
+    @Test
+    public void invalidateAllKeepsSlabsForReuse() {
+        OffHeapStore store = new OffHeapStore(1 << 20);
+        for (int i = 0; i < 100; i++) {
+            store.put(key("k" + i), bytes("v" + i), 0, store.getEpoch());
+        }
+        long allocated = store.getAllocatedBytes();
+
+        store.invalidateAll();
+        assertEquals(0, store.getEntryCount());
+        assertEquals(0, store.getLiveBytes());
+        assertNull(store.get(key("k1")));
+
+        store.put(key("k1"), bytes("again"), 0, store.getEpoch());
+        assertArrayEquals(bytes("again"), store.get(key("k1")));
+        assertEquals(allocated, store.getAllocatedBytes());
+    }
+
+
+    private static NearCache.Key key(String key) {
+        return NearCache.key(bytes(key), null);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}